@@ -0,0 +1,72 @@
+package com.vamshikrishna;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+// new connections per second, each one connecting, getting a single response and resetting, from eight client
+// threads at once. The handshake completes in the kernel before accept, so the response is what makes the
+// acceptors part of the measurement. Compare acceptors=1 against more, with and without SO_REUSEPORT.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class AcceptRateBenchmark {
+    private static final byte[] REQUEST = LoopbackClient.request("localhost", "/items/1", 1);
+
+    @Param({"virtual", "nio"})
+    String server;
+
+    @Param({"1", "2", "4"})
+    int acceptors;
+
+    @Param({"false", "true"})
+    boolean reusePort;
+
+    private BenchmarkServers.Running running;
+    private PrintStream stdout;
+    private int port;
+
+    @Setup
+    public void startServer() throws Exception {
+        stdout = BenchmarkServers.silenceStdout();
+        port = BenchmarkServers.freePort();
+        running = BenchmarkServers.start(server, BenchmarkServers.settings(port).acceptors(acceptors).reusePort(reusePort).build());
+        Thread.sleep(100); // the acceptors run on their own threads
+    }
+
+    @TearDown
+    public void stopServer() {
+        running.close();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int connect() throws IOException {
+        var client = new LoopbackClient("localhost", port);
+        try {
+            client.send(REQUEST);
+            return client.readResponses(1);
+        }
+        finally {
+            client.abort();
+        }
+    }
+}
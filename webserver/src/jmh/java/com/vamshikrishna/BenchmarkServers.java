@@ -0,0 +1,85 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// the server configurations benchmarks run against, by name:
+//   fixed-N   HttpServerImpl with a fixed pool of N connection threads
+//   cached    HttpServerImpl with an unbounded cached pool
+//   virtual   HttpServerImpl with a virtual thread per connection
+//   nio       NioHttpServer with one event loop per core and a fixed worker pool
+final class BenchmarkServers {
+    static final byte[] BODY = """
+            {"id": 1, "name": "benchmark", "tags": ["fast", "small"]}
+            """.getBytes(StandardCharsets.UTF_8);
+    static final HttpRequestHandler HANDLER = request -> new HttpResponse(200, Map.of(
+            "Content-Type", List.of("application/json"),
+            "Content-Length", List.of(String.valueOf(BODY.length))), BODY);
+    private static final int CONNECTION_TIMEOUT = 30_000;
+
+    private BenchmarkServers() {
+    }
+
+    // a started server and the executor it was given, closing stops both so the JVM can exit
+    record Running(HttpServer server, ExecutorService executor) implements AutoCloseable {
+        @Override
+        public void close() {
+            server.stop();
+            if(executor != null) executor.shutdownNow();
+        }
+    }
+
+    static Running start(String config, int port) {
+        return start(config, settings(port).build());
+    }
+
+    // the defaults every benchmark uses, for those that tune the listening side further
+    static HttpServerConfig.Builder settings(int port) {
+        return HttpServerConfig.builder(port).policy(ConnectionPolicy.withTimeout(CONNECTION_TIMEOUT));
+    }
+
+    static Running start(String config, HttpServerConfig settings) {
+        ExecutorService executor = null;
+        HttpServer server;
+        if(config.startsWith("fixed-")) {
+            executor = Executors.newFixedThreadPool(Integer.parseInt(config.substring("fixed-".length())));
+            server = new HttpServerImpl(executor, settings);
+        }
+        else if(config.equals("cached")) {
+            executor = Executors.newCachedThreadPool();
+            server = new HttpServerImpl(executor, settings);
+        }
+        else if(config.equals("virtual")) {
+            server = HttpServerImpl.withVirtualThreads(settings);
+        }
+        else if(config.equals("nio")) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+            server = new NioHttpServer(executor, settings);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown server configuration %s".formatted(config));
+        }
+        server.start(HANDLER);
+        return new Running(server, executor);
+    }
+
+    static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // the acceptors announce shutdown on stdout, which would otherwise end up in the middle of the results
+    static PrintStream silenceStdout() {
+        var original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return original;
+    }
+}
@@ -0,0 +1,173 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// closed-loop load over keep-alive connections, one client thread per connection. Runs every requested server
+// configuration (see BenchmarkServers) in process, or a single external server with --target, and prints one JSON
+// document so runs can be diffed or fed to a dashboard. The blocking server holds a thread per connection, so fixed
+// pools smaller than --connections leave clients waiting and show up as errors.
+//
+//   java -cp target/benchmarks.jar com.vamshikrishna.LoadGenerator --servers fixed-100,cached,virtual,nio \
+//        --connections 64 --duration 10 --warmup 3 --pipeline 1 --out results.json
+public class LoadGenerator {
+    private record Options(List<String> servers, String target, int connections, int durationSeconds,
+                           int warmupSeconds, int pipeline, String path, Path out) {
+    }
+
+    private record Result(long requests, long errors, double seconds, long[] latencies) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = parse(args);
+        var runs = new ArrayList<String>();
+        if(options.target() != null) {
+            var hostAndPort = options.target().split(":");
+            runs.add(run(options.target(), hostAndPort[0], Integer.parseInt(hostAndPort[1]), options));
+        }
+        else {
+            for(var config : options.servers()) {
+                var stdout = BenchmarkServers.silenceStdout();
+                var port = BenchmarkServers.freePort();
+                var server = BenchmarkServers.start(config, port);
+                try {
+                    Thread.sleep(100);
+                    runs.add(run(config, "localhost", port, options));
+                }
+                finally {
+                    server.close();
+                    Thread.sleep(100); // the acceptor says goodbye on stdout
+                    System.setOut(stdout);
+                }
+            }
+        }
+        var json = "{\"runs\": [\n" + String.join(",\n", runs) + "\n]}\n";
+        if(options.out() != null) Files.writeString(options.out(), json);
+        System.out.print(json);
+    }
+
+    private static String run(String name, String host, int port, Options options) throws InterruptedException {
+        if(options.warmupSeconds() > 0) {
+            load(host, port, options, options.warmupSeconds());
+        }
+        var result = load(host, port, options, options.durationSeconds());
+        var latencies = result.latencies();
+        Arrays.sort(latencies);
+        return String.format(Locale.ROOT, """
+                  {"server": "%s", "connections": %d, "pipeline": %d, "durationSeconds": %.3f, "requests": %d, "errors": %d, \
+                "requestsPerSecond": %.1f, "latencyMicros": {"p50": %.1f, "p99": %.1f, "p999": %.1f, "max": %.1f}}""",
+                name, options.connections(), options.pipeline(), result.seconds(), result.requests(), result.errors(),
+                result.requests() / result.seconds(), percentile(latencies, 0.50), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1000.0);
+    }
+
+    // latency is measured per round trip, so with --pipeline N one sample covers a batch of N requests
+    private static Result load(String host, int port, Options options, int seconds) throws InterruptedException {
+        var requests = new AtomicLong();
+        var errors = new AtomicLong();
+        var samples = new long[options.connections()][];
+        var sampleCounts = new int[options.connections()];
+        var ready = new CountDownLatch(options.connections());
+        var go = new CountDownLatch(1);
+        var deadline = new long[1];
+        var threads = new Thread[options.connections()];
+        for(int i = 0; i < threads.length; i++) {
+            var index = i;
+            threads[i] = new Thread(() -> {
+                var recorded = new long[1 << 16];
+                var count = 0;
+                var payload = LoopbackClient.request(host, options.path(), options.pipeline());
+                LoopbackClient client = null;
+                try {
+                    client = new LoopbackClient(host, port);
+                    ready.countDown();
+                    go.await();
+                    while(System.nanoTime() < deadline[0]) {
+                        var start = System.nanoTime();
+                        try {
+                            client.send(payload);
+                            errors.addAndGet(client.readResponses(options.pipeline()));
+                        }
+                        catch (IOException e) {
+                            errors.incrementAndGet();
+                            client.close();
+                            client = new LoopbackClient(host, port);
+                            continue;
+                        }
+                        if(count == recorded.length) recorded = Arrays.copyOf(recorded, count * 2);
+                        recorded[count++] = System.nanoTime() - start;
+                        requests.addAndGet(options.pipeline());
+                    }
+                }
+                catch (IOException | InterruptedException e) {
+                    errors.incrementAndGet();
+                    ready.countDown();
+                }
+                finally {
+                    samples[index] = recorded;
+                    sampleCounts[index] = count;
+                    try {
+                        if(client != null) client.close();
+                    } catch (IOException ignored) {
+
+                    }
+                }
+            }, "load-" + i);
+            threads[i].start();
+        }
+        ready.await();
+        var start = System.nanoTime();
+        deadline[0] = start + seconds * 1_000_000_000L;
+        go.countDown();
+        for(var thread : threads) {
+            thread.join();
+        }
+        var elapsed = (System.nanoTime() - start) / 1e9;
+        var latencies = new long[Arrays.stream(sampleCounts).sum()];
+        var offset = 0;
+        for(int i = 0; i < samples.length; i++) {
+            System.arraycopy(samples[i], 0, latencies, offset, sampleCounts[i]);
+            offset += sampleCounts[i];
+        }
+        return new Result(requests.get(), errors.get(), elapsed, latencies);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if(sorted.length == 0) return 0;
+        var index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+
+    private static Options parse(String[] args) {
+        var servers = List.of("fixed-100", "cached", "virtual", "nio");
+        String target = null;
+        var connections = 32;
+        var duration = 10;
+        var warmup = 3;
+        var pipeline = 1;
+        var path = "/items/1";
+        Path out = null;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            var value = args[i + 1];
+            switch (args[i]) {
+                case "--servers" -> servers = List.of(value.split(","));
+                case "--target" -> target = value;
+                case "--connections" -> connections = Integer.parseInt(value);
+                case "--duration" -> duration = Integer.parseInt(value);
+                case "--warmup" -> warmup = Integer.parseInt(value);
+                case "--pipeline" -> pipeline = Integer.parseInt(value);
+                case "--path" -> path = value;
+                case "--out" -> out = Path.of(value);
+                default -> throw new IllegalArgumentException("Unknown option %s".formatted(args[i]));
+            }
+        }
+        return new Options(servers, target, connections, duration, warmup, pipeline, path, out);
+    }
+}
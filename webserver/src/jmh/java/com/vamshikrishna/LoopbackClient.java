@@ -0,0 +1,105 @@
+package com.vamshikrishna;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// minimal keep-alive HTTP/1.1 client for benchmarks. It only understands Content-Length framed responses, which is
+// all the benchmark handlers produce, and keeps allocation out of the measured path.
+final class LoopbackClient implements Closeable {
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+    // a connection the server never picks up (a fixed pool smaller than the connection count) fails instead of hanging
+    private static final int READ_TIMEOUT_MILLIS = 2_000;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private byte[] buffer = new byte[65_536];
+    private int start;
+    private int end;
+
+    LoopbackClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        in = socket.getInputStream();
+        out = socket.getOutputStream();
+    }
+
+    static byte[] request(String host, String path, int count) {
+        var request = "GET %s HTTP/1.1\r\nHost: %s\r\nUser-Agent: webserver-benchmark\r\nAccept: */*\r\n\r\n".formatted(path, host);
+        return request.repeat(count).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    void send(byte[] requests) throws IOException {
+        out.write(requests);
+        out.flush();
+    }
+
+    // reads count responses and returns how many of them were not 2xx
+    int readResponses(int count) throws IOException {
+        var failures = 0;
+        for(int i = 0; i < count; i++) {
+            var headEnd = -1;
+            while((headEnd = indexOfHeadEnd()) < 0) fill();
+            var status = (buffer[start + 9] - '0') * 100 + (buffer[start + 10] - '0') * 10 + (buffer[start + 11] - '0');
+            if(status < 200 || status >= 300) failures++;
+            var responseEnd = headEnd + contentLength(start, headEnd);
+            while(end < responseEnd) fill();
+            start = responseEnd;
+        }
+        return failures;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // closes with a reset instead of a FIN, so benchmarks opening thousands of connections don't run out of
+    // loopback ports to TIME_WAIT
+    void abort() throws IOException {
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    private void fill() throws IOException {
+        if(start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if(end == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        var read = in.read(buffer, end, buffer.length - end);
+        if(read < 0) throw new EOFException("Server closed the connection");
+        end += read;
+    }
+
+    // offset just past the blank line, -1 if the head isn't complete yet
+    private int indexOfHeadEnd() {
+        for(int i = start; i + 3 < end; i++) {
+            if(buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') return i + 4;
+        }
+        return -1;
+    }
+
+    private int contentLength(int from, int to) {
+        outer:
+        for(int i = from; i < to - CONTENT_LENGTH.length; i++) {
+            if(buffer[i] != '\n') continue;
+            for(int j = 0; j < CONTENT_LENGTH.length; j++) {
+                if(HttpHeaderNames.toLowerCase(buffer[i + 1 + j]) != CONTENT_LENGTH[j]) continue outer;
+            }
+            var length = 0;
+            for(int k = i + 1 + CONTENT_LENGTH.length; k < to && buffer[k] != '\r'; k++) {
+                if(buffer[k] >= '0' && buffer[k] <= '9') length = length * 10 + buffer[k] - '0';
+            }
+            return length;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,63 @@
+package com.vamshikrishna;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// the two ways a response gets encoded: into a pooled buffer for the NIO server and into the blocking writer's
+// reused buffer
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseEncoderBenchmark {
+    @Param({"128", "4096", "65536"})
+    int bodySize;
+
+    private HttpResponse response;
+    private final ByteBuffer writerBuffer = ByteBuffer.allocate(16_384);
+
+    @Setup
+    public void setUp() {
+        var body = "x".repeat(bodySize).getBytes(StandardCharsets.US_ASCII);
+        response = new HttpResponse(200, Map.of(
+                "Content-Type", List.of("application/json"),
+                "Content-Length", List.of(String.valueOf(body.length)),
+                "Cache-Control", List.of("no-store"),
+                "X-Request-Id", List.of("6f1c9e2a-2b7d-4c1e-9a3f-5d8e7b6a4c21")), body);
+    }
+
+    @Benchmark
+    public int encodePooled() {
+        var encoded = ResponseEncoder.encode(response, BufferPool.DIRECT);
+        var length = 0;
+        for(var buffer : encoded) {
+            length += buffer.buffer().remaining();
+            buffer.release();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int encodeHead() {
+        writerBuffer.clear();
+        ResponseEncoder.encodeHead(response, writerBuffer);
+        return writerBuffer.position();
+    }
+}
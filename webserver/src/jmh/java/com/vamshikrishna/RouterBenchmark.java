@@ -0,0 +1,112 @@
+package com.vamshikrishna;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// radix tree lookup against the if/else style linear matching it replaces, over a route table shaped like a
+// REST API: every resource has a collection, an item, a sub-collection and a sub-item route
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    private static final HttpResponse OK = new HttpResponse(200, Map.of("Content-Length", List.of("0")), new byte[0]);
+    private static final HttpRequestHandler HANDLER = request -> OK;
+
+    @Param({"40", "400"})
+    int routeCount;
+
+    private Router router;
+    private LinearRouter linearRouter;
+    private HttpRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        router = new Router();
+        linearRouter = new LinearRouter();
+        for(int resource = 0; resource < routeCount / 4; resource++) {
+            for(var pattern : patterns(resource)) {
+                router.get(pattern, HANDLER);
+                linearRouter.get(pattern, HANDLER);
+            }
+        }
+        // spread over the table so the linear matcher isn't always lucky or always unlucky
+        var paths = new ArrayList<String>();
+        for(int resource = 0; resource < routeCount / 4; resource += Math.max(1, routeCount / 40)) {
+            paths.add("/api/v1/resource%d".formatted(resource));
+            paths.add("/api/v1/resource%d/%d".formatted(resource, resource * 31));
+            paths.add("/api/v1/resource%d/%d/items".formatted(resource, resource * 17));
+            paths.add("/api/v1/resource%d/%d/items/item-%d?expand=true".formatted(resource, resource * 7, resource));
+        }
+        requests = paths.stream().map(path -> new HttpRequest("GET", path, Map.of(), new byte[0])).toArray(HttpRequest[]::new);
+    }
+
+    @Benchmark
+    public HttpResponse radixTree() {
+        return router.handle(nextRequest());
+    }
+
+    @Benchmark
+    public HttpResponse linear() {
+        return linearRouter.handle(nextRequest());
+    }
+
+    private HttpRequest nextRequest() {
+        var request = requests[next];
+        next = next + 1 == requests.length ? 0 : next + 1;
+        return request;
+    }
+
+    private static List<String> patterns(int resource) {
+        var base = "/api/v1/resource" + resource;
+        return List.of(base, base + "/{id}", base + "/{id}/items", base + "/{id}/items/{itemId}");
+    }
+
+    // every route is tried in registration order, each one splitting and comparing segments
+    private static final class LinearRouter implements HttpRequestHandler {
+        private record Route(String method, String[] segments, HttpRequestHandler handler) {
+        }
+
+        private final List<Route> routes = new ArrayList<>();
+
+        void get(String pattern, HttpRequestHandler handler) {
+            routes.add(new Route("GET", pattern.split("/"), handler));
+        }
+
+        @Override
+        public HttpResponse handle(HttpRequest request) {
+            var segments = request.path().split("/");
+            for(var route : routes) {
+                if(route.method().equals(request.method()) && matches(route.segments(), segments)) {
+                    return route.handler().handle(request);
+                }
+            }
+            return null;
+        }
+
+        private static boolean matches(String[] pattern, String[] segments) {
+            if(pattern.length != segments.length) return false;
+            for(int i = 0; i < pattern.length; i++) {
+                if(!pattern[i].startsWith("{") && !pattern[i].equals(segments[i])) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.vamshikrishna;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+// full request/response cycles over loopback on one kept-alive connection, one at a time and as a pipelined batch
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerRoundTripBenchmark {
+    private static final int PIPELINE_DEPTH = 16;
+
+    @Param({"fixed-10", "virtual", "nio"})
+    String server;
+
+    private BenchmarkServers.Running running;
+    private PrintStream stdout;
+    private int port;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        LoopbackClient client;
+        byte[] single;
+        byte[] pipelined;
+
+        @Setup
+        public void connect(ServerRoundTripBenchmark benchmark) throws IOException {
+            client = new LoopbackClient("localhost", benchmark.port);
+            single = LoopbackClient.request("localhost", "/items/1", 1);
+            pipelined = LoopbackClient.request("localhost", "/items/1", PIPELINE_DEPTH);
+        }
+
+        @TearDown
+        public void disconnect() throws IOException {
+            client.close();
+        }
+    }
+
+    @Setup
+    public void startServer() throws Exception {
+        stdout = BenchmarkServers.silenceStdout();
+        port = BenchmarkServers.freePort();
+        running = BenchmarkServers.start(server, port);
+        Thread.sleep(100); // the blocking server accepts on its own thread
+    }
+
+    @TearDown
+    public void stopServer() {
+        running.close();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int keepAlive(Connection connection) throws IOException {
+        connection.client.send(connection.single);
+        return connection.client.readResponses(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public int pipelined(Connection connection) throws IOException {
+        connection.client.send(connection.pipelined);
+        return connection.client.readResponses(PIPELINE_DEPTH);
+    }
+}
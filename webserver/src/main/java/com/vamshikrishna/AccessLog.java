@@ -0,0 +1,126 @@
+package com.vamshikrishna;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// opt-in request log in the Common Log Format with the response time in seconds appended. Requests only enqueue
+// a small record, formatting and I/O happen on a daemon thread. When that thread falls behind entries are dropped
+// and counted instead of slowing requests down.
+public class AccessLog implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 8_192;
+    private static final long POLL_MILLIS = 200;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+    private final BlockingQueue<Entry> queue;
+    private final Writer out;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    private record Entry(long epochMillis, String client, String method, String target, String protocol, int status,
+                         long bodyLength, long nanos) {
+    }
+
+    public AccessLog(OutputStream out) {
+        this(out, DEFAULT_CAPACITY);
+    }
+
+    public AccessLog(OutputStream out, int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive, got %d".formatted(capacity));
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.thread = new Thread(this::run, "access-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // bodyLength is -1 when it isn't known up front, e.g. a chunked response
+    void log(String client, RequestHead head, int status, long bodyLength, long nanos) {
+        log(client, head.method(), head.target(), head.isHttp11() ? "HTTP/1.1" : "HTTP/1.0", status, bodyLength, nanos);
+    }
+
+    // requests that never had an HTTP/1.x head, e.g. HTTP/2 streams
+    void log(String client, String method, String target, String protocol, int status, long bodyLength, long nanos) {
+        var entry = new Entry(System.currentTimeMillis(), client, method, target, protocol, status, bodyLength, nanos);
+        if(closed || !queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    static long bodyLength(HttpResponse res) {
+        if(res.streamingBody() != null) return res.streamingBody().length();
+        return res.body() == null ? 0 : res.body().length;
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    // writes out what is queued and stops the writer thread, the stream itself is left open. Interrupted while
+    // waiting, it returns with the interrupt flag set and the writer finishes on its own.
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<Entry>();
+        var line = new StringBuilder(256);
+        try {
+            while(!closed || !queue.isEmpty()) {
+                var first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+                for(var entry : batch) {
+                    format(entry, line);
+                    out.append(line);
+                    line.setLength(0);
+                }
+                batch.clear();
+                if(queue.isEmpty()) out.flush(); // one write for however many entries arrived together
+            }
+            out.flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            System.out.println("Access log stopped, failed to write to it");
+            e.printStackTrace();
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        line.append(entry.client()).append(" - - [")
+                .append(TIMESTAMP.format(Instant.ofEpochMilli(entry.epochMillis()))).append("] \"")
+                .append(entry.method()).append(' ').append(entry.target()).append(' ').append(entry.protocol()).append("\" ")
+                .append(entry.status()).append(' ');
+        if(entry.bodyLength() < 0) line.append('-');
+        else line.append(entry.bodyLength());
+        line.append(' ').append(entry.nanos() / 1_000_000_000L).append('.');
+        var fraction = String.valueOf(entry.nanos() % 1_000_000_000L / 1_000);
+        line.append("000000", 0, 6 - fraction.length()).append(fraction).append('\n');
+    }
+}
@@ -0,0 +1,62 @@
+package com.vamshikrishna;
+
+import java.time.Duration;
+import java.util.function.ToIntFunction;
+
+// how many requests a server lets into its handler at once, see ConcurrencyLimiter:
+//   initialLimit, minLimit,  the limit starts at initialLimit and adapts to handler latency between the other two
+//   maxLimit
+//   maxQueueWait             how long a request may wait for room before it gets a 503. Connections queued up in
+//                            front of a busy executor for longer than this are answered the same way
+//   retryAfter               sent along with the 503 so well-behaved clients back off, rounded up to whole seconds
+//   priority                 requests with a higher one are let in first, and push queued ones with a lower one out
+//                            when the queue is full. 0 for everything by default
+public record AdmissionPolicy(int initialLimit, int minLimit, int maxLimit, Duration maxQueueWait, Duration retryAfter,
+                              ToIntFunction<HttpRequest> priority) {
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MAX_LIMIT = 1_000;
+    private static final Duration DEFAULT_MAX_QUEUE_WAIT = Duration.ofMillis(50);
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+    private static final ToIntFunction<HttpRequest> SAME_PRIORITY = request -> 0;
+
+    public AdmissionPolicy {
+        if(minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit, got %d, %d and %d"
+                    .formatted(minLimit, initialLimit, maxLimit));
+        }
+        if(maxQueueWait == null || maxQueueWait.isNegative()) {
+            throw new IllegalArgumentException("maxQueueWait must not be negative, got %s".formatted(maxQueueWait));
+        }
+        if(retryAfter == null || retryAfter.isNegative()) {
+            throw new IllegalArgumentException("retryAfter must not be negative, got %s".formatted(retryAfter));
+        }
+        if(priority == null) {
+            throw new IllegalArgumentException("priority is required");
+        }
+    }
+
+    public static AdmissionPolicy adaptive() {
+        return new AdmissionPolicy(DEFAULT_INITIAL_LIMIT, 1, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUE_WAIT, DEFAULT_RETRY_AFTER, SAME_PRIORITY);
+    }
+
+    // a request has to be read before anyone can tell its priority
+    boolean hasPriorities() {
+        return priority != SAME_PRIORITY;
+    }
+
+    public AdmissionPolicy withLimits(int initialLimit, int minLimit, int maxLimit) {
+        return new AdmissionPolicy(initialLimit, minLimit, maxLimit, maxQueueWait, retryAfter, priority);
+    }
+
+    public AdmissionPolicy withMaxQueueWait(Duration maxQueueWait) {
+        return new AdmissionPolicy(initialLimit, minLimit, maxLimit, maxQueueWait, retryAfter, priority);
+    }
+
+    public AdmissionPolicy withRetryAfter(Duration retryAfter) {
+        return new AdmissionPolicy(initialLimit, minLimit, maxLimit, maxQueueWait, retryAfter, priority);
+    }
+
+    public AdmissionPolicy withPriority(ToIntFunction<HttpRequest> priority) {
+        return new AdmissionPolicy(initialLimit, minLimit, maxLimit, maxQueueWait, retryAfter, priority);
+    }
+}
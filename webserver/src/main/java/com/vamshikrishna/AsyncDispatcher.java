@@ -0,0 +1,78 @@
+package com.vamshikrishna;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// starts the requests of an AsyncHttpRequestHandler for a server. The future it hands back always completes with a
+// response to send: the handler's, a 500 when its stage fails, a 504 once requestTimeout has passed, or a 503 right
+// away while maxPendingRequests stages are still running. Cancelling that future, as the servers do when the client
+// goes away, cancels the handler's stage as well. An HttpParseException the handler throws before it has a stage is
+// about the request, not the handler, and is rethrown for the server to answer as it answers its own.
+final class AsyncDispatcher {
+    private final long timeoutNanos;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    AsyncDispatcher(Duration requestTimeout, int maxPendingRequests) {
+        this.timeoutNanos = requestTimeout.toNanos();
+        this.maxPending = maxPendingRequests;
+    }
+
+    CompletableFuture<HttpResponse> dispatch(AsyncHttpRequestHandler handler, HttpRequest request) {
+        if(pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            return CompletableFuture.completedFuture(HttpCodec.errorResponse(503));
+        }
+        CompletableFuture<HttpResponse> stage;
+        try {
+            stage = handler.handleAsync(request).toCompletableFuture();
+        }
+        catch (HttpParseException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            stage = CompletableFuture.failedFuture(e);
+        }
+        if(timeoutNanos > 0) stage.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        var response = new CompletableFuture<HttpResponse>();
+        var handled = stage;
+        handled.whenComplete((res, failure) -> {
+            pending.decrementAndGet();
+            response.complete(responseFor(res, failure));
+        });
+        response.whenComplete((res, failure) -> {
+            if(failure != null) handled.cancel(true);
+        });
+        return response;
+    }
+
+    // stage's response passed through map, for handlers that wrap an async one. Cancelling what this returns, or
+    // timing it out, cancels stage too, as the servers expect of a handler's stage.
+    static CompletableFuture<HttpResponse> thenApply(CompletionStage<HttpResponse> stage, Function<HttpResponse, HttpResponse> map) {
+        var source = stage.toCompletableFuture();
+        var mapped = source.thenApply(map);
+        mapped.whenComplete((res, failure) -> {
+            if(failure != null) source.cancel(true);
+        });
+        return mapped;
+    }
+
+    private static HttpResponse responseFor(HttpResponse res, Throwable failure) {
+        if(failure == null && res != null) return res;
+        var cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if(cause instanceof TimeoutException) return HttpCodec.errorResponse(504);
+        if(!(cause instanceof CancellationException)) { // cancelled, the client is gone
+            System.out.println("Problem while handling request");
+            if(cause != null) cause.printStackTrace();
+        }
+        return HttpCodec.errorResponse(500);
+    }
+}
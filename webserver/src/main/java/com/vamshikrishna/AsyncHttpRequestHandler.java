@@ -0,0 +1,20 @@
+package com.vamshikrishna;
+
+import java.util.concurrent.CompletionStage;
+
+// a handler that answers later, e.g. once the downstream calls it fanned out to come back, without holding a thread
+// while it waits. The servers write the response when the stage completes, a stage that fails gets a 500.
+// The stage of a request is completed exceptionally by the server once nobody waits for it any more: cancelled when
+// the client goes away, a TimeoutException past HttpServerConfig.requestTimeout. Return a stage of this request's
+// own, not one shared with others, or they go down with it.
+// Router, CompressionHandler and CachingHandler are async themselves and pass stages through, so an async route keeps
+// all of this behind them; their plain routes come back as completed stages.
+public interface AsyncHttpRequestHandler extends HttpRequestHandler {
+    CompletionStage<HttpResponse> handleAsync(HttpRequest request);
+
+    // for callers that need the response right away
+    @Override
+    default HttpResponse handle(HttpRequest request) {
+        return handleAsync(request).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,132 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+
+// turns the raw bytes that follow a request head into body bytes, either a fixed content-length or
+// chunked transfer coding. Like the head parser it is incremental and can be fed whatever has arrived so far.
+final class BodyDecoder {
+    private static final int SIZE = 0;
+    private static final int SIZE_EXTENSION = 1;
+    private static final int SIZE_LF = 2;
+    private static final int DATA = 3;
+    private static final int DATA_CR = 4;
+    private static final int DATA_LF = 5;
+    private static final int TRAILER_START = 6;
+    private static final int TRAILER_LINE = 7;
+    private static final int END_LF = 8;
+    private static final int DONE = 9;
+    private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+    private final boolean chunked;
+    private final long length;
+    private long remaining;
+    private int state;
+    private int sizeDigits;
+
+    private BodyDecoder(boolean chunked, long length) {
+        this.chunked = chunked;
+        this.length = length;
+        this.remaining = chunked ? 0 : length;
+        this.state = chunked ? SIZE : (length == 0 ? DONE : DATA);
+    }
+
+    static BodyDecoder fixedLength(long length) {
+        return new BodyDecoder(false, length);
+    }
+
+    static BodyDecoder chunked() {
+        return new BodyDecoder(true, -1);
+    }
+
+    boolean isChunked() {
+        return chunked;
+    }
+
+    // -1 for chunked bodies
+    long length() {
+        return length;
+    }
+
+    boolean isDone() {
+        return state == DONE;
+    }
+
+    // body bytes that can be read straight from the socket into the caller's array, skipping the decoder
+    long directlyReadable() {
+        return chunked ? 0 : remaining;
+    }
+
+    void consumedDirectly(int bytes) {
+        remaining -= bytes;
+        if(remaining == 0) state = DONE;
+    }
+
+    // consumes framing and body bytes from src (in read mode) and copies up to len body bytes into dst
+    int decode(ByteBuffer src, byte[] dst, int off, int len) {
+        var copied = 0;
+        while(state != DONE && src.hasRemaining() && copied < len) {
+            if(state == DATA) {
+                var n = (int) Math.min(Math.min(remaining, len - copied), src.remaining());
+                src.get(dst, off + copied, n);
+                copied += n;
+                remaining -= n;
+                if(remaining == 0) state = chunked ? DATA_CR : DONE;
+                continue;
+            }
+            var b = src.get();
+            switch (state) {
+                case SIZE -> {
+                    var digit = Character.digit(b, 16);
+                    if(digit >= 0) {
+                        if(++sizeDigits > MAX_CHUNK_SIZE_DIGITS) throw new HttpParseException(413, "Chunk size is too large");
+                        remaining = remaining * 16 + digit;
+                    }
+                    else if(sizeDigits == 0) throw badChunk();
+                    else if(b == ';' || b == ' ' || b == '\t') state = SIZE_EXTENSION;
+                    else if(b == '\r') state = SIZE_LF;
+                    else if(b == '\n') endChunkSize();
+                    else throw badChunk();
+                }
+                case SIZE_EXTENSION -> {
+                    if(b == '\r') state = SIZE_LF;
+                    else if(b == '\n') endChunkSize();
+                }
+                case SIZE_LF -> {
+                    if(b != '\n') throw badChunk();
+                    endChunkSize();
+                }
+                case DATA_CR -> {
+                    if(b == '\r') state = DATA_LF;
+                    else if(b == '\n') state = SIZE;
+                    else throw badChunk();
+                }
+                case DATA_LF -> {
+                    if(b != '\n') throw badChunk();
+                    state = SIZE;
+                }
+                case TRAILER_START -> {
+                    if(b == '\r') state = END_LF;
+                    else if(b == '\n') state = DONE;
+                    else state = TRAILER_LINE; // trailers are read and dropped
+                }
+                case TRAILER_LINE -> {
+                    if(b == '\n') state = TRAILER_START;
+                }
+                case END_LF -> {
+                    if(b != '\n') throw badChunk();
+                    state = DONE;
+                }
+                default -> throw new IllegalStateException("Unknown decoder state " + state);
+            }
+        }
+        return copied;
+    }
+
+    private void endChunkSize() {
+        sizeDigits = 0;
+        state = remaining == 0 ? TRAILER_START : DATA;
+    }
+
+    private static HttpParseException badChunk() {
+        return new HttpParseException(400, "Malformed chunked body");
+    }
+}
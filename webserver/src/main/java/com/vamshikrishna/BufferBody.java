@@ -0,0 +1,34 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// body backed by a (usually direct, shared) buffer, every response gets its own view so positions don't clash
+final class BufferBody implements ResponseBody {
+    private final ByteBuffer buffer;
+    private final long length;
+
+    BufferBody(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.length = buffer.remaining();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    // a view of what is left to write
+    ByteBuffer content() {
+        return buffer.duplicate();
+    }
+
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.write(buffer) == 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// recycles I/O buffers in power of two size classes from 4KB to 64KB. Each platform thread keeps a small cache per
+// class and overflows into a shared lock-free list; virtual threads come and go too quickly for a cache of their
+// own and go straight to the shared list. Anything larger than the biggest class is allocated and left to the GC.
+final class BufferPool {
+    static final BufferPool DIRECT = new BufferPool(true);
+    static final BufferPool HEAP = new BufferPool(false);
+    private static final int MIN_SIZE_SHIFT = 12;
+    private static final int SIZE_CLASSES = 5;
+    static final int MAX_POOLED_SIZE = 1 << (MIN_SIZE_SHIFT + SIZE_CLASSES - 1);
+    private static final int THREAD_CACHE_BYTES_PER_CLASS = 256 * 1024;
+    private static final int SHARED_BYTES_PER_CLASS = 16 * 1024 * 1024;
+    private final boolean direct;
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES];
+    private final ThreadLocal<ArrayDeque<PooledBuffer>[]> threadCaches;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+
+    private record SizeClass(int size, int threadCacheLimit, int sharedLimit, Queue<PooledBuffer> shared, AtomicInteger sharedCount) {
+    }
+
+    @SuppressWarnings("unchecked")
+    BufferPool(boolean direct) {
+        this.direct = direct;
+        for(int i = 0; i < SIZE_CLASSES; i++) {
+            var size = 1 << (MIN_SIZE_SHIFT + i);
+            sizeClasses[i] = new SizeClass(size, Math.max(2, THREAD_CACHE_BYTES_PER_CLASS / size), SHARED_BYTES_PER_CLASS / size,
+                    new ConcurrentLinkedQueue<>(), new AtomicInteger());
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            var caches = (ArrayDeque<PooledBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES];
+            for(int i = 0; i < SIZE_CLASSES; i++) {
+                caches[i] = new ArrayDeque<PooledBuffer>();
+            }
+            return caches;
+        });
+    }
+
+    // a cleared buffer of at least minCapacity bytes with a reference count of one
+    PooledBuffer acquire(int minCapacity) {
+        outstanding.increment();
+        var sizeClass = sizeClassOf(minCapacity);
+        if(sizeClass < 0) {
+            misses.increment();
+            return new PooledBuffer(this, -1, allocate(minCapacity));
+        }
+        PooledBuffer pooled = null;
+        if(!Thread.currentThread().isVirtual()) {
+            pooled = threadCaches.get()[sizeClass].pollLast();
+        }
+        if(pooled == null) {
+            var shared = sizeClasses[sizeClass];
+            pooled = shared.shared().poll();
+            if(pooled != null) shared.sharedCount().decrementAndGet();
+        }
+        if(pooled == null) {
+            misses.increment();
+            return new PooledBuffer(this, sizeClass, allocate(sizeClasses[sizeClass].size()));
+        }
+        hits.increment();
+        pooled.reuse();
+        return pooled;
+    }
+
+    // called by PooledBuffer once the last reference is gone
+    void recycle(PooledBuffer pooled) {
+        outstanding.decrement();
+        var sizeClass = pooled.sizeClass();
+        if(sizeClass < 0) return;
+        pooled.buffer().clear();
+        if(!Thread.currentThread().isVirtual()) {
+            var cache = threadCaches.get()[sizeClass];
+            if(cache.size() < sizeClasses[sizeClass].threadCacheLimit()) {
+                cache.addLast(pooled);
+                return;
+            }
+        }
+        var shared = sizeClasses[sizeClass];
+        if(shared.sharedCount().incrementAndGet() > shared.sharedLimit()) {
+            shared.sharedCount().decrementAndGet(); // full, let the GC have it
+            return;
+        }
+        shared.shared().add(pooled);
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    // acquired and not yet released, a number that keeps climbing under steady load is a leak
+    long outstanding() {
+        return outstanding.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool[direct=%s, hits=%d, misses=%d, outstanding=%d]".formatted(direct, hits(), misses(), outstanding());
+    }
+
+    private static int sizeClassOf(int capacity) {
+        if(capacity > MAX_POOLED_SIZE) return -1;
+        var shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(0, shift - MIN_SIZE_SHIFT);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,349 @@
+package com.vamshikrishna;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// keeps the responses of another handler that say Cache-Control: max-age (or s-maxage) and replays them until they
+// go stale, keyed by method, url and the request headers the response's Vary names:
+//   server.start(new CachingHandler(router, 64 * 1024 * 1024))
+// Concurrent misses on one key are coalesced, the handler runs once and everyone waiting gets its response.
+// Memory is bounded by CLOCK eviction, an LRU approximation where a hit only sets a flag on its entry instead of
+// reordering a shared list, so hits never contend. Only GET and HEAD with buffered bodies are cached; responses
+// with no-store, no-cache, private, Set-Cookie or Vary: * and requests with Authorization always reach the handler.
+// An async handler's misses are stored once its stage completes, and requests coalesced onto one wait without a thread.
+public class CachingHandler implements AsyncHttpRequestHandler {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    // rough cost of an entry beyond its body: key, header map and bookkeeping
+    private static final int ENTRY_OVERHEAD = 256;
+    private final HttpRequestHandler next;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // the Vary names last seen for a method and url, which decide the key of the next lookup
+    private final Map<String, List<String>> varyNames = new ConcurrentHashMap<>();
+    private final Map<Key, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<Entry> clock = new ConcurrentLinkedQueue<>();
+    // entries in the clock, including replaced and expired ones that haven't been swept out yet
+    private final AtomicLong clockSize = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Key(String resource, List<String> varyValues) {
+    }
+
+    private record Aged(long seconds, HttpResponse response) {
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final List<String> varyNames;
+        private final HttpResponse response;
+        private final long storedAt;
+        private final long expiresAt;
+        private final long weight;
+        private volatile boolean referenced;
+        // the response with an Age header, rebuilt at most once a second
+        private volatile Aged aged;
+
+        private Entry(Key key, List<String> varyNames, HttpResponse response, long storedAt, long maxAgeSeconds) {
+            this.key = key;
+            this.varyNames = varyNames;
+            this.response = response;
+            this.storedAt = storedAt;
+            this.expiresAt = storedAt + maxAgeSeconds * NANOS_PER_SECOND;
+            this.weight = response.body().length + key.resource().length() + ENTRY_OVERHEAD;
+            this.aged = new Aged(0, withAge(response, 0));
+        }
+
+        private boolean isFresh(long now) {
+            return now - expiresAt < 0;
+        }
+
+        private HttpResponse response(long now) {
+            var seconds = (now - storedAt) / NANOS_PER_SECOND;
+            var current = aged;
+            if(current.seconds() == seconds) return current.response();
+            var response = withAge(this.response, seconds);
+            aged = new Aged(seconds, response);
+            return response;
+        }
+    }
+
+    public CachingHandler(HttpRequestHandler next, long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative, got %d".formatted(maxBytes));
+        }
+        this.next = next;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        if(!isCacheable(request)) return next.handle(request);
+        var resource = resource(request);
+        var key = key(request, resource);
+        var cached = cached(key);
+        if(cached != null) return cached;
+        misses.increment();
+        var flight = new CompletableFuture<Entry>();
+        var leader = inFlight.putIfAbsent(key, flight);
+        if(leader != null) {
+            var shared = sharedResponse(request, leader.join()); // never completed exceptionally, a failed leader hands over null
+            return shared != null ? shared : next.handle(request);
+        }
+        HttpResponse response;
+        try {
+            response = next.handle(request);
+        }
+        catch (RuntimeException | Error e) {
+            land(key, flight, null);
+            throw e;
+        }
+        return store(resource, request, key, flight, response);
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> handleAsync(HttpRequest request) {
+        if(!(next instanceof AsyncHttpRequestHandler async)) return CompletableFuture.completedFuture(handle(request));
+        if(!isCacheable(request)) return async.handleAsync(request);
+        var resource = resource(request);
+        var key = key(request, resource);
+        var cached = cached(key);
+        if(cached != null) return CompletableFuture.completedFuture(cached);
+        misses.increment();
+        var flight = new CompletableFuture<Entry>();
+        var leader = inFlight.putIfAbsent(key, flight);
+        if(leader != null) {
+            return leader.thenCompose(entry -> {
+                var shared = sharedResponse(request, entry);
+                return shared != null ? CompletableFuture.completedFuture(shared) : async.handleAsync(request);
+            });
+        }
+        CompletionStage<HttpResponse> stage;
+        try {
+            stage = async.handleAsync(request);
+        }
+        catch (RuntimeException | Error e) {
+            land(key, flight, null);
+            throw e;
+        }
+        stage.whenComplete((response, failure) -> {
+            if(failure != null) land(key, flight, null); // failed, cancelled or timed out, the waiting requests go on their own
+        });
+        return AsyncDispatcher.thenApply(stage, response -> store(resource, request, key, flight, response));
+    }
+
+    @Override
+    public boolean acceptsStreamingBody() {
+        return next.acceptsStreamingBody();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return totalBytes.get();
+    }
+
+    private static boolean isCacheable(HttpRequest request) {
+        var method = request.method();
+        return (method.equals("GET") || method.equals("HEAD")) && request.header(HttpHeaderNames.AUTHORIZATION) == null;
+    }
+
+    private static String resource(HttpRequest request) {
+        return request.method() + ' ' + request.url();
+    }
+
+    private Key key(HttpRequest request, String resource) {
+        return new Key(resource, varyValues(request, varyNames.getOrDefault(resource, List.of())));
+    }
+
+    // a fresh entry's response, null on a miss
+    private HttpResponse cached(Key key) {
+        var entry = entries.get(key);
+        if(entry == null) return null;
+        var now = System.nanoTime();
+        if(!entry.isFresh(now)) {
+            remove(entry);
+            return null;
+        }
+        hits.increment();
+        if(!entry.referenced) entry.referenced = true; // skip the write when already set, hot entries stay in cache
+        return entry.response(now);
+    }
+
+    // the leader's response only fits if this request agrees on the headers it actually varies on
+    private static HttpResponse sharedResponse(HttpRequest request, Entry shared) {
+        if(shared != null && shared.key.varyValues().equals(varyValues(request, shared.varyNames))) {
+            return shared.response(System.nanoTime());
+        }
+        return null;
+    }
+
+    // the leader's response, stored when it may be, handed to the requests waiting on it
+    private HttpResponse store(String resource, HttpRequest request, Key key, CompletableFuture<Entry> flight, HttpResponse response) {
+        Entry stored = null;
+        try {
+            stored = store(resource, request, response);
+        }
+        finally {
+            land(key, flight, stored);
+        }
+        return stored == null ? response : stored.response(stored.storedAt);
+    }
+
+    private void land(Key key, CompletableFuture<Entry> flight, Entry stored) {
+        flight.complete(stored);
+        inFlight.remove(key, flight);
+    }
+
+    private Entry store(String resource, HttpRequest request, HttpResponse response) {
+        var maxAge = maxAge(response);
+        if(maxAge <= 0) return null;
+        var names = varyNames(response);
+        if(names == null) return null;
+        if(names.isEmpty()) varyNames.remove(resource);
+        else if(!names.equals(varyNames.get(resource))) varyNames.put(resource, names);
+        var key = new Key(resource, varyValues(request, names));
+        var entry = new Entry(key, names, response, System.nanoTime(), maxAge);
+        if(entry.weight > maxEntryBytes) return null;
+        var previous = entries.put(key, entry);
+        if(previous != null) totalBytes.addAndGet(-previous.weight);
+        totalBytes.addAndGet(entry.weight);
+        clock.offer(entry);
+        clockSize.incrementAndGet();
+        if(totalBytes.get() > maxBytes || needsPurge()) evict();
+        return entry;
+    }
+
+    // one thread sweeps while the others carry on, an entry referenced since the last pass gets a second chance.
+    // Replaced entries linger in the clock and Vary names outlive their entries until a pass reaches them, so they
+    // are purged once they make up half of what is kept.
+    private void evict() {
+        if(!evictionLock.tryLock()) return;
+        try {
+            if(needsPurge()) {
+                clock.removeIf(entry -> entries.get(entry.key) != entry);
+                clockSize.set(clock.size());
+                var resources = new HashSet<String>();
+                for(var key : entries.keySet()) {
+                    resources.add(key.resource());
+                }
+                varyNames.keySet().retainAll(resources);
+            }
+            var now = System.nanoTime();
+            while(totalBytes.get() > maxBytes) {
+                var entry = clock.poll();
+                if(entry == null) return;
+                if(entries.get(entry.key) != entry) { // replaced or removed already
+                    clockSize.decrementAndGet();
+                    continue;
+                }
+                if(entry.referenced && entry.isFresh(now)) {
+                    entry.referenced = false;
+                    clock.offer(entry);
+                }
+                else {
+                    clockSize.decrementAndGet();
+                    remove(entry);
+                }
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean needsPurge() {
+        var limit = 2L * entries.size() + 64;
+        return clockSize.get() > limit || varyNames.size() > limit;
+    }
+
+    private void remove(Entry entry) {
+        if(entries.remove(entry.key, entry)) totalBytes.addAndGet(-entry.weight);
+    }
+
+    private static List<String> varyValues(HttpRequest request, List<String> names) {
+        if(names.isEmpty()) return List.of();
+        var values = new ArrayList<String>(names.size());
+        for(var name : names) {
+            var value = request.header(name);
+            values.add(value == null ? "" : value);
+        }
+        return values;
+    }
+
+    // seconds the response may be reused for, 0 when it must not be stored
+    private static long maxAge(HttpResponse response) {
+        if(response.streamingBody() != null || response.body() == null || !isCacheableStatus(response.responseCode())) return 0;
+        long maxAge = 0;
+        long sharedMaxAge = -1;
+        var fields = response.headerFields();
+        if(fields.contains("Set-Cookie")) return 0;
+        for(var index = fields.indexOf("Cache-Control", 0); index >= 0; index = fields.indexOf("Cache-Control", index + 1)) {
+            for(var directive : fields.value(index).split(",")) {
+                var d = directive.strip().toLowerCase(Locale.ROOT);
+                if(d.equals("no-store") || d.equals("private") || d.startsWith("no-cache")) return 0;
+                if(d.startsWith("max-age=")) maxAge = seconds(d.substring("max-age=".length()));
+                else if(d.startsWith("s-maxage=")) sharedMaxAge = seconds(d.substring("s-maxage=".length()));
+            }
+        }
+        return sharedMaxAge >= 0 ? sharedMaxAge : maxAge; // s-maxage is meant for shared caches like this one
+    }
+
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.strip()));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // statuses a cache may store without being told otherwise, RFC 9110 section 15.1
+    private static boolean isCacheableStatus(int status) {
+        return switch (status) {
+            case 200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501 -> true;
+            default -> false;
+        };
+    }
+
+    // lower-case header names from Vary, null for Vary: * which matches no other request
+    private static List<String> varyNames(HttpResponse response) {
+        var names = new ArrayList<String>();
+        var fields = response.headerFields();
+        for(var index = fields.indexOf("Vary", 0); index >= 0; index = fields.indexOf("Vary", index + 1)) {
+            for(var field : fields.value(index).split(",")) {
+                var name = field.strip().toLowerCase(Locale.ROOT);
+                if(name.equals("*")) return null;
+                if(!name.isEmpty() && !names.contains(name)) names.add(name);
+            }
+        }
+        names.sort(null);
+        return List.copyOf(names);
+    }
+
+    private static HttpResponse withAge(HttpResponse response, long seconds) {
+        return new HttpResponse(response.responseCode(), response.headerFields().copy().set("Age", String.valueOf(seconds)), response.body());
+    }
+}
@@ -0,0 +1,80 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+// a response of unknown length sent with chunked transfer coding, produced either by copying an InputStream or by
+// a writer callback. Only one chunk is ever in memory, so exports of any size run in constant memory.
+final class ChunkedBody implements ResponseBody {
+    @FunctionalInterface
+    interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final InputStream source;
+    private final BodyWriter writer;
+
+    private ChunkedBody(InputStream source, BodyWriter writer) {
+        this.source = source;
+        this.writer = writer;
+    }
+
+    static ChunkedBody of(InputStream source) {
+        return new ChunkedBody(source, null);
+    }
+
+    static ChunkedBody of(BodyWriter writer) {
+        return new ChunkedBody(null, writer);
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    // producing the content may block, the event loop hands it to a worker thread instead
+    @Override
+    public boolean isNonBlocking() {
+        return false;
+    }
+
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        try (var out = new ChunkedOutputStream(Channels.newOutputStream(channel))) {
+            writeContentTo(out);
+        }
+        return true;
+    }
+
+    // the same content compressed on its way out, closing either body closes the source
+    ChunkedBody compressed(Compressor.Coding coding) {
+        return new ChunkedBody(source, out -> {
+            var compressed = Compressor.stream(out, coding);
+            try {
+                writeContentTo(compressed);
+                compressed.finish();
+            }
+            finally {
+                compressed.release();
+            }
+        });
+    }
+
+    // the content without chunk framing, for protocols that frame it themselves
+    void writeContentTo(OutputStream out) throws IOException {
+        if(writer != null) {
+            writer.writeTo(out);
+        }
+        else {
+            source.transferTo(out);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(source != null) source.close();
+    }
+}
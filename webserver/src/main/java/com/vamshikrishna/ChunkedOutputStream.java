@@ -0,0 +1,69 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// frames everything written to it as HTTP/1.1 chunks, close() writes the last chunk but leaves the connection open
+final class ChunkedOutputStream extends OutputStream {
+    private static final int CHUNK_SIZE = 8_192;
+    private static final int MAX_SIZE_LINE = Integer.toHexString(CHUNK_SIZE).length() + 2;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final OutputStream out;
+    // room for the size line in front of the data and the CRLF behind it, so each chunk is a single write
+    private final byte[] frame = new byte[MAX_SIZE_LINE + CHUNK_SIZE + 2];
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(count == CHUNK_SIZE) writeChunk();
+        frame[MAX_SIZE_LINE + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            if(count == CHUNK_SIZE) writeChunk();
+            var n = Math.min(len, CHUNK_SIZE - count);
+            System.arraycopy(b, off, frame, MAX_SIZE_LINE + count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+        writeChunk();
+        out.write(LAST_CHUNK);
+        out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+        if(count == 0) return;
+        var size = Integer.toHexString(count);
+        var start = MAX_SIZE_LINE - size.length() - 2;
+        for(int i = 0; i < size.length(); i++) {
+            frame[start + i] = (byte) size.charAt(i);
+        }
+        frame[MAX_SIZE_LINE - 2] = '\r';
+        frame[MAX_SIZE_LINE - 1] = '\n';
+        frame[MAX_SIZE_LINE + count] = '\r';
+        frame[MAX_SIZE_LINE + count + 1] = '\n';
+        out.write(frame, start, MAX_SIZE_LINE - start + count + 2);
+        count = 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// compressed copies of bodies that keep coming back, keyed by coding and content hash and bounded by total bytes
+// with LRU eviction. A hash match is confirmed against a copy of the original, so a collision only costs a
+// compression. Content is only admitted the second time it is seen, one-off dynamic responses never churn the cache.
+final class CompressedBodyCache {
+    private static final int DOORKEEPER_SIZE = 4_096;
+    private final long maxTotalBytes;
+    private final long maxEntryBytes;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // hashes of recently seen content, written without locking, a lost update only delays an admission
+    private final int[] doorkeeper = new int[DOORKEEPER_SIZE];
+    private long totalBytes;
+
+    private record Key(Compressor.Coding coding, int hash, int length) {
+    }
+
+    private record Entry(byte[] original, byte[] compressed) {
+        long size() {
+            return original.length + compressed.length;
+        }
+    }
+
+    CompressedBodyCache(long maxTotalBytes) {
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxEntryBytes = maxTotalBytes / 8;
+    }
+
+    // the returned array is shared with other responses and must not be modified
+    byte[] compress(Compressor.Coding coding, ByteBuffer content) {
+        if(content.remaining() > maxEntryBytes) return Compressor.compress(coding, content);
+        var key = new Key(coding, hash(content), content.remaining());
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if(entry != null && ByteBuffer.wrap(entry.original()).equals(content)) return entry.compressed();
+        var compressed = Compressor.compress(coding, content);
+        if(seenBefore(key)) {
+            var original = new byte[content.remaining()];
+            content.duplicate().get(original); // a copy, the caller may reuse its array for something else
+            put(key, new Entry(original, compressed));
+        }
+        return compressed;
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        var previous = entries.put(key, entry);
+        if(previous != null) totalBytes -= previous.size();
+        totalBytes += entry.size();
+        var eldest = entries.entrySet().iterator();
+        while(totalBytes > maxTotalBytes && eldest.hasNext()) {
+            var evicted = eldest.next();
+            if(evicted.getKey().equals(key)) continue;
+            totalBytes -= evicted.getValue().size();
+            eldest.remove();
+        }
+    }
+
+    private boolean seenBefore(Key key) {
+        var hash = key.hashCode();
+        var slot = (hash ^ (hash >>> 16)) & (DOORKEEPER_SIZE - 1);
+        if(doorkeeper[slot] == hash) return true;
+        doorkeeper[slot] = hash;
+        return false;
+    }
+
+    // Arrays.hashCode is vectorized for a whole array, which is what buffered bodies are
+    private static int hash(ByteBuffer content) {
+        if(content.hasArray() && content.arrayOffset() == 0 && content.position() == 0 && content.remaining() == content.array().length) {
+            return Arrays.hashCode(content.array());
+        }
+        return content.hashCode();
+    }
+}
@@ -0,0 +1,194 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+// compresses the responses of another handler for clients that accept gzip or deflate, gzip wins a tie:
+//   server.start(new CompressionHandler(router))
+// Small bodies, types that are already compressed, partial content and anything marked no-transform go out as
+// they are. Buffered bodies go through a cache, so a hot response is compressed once; chunked bodies are compressed
+// as they are written. Files sent straight from disk are left alone to keep the zero-copy path.
+// Responses of an async handler are compressed once its stage completes.
+public class CompressionHandler implements AsyncHttpRequestHandler {
+    private static final int DEFAULT_MIN_SIZE = 1_024;
+    private static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final String VARY_VALUE = "Accept-Encoding";
+    // image, audio and video types are skipped too, except svg which is text
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/zstd", "application/pdf",
+            "application/octet-stream", "font/woff", "font/woff2");
+    private final HttpRequestHandler next;
+    private final int minSize;
+    private final CompressedBodyCache cache;
+    // clients tend to send the same Accept-Encoding on every request, so the last answer is usually the next one
+    private volatile Negotiated lastNegotiated = new Negotiated("", null);
+
+    private record Negotiated(String acceptEncoding, Compressor.Coding coding) {
+    }
+
+    public CompressionHandler(HttpRequestHandler next) {
+        this(next, DEFAULT_MIN_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    public CompressionHandler(HttpRequestHandler next, int minSize, long maxCacheBytes) {
+        if(minSize < 0) {
+            throw new IllegalArgumentException("minSize must not be negative, got %d".formatted(minSize));
+        }
+        if(maxCacheBytes < 0) {
+            throw new IllegalArgumentException("maxCacheBytes must not be negative, got %d".formatted(maxCacheBytes));
+        }
+        this.next = next;
+        this.minSize = minSize;
+        this.cache = new CompressedBodyCache(maxCacheBytes);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        return compress(request, next.handle(request));
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> handleAsync(HttpRequest request) {
+        if(next instanceof AsyncHttpRequestHandler async) {
+            return AsyncDispatcher.thenApply(async.handleAsync(request), response -> compress(request, response));
+        }
+        return CompletableFuture.completedFuture(handle(request));
+    }
+
+    private HttpResponse compress(HttpRequest request, HttpResponse response) {
+        if(!isCompressible(response)) return response;
+        var coding = negotiate(request.header(HttpHeaderNames.ACCEPT_ENCODING));
+        if(coding == null) {
+            return new HttpResponse(response.responseCode(), headers(response.headerFields(), null, -1), response.body(), response.streamingBody());
+        }
+        if(response.streamingBody() instanceof ChunkedBody chunked) {
+            return new HttpResponse(response.responseCode(), headers(response.headerFields(), coding, -1), chunked.compressed(coding));
+        }
+        var content = response.streamingBody() instanceof BufferBody buffered ? buffered.content() : ByteBuffer.wrap(response.body());
+        var compressed = cache.compress(coding, content);
+        return new HttpResponse(response.responseCode(), headers(response.headerFields(), coding, compressed.length), compressed);
+    }
+
+    @Override
+    public boolean acceptsStreamingBody() {
+        return next.acceptsStreamingBody();
+    }
+
+    private boolean isCompressible(HttpResponse response) {
+        var status = response.responseCode();
+        if(status < 200 || status >= 300 || status == 204 || status == 206) return false;
+        var body = response.streamingBody();
+        if(body == null) {
+            if(response.body() == null || response.body().length < minSize) return false;
+        }
+        else if(body instanceof BufferBody) {
+            if(body.length() < minSize) return false;
+        }
+        else if(!(body instanceof ChunkedBody)) {
+            return false;
+        }
+        var fields = response.headerFields();
+        if(fields.contains("Content-Encoding")) return false;
+        var contentType = fields.first("Content-Type");
+        if(contentType != null && isCompressedType(contentType)) return false;
+        for(var index = fields.indexOf("Cache-Control", 0); index >= 0; index = fields.indexOf("Cache-Control", index + 1)) {
+            if(fields.value(index).toLowerCase(Locale.ROOT).contains("no-transform")) return false;
+        }
+        return true;
+    }
+
+    private static boolean isCompressedType(String contentType) {
+        var semicolon = contentType.indexOf(';');
+        var type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).strip().toLowerCase(Locale.ROOT);
+        if(type.startsWith("image/")) return !type.equals("image/svg+xml");
+        return type.startsWith("audio/") || type.startsWith("video/") || COMPRESSED_TYPES.contains(type);
+    }
+
+    private Compressor.Coding negotiate(String acceptEncoding) {
+        if(acceptEncoding == null) return null;
+        var last = lastNegotiated;
+        if(last.acceptEncoding().equals(acceptEncoding)) return last.coding();
+        var coding = parseAcceptEncoding(acceptEncoding);
+        lastNegotiated = new Negotiated(acceptEncoding, coding);
+        return coding;
+    }
+
+    // the coding with the highest q value, null when identity is all the client takes
+    private static Compressor.Coding parseAcceptEncoding(String acceptEncoding) {
+        var gzip = -1f;
+        var deflate = -1f;
+        var any = -1f;
+        for(var element : acceptEncoding.split(",")) {
+            var semicolon = element.indexOf(';');
+            var token = (semicolon < 0 ? element : element.substring(0, semicolon)).strip().toLowerCase(Locale.ROOT);
+            var q = semicolon < 0 ? 1f : quality(element.substring(semicolon + 1));
+            switch (token) {
+                case "gzip", "x-gzip" -> gzip = Math.max(gzip, q);
+                case "deflate" -> deflate = Math.max(deflate, q);
+                case "*" -> any = q;
+                default -> {
+                }
+            }
+        }
+        if(gzip < 0) gzip = any;
+        if(deflate < 0) deflate = any;
+        if(gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? Compressor.Coding.GZIP : Compressor.Coding.DEFLATE;
+    }
+
+    // an unreadable q value counts as 0, the client is better served uncompressed than guessed at
+    private static float quality(String parameters) {
+        for(var parameter : parameters.split(";")) {
+            var p = parameter.strip();
+            if(p.length() > 2 && (p.charAt(0) == 'q' || p.charAt(0) == 'Q') && p.charAt(1) == '=') {
+                try {
+                    var q = Float.parseFloat(p.substring(2));
+                    return q >= 0 && q <= 1 ? q : 0;
+                }
+                catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    // adds Vary, and when coding is set Content-Encoding, the new length (-1 for chunked) and a weak ETag: the
+    // compressed bytes differ from what the strong validator promised, but If-None-Match compares weakly anyway
+    private static HttpHeaders headers(HttpHeaders headers, Compressor.Coding coding, long contentLength) {
+        var result = new HttpHeaders(headers.size() + 3);
+        for(int i = 0; i < headers.size(); i++) {
+            var name = headers.name(i);
+            var value = headers.value(i);
+            if(name.equalsIgnoreCase("Vary")) continue;
+            if(coding != null) {
+                if(name.equalsIgnoreCase("Content-Length")) continue;
+                if(name.equalsIgnoreCase("ETag") && !value.startsWith("W/")) value = "W/" + value;
+            }
+            result.add(name, value);
+        }
+        var vary = headers.all("Vary");
+        result.add("Vary", vary.isEmpty() ? VARY_VALUE : withAcceptEncoding(vary));
+        if(coding != null) {
+            result.add("Content-Encoding", coding.token);
+            if(contentLength >= 0) result.add("Content-Length", String.valueOf(contentLength));
+        }
+        return result;
+    }
+
+    private static String withAcceptEncoding(List<String> vary) {
+        var joined = String.join(", ", vary);
+        for(var value : vary) {
+            for(var field : value.split(",")) {
+                var name = field.strip();
+                if(name.equals("*") || name.equalsIgnoreCase(VARY_VALUE)) return joined;
+            }
+        }
+        return joined + ", " + VARY_VALUE;
+    }
+}
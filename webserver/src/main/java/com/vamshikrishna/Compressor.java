@@ -0,0 +1,120 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// gzip and deflate content codings on top of pooled Deflaters, either a whole buffer at once or as a stream
+final class Compressor {
+    private static final int STREAM_BUFFER_SIZE = 8_192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    enum Coding {
+        GZIP("gzip", DeflaterPool.RAW),
+        DEFLATE("deflate", DeflaterPool.ZLIB);
+
+        final String token;
+        private final DeflaterPool pool;
+
+        Coding(String token, DeflaterPool pool) {
+            this.token = token;
+            this.pool = pool;
+        }
+    }
+
+    private Compressor() {
+    }
+
+    // leaves the content's position alone, direct buffers are read in place
+    static byte[] compress(Coding coding, ByteBuffer content) {
+        var deflater = coding.pool.acquire();
+        try {
+            var length = content.remaining();
+            var out = new byte[Math.max(64, length / 2)];
+            var count = 0;
+            if(coding == Coding.GZIP) {
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                count = GZIP_HEADER.length;
+            }
+            deflater.setInput(content.duplicate());
+            deflater.finish();
+            while(!deflater.finished()) {
+                if(count == out.length) out = Arrays.copyOf(out, out.length * 2);
+                count += deflater.deflate(out, count, out.length - count);
+            }
+            if(coding == Coding.GZIP) {
+                var crc = new CRC32();
+                crc.update(content.duplicate());
+                if(out.length - count < GZIP_TRAILER_SIZE) out = Arrays.copyOf(out, count + GZIP_TRAILER_SIZE);
+                putIntLE(out, count, (int) crc.getValue());
+                putIntLE(out, count + 4, length);
+                count += GZIP_TRAILER_SIZE;
+            }
+            return out.length == count ? out : Arrays.copyOf(out, count);
+        }
+        finally {
+            coding.pool.release(deflater);
+        }
+    }
+
+    // finish() completes the coding, release() must follow either way to hand the Deflater back
+    static Stream stream(OutputStream out, Coding coding) throws IOException {
+        return new Stream(out, coding);
+    }
+
+    // never closes the stream underneath, it belongs to the response
+    static final class Stream extends DeflaterOutputStream {
+        private final Coding coding;
+        private final CRC32 crc = new CRC32();
+        private long length;
+        private boolean released;
+
+        private Stream(OutputStream out, Coding coding) throws IOException {
+            super(out, coding.pool.acquire(), STREAM_BUFFER_SIZE);
+            this.coding = coding;
+            if(coding == Coding.GZIP) out.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            if(coding == Coding.GZIP) {
+                var trailer = new byte[GZIP_TRAILER_SIZE];
+                putIntLE(trailer, 0, (int) crc.getValue());
+                putIntLE(trailer, 4, (int) length); // ISIZE is the length modulo 2^32
+                out.write(trailer);
+            }
+        }
+
+        void release() {
+            if(released) return;
+            released = true;
+            coding.pool.release(def);
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            release();
+        }
+    }
+
+    private static void putIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+}
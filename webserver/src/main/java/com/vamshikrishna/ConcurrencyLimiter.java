@@ -0,0 +1,183 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// admission control in front of a server's handler. The limit on requests in the handler at once follows the
+// gradient between the baseline handler latency and the latency of the last few requests: while they match the
+// limit grows by about its square root, once requests take longer than usual it shrinks in proportion, so queueing
+// happens here, where it is bounded, and not in the handler's downstreams where it would slow everyone down.
+// Requests beyond the limit wait in priority order, but only for maxQueueWait and only as many as the limit again,
+// everything else is answered right away with a 503 encoded once up front.
+final class ConcurrencyLimiter {
+    // how much of the new estimate goes into the limit on each sample
+    private static final double SMOOTHING = 0.2;
+    // samples the latency of the last few requests is averaged over
+    private static final double SHORT_WINDOW = 10;
+    // the baseline follows that down right away but up only over this many samples, otherwise the queueing the
+    // limit lets in would soon pass for the new normal and the limit would creep up with it
+    private static final double BASELINE_WINDOW = 10_000;
+    private static final byte[] EMPTY = new byte[0];
+    private final AdmissionPolicy policy;
+    private final long maxQueueWaitNanos;
+    private final ServerMetrics metrics;
+    private final HttpResponse rejection;
+    private final byte[] encodedRejection;
+    private final ReentrantLock lock = new ReentrantLock();
+    // best first: highest priority, then longest waiting
+    private final TreeSet<Waiter> waiters = new TreeSet<>(Comparator.comparingInt((Waiter waiter) -> -waiter.priority)
+            .thenComparingLong(waiter -> waiter.sequence));
+    private double limit;
+    private int inFlight;
+    private double shortRtt;
+    private double baselineRtt;
+    private long sequence;
+
+    private static final class Waiter {
+        private final int priority;
+        private final long sequence;
+        private final Condition condition;
+        private boolean admitted;
+        private boolean rejected;
+
+        private Waiter(int priority, long sequence, Condition condition) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+    }
+
+    ConcurrencyLimiter(AdmissionPolicy policy, ServerMetrics metrics) {
+        this.policy = policy;
+        this.maxQueueWaitNanos = policy.maxQueueWait().toNanos();
+        this.metrics = metrics;
+        this.limit = policy.initialLimit();
+        var retryAfter = String.valueOf((policy.retryAfter().toMillis() + 999) / 1_000);
+        this.rejection = new HttpResponse(503, new HttpHeaders(3).add("Retry-After", retryAfter).add("Content-Length", "0")
+                .add("Connection", "close"), EMPTY);
+        this.encodedRejection = ("HTTP/1.1 503 Service Unavailable\r\nRetry-After: %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .formatted(retryAfter).getBytes(StandardCharsets.US_ASCII);
+        metrics.concurrencyLimit(this::limit);
+    }
+
+    // whether the request may go on to the handler, waiting for room when there is none. Every true has to be
+    // followed by a release.
+    boolean acquire(HttpRequest request) throws InterruptedException {
+        var priority = policy.priority().applyAsInt(request);
+        lock.lock();
+        try {
+            if(waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if(maxQueueWaitNanos == 0 || !makeRoom(priority)) return reject();
+            var waiter = new Waiter(priority, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            var left = maxQueueWaitNanos;
+            try {
+                while(!waiter.admitted && !waiter.rejected && left > 0) {
+                    left = waiter.condition.awaitNanos(left);
+                }
+            }
+            catch (InterruptedException e) {
+                if(waiter.admitted) inFlight--;
+                waiters.remove(waiter);
+                throw e;
+            }
+            if(waiter.admitted) return true;
+            waiters.remove(waiter);
+            return reject();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // the request acquired earlier left the handler after rttNanos
+    void release(long rttNanos) {
+        lock.lock();
+        try {
+            var saturated = inFlight >= (int) limit / 2; // a server that isn't using its limit learns nothing about it
+            inFlight--;
+            update(Math.max(1, rttNanos), saturated);
+            admitWaiters();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // nothing gets in for now and the queue is full, new connections are better turned away at the door. Never with
+    // priorities, one of them might outrank a request in the queue.
+    boolean isSaturated() {
+        if(policy.hasPriorities()) return false;
+        lock.lock();
+        try {
+            return inFlight >= (int) limit && waiters.size() >= (int) limit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    HttpResponse rejection() {
+        return rejection;
+    }
+
+    // the rejection as HTTP/1.1 bytes, for answering without even parsing the request
+    byte[] encodedRejection() {
+        return encodedRejection;
+    }
+
+    long limit() {
+        lock.lock();
+        try {
+            return (long) limit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(double rtt, boolean saturated) {
+        if(baselineRtt == 0) {
+            shortRtt = rtt;
+            baselineRtt = rtt;
+            return;
+        }
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        baselineRtt = shortRtt < baselineRtt ? shortRtt : baselineRtt + (shortRtt - baselineRtt) / BASELINE_WINDOW;
+        if(!saturated) return;
+        var gradient = Math.max(0.5, Math.min(1.0, baselineRtt / shortRtt));
+        var estimate = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(policy.minLimit(), Math.min(policy.maxLimit(), limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+    }
+
+    private void admitWaiters() {
+        while(inFlight < (int) limit && !waiters.isEmpty()) {
+            var waiter = waiters.pollFirst();
+            waiter.admitted = true;
+            inFlight++;
+            waiter.condition.signal();
+        }
+    }
+
+    // a full queue pushes out its lowest priority waiter for a request that outranks it
+    private boolean makeRoom(int priority) {
+        if(waiters.size() < Math.max(1, (int) limit)) return true;
+        var last = waiters.last();
+        if(last.priority >= priority) return false;
+        waiters.remove(last);
+        last.rejected = true;
+        last.condition.signal();
+        return true;
+    }
+
+    private boolean reject() {
+        metrics.shed();
+        return false;
+    }
+}
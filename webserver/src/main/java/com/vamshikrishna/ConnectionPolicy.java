@@ -0,0 +1,69 @@
+package com.vamshikrishna;
+
+import java.time.Duration;
+
+// how long and how much a connection may be used:
+//   idleTimeout               wait for the next request on a kept-alive connection
+//   headerTimeout             first byte of a request head to its end, a client trickling bytes can't hold on forever
+//   bodyTimeout               silence allowed between reads of a request body
+//   maxRequestsPerConnection  the response to the last one says Connection: close
+//   maxConnections            at the cap the connection idle the longest is closed to make room, new clients only
+//                             wait in the listen backlog when every connection is busy
+// Timeouts are positive, NO_TIMEOUT waits indefinitely.
+public record ConnectionPolicy(Duration idleTimeout, Duration headerTimeout, Duration bodyTimeout,
+                               int maxRequestsPerConnection, int maxConnections) {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    // the longest Duration whose nanos still fit a long, so deadlines taken from it don't overflow
+    public static final Duration NO_TIMEOUT = Duration.ofNanos(Long.MAX_VALUE);
+
+    public ConnectionPolicy {
+        requirePositive("idleTimeout", idleTimeout);
+        requirePositive("headerTimeout", headerTimeout);
+        requirePositive("bodyTimeout", bodyTimeout);
+        if(maxRequestsPerConnection < 1) {
+            throw new IllegalArgumentException("maxRequestsPerConnection must be positive, got %d".formatted(maxRequestsPerConnection));
+        }
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive, got %d".formatted(maxConnections));
+        }
+    }
+
+    // the single connectionTimeout the servers used to take for every wait, with no other limits. 0 waits
+    // indefinitely, as it did for setSoTimeout.
+    public static ConnectionPolicy withTimeout(int connectionTimeoutMillis) {
+        var timeout = connectionTimeoutMillis == 0 ? NO_TIMEOUT : Duration.ofMillis(connectionTimeoutMillis);
+        return new ConnectionPolicy(timeout, timeout, timeout, UNLIMITED, UNLIMITED);
+    }
+
+    public ConnectionPolicy withIdleTimeout(Duration idleTimeout) {
+        return new ConnectionPolicy(idleTimeout, headerTimeout, bodyTimeout, maxRequestsPerConnection, maxConnections);
+    }
+
+    public ConnectionPolicy withHeaderTimeout(Duration headerTimeout) {
+        return new ConnectionPolicy(idleTimeout, headerTimeout, bodyTimeout, maxRequestsPerConnection, maxConnections);
+    }
+
+    public ConnectionPolicy withBodyTimeout(Duration bodyTimeout) {
+        return new ConnectionPolicy(idleTimeout, headerTimeout, bodyTimeout, maxRequestsPerConnection, maxConnections);
+    }
+
+    public ConnectionPolicy withMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        return new ConnectionPolicy(idleTimeout, headerTimeout, bodyTimeout, maxRequestsPerConnection, maxConnections);
+    }
+
+    public ConnectionPolicy withMaxConnections(int maxConnections) {
+        return new ConnectionPolicy(idleTimeout, headerTimeout, bodyTimeout, maxRequestsPerConnection, maxConnections);
+    }
+
+    // socket timeouts are ints, anything longer than that is as good as forever. NO_TIMEOUT is 0, which is forever.
+    static int millis(Duration timeout) {
+        if(timeout.equals(NO_TIMEOUT)) return 0;
+        return (int) Math.min(Integer.MAX_VALUE, timeout.toMillis());
+    }
+
+    private static void requirePositive(String name, Duration timeout) {
+        if(timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("%s must be positive, got %s".formatted(name, timeout));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.vamshikrishna;
+
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// per-connection read side of the blocking server. Bytes read past the end of one request stay in the buffer
+// and become the start of the next one. Pending responses are only flushed right before we'd block waiting for
+// more input, so the responses to a pipelined batch go out together and in request order.
+// The socket timeout follows the phase: idleTimeout until a request starts, whatever is left of headerTimeout
+// while its head comes in, bodyTimeout between reads of its body.
+final class ConnectionReader {
+    private static final int INITIAL_BUFFER_SIZE = 8_192;
+    private final Socket socket;
+    private final InputStream stream;
+    private final Flushable output;
+    private final HttpRequestParser parser;
+    private final int maxHeadSize;
+    private final ServerMetrics metrics;
+    private final int idleTimeoutMillis;
+    private final long headerTimeoutNanos;
+    private final int bodyTimeoutMillis;
+    private int soTimeout = -1;
+    // heap so the stream can read straight into its array
+    private PooledBuffer pooledBuffer = BufferPool.HEAP.acquire(INITIAL_BUFFER_SIZE);
+    private ByteBuffer buffer = pooledBuffer.buffer();
+
+    ConnectionReader(Socket socket, Flushable output, ConnectionPolicy policy, ServerMetrics metrics) throws IOException {
+        this(socket, output, policy, metrics, HttpRequestParser.DEFAULT_MAX_HEAD_SIZE);
+    }
+
+    ConnectionReader(Socket socket, Flushable output, ConnectionPolicy policy, ServerMetrics metrics, int maxHeadSize) throws IOException {
+        this.socket = socket;
+        this.stream = socket.getInputStream();
+        this.output = output;
+        this.metrics = metrics;
+        this.idleTimeoutMillis = ConnectionPolicy.millis(policy.idleTimeout());
+        this.headerTimeoutNanos = policy.headerTimeout().toNanos();
+        this.bodyTimeoutMillis = ConnectionPolicy.millis(policy.bodyTimeout());
+        this.maxHeadSize = maxHeadSize;
+        this.parser = new HttpRequestParser(maxHeadSize);
+    }
+
+    // null when the client closed the connection between requests. Times out with a SocketTimeoutException when no
+    // request starts within idleTimeout and with a 408 when a started head isn't complete within headerTimeout.
+    RequestHead readHead() throws IOException {
+        parser.reset(0);
+        var parseNanos = 0L;
+        var headDeadline = buffer.position() > 0 ? System.nanoTime() + headerTimeoutNanos : 0; // pipelined bytes count as started
+        while(true) {
+            var started = System.nanoTime();
+            var parsed = parser.parse(buffer, buffer.position());
+            parseNanos += System.nanoTime() - started;
+            if(parsed) break;
+            if(!buffer.hasRemaining()) grow();
+            flushIfBlocking();
+            if(buffer.position() == 0) {
+                soTimeout(idleTimeoutMillis);
+            }
+            else {
+                if(headDeadline == 0) headDeadline = System.nanoTime() + headerTimeoutNanos;
+                soTimeout(headerTimeLeft(headDeadline));
+            }
+            int read;
+            try {
+                read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+            }
+            catch (SocketTimeoutException e) {
+                if(buffer.position() == 0) throw e;
+                throw headerTimedOut();
+            }
+            if(read < 0) {
+                if(buffer.position() == 0) return null;
+                throw new EOFException("Connection closed in the middle of a request head");
+            }
+            metrics.bytesIn(read);
+            buffer.position(buffer.position() + read);
+        }
+        var started = System.nanoTime();
+        var head = parser.toHead(buffer);
+        metrics.parseLatency.record(parseNanos + System.nanoTime() - started);
+        consume(parser.headEnd());
+        return head;
+    }
+
+    // the whole body in memory, chunked bodies are refused with a 413 once they grow past maxSize
+    byte[] readBody(BodyDecoder decoder, int maxSize) throws IOException {
+        if(decoder.length() > maxSize) {
+            throw new HttpParseException(413, "Request body of %d bytes is larger than %d".formatted(decoder.length(), maxSize));
+        }
+        var body = new byte[decoder.isChunked() ? Math.min(INITIAL_BUFFER_SIZE, maxSize) : (int) decoder.length()];
+        var read = 0;
+        while(true) {
+            if(read == body.length) {
+                if(decoder.isDone()) return body;
+                if(body.length == maxSize) throw new HttpParseException(413, "Chunked request body is larger than %d".formatted(maxSize));
+                body = Arrays.copyOf(body, (int) Math.min((long) body.length * 2, maxSize));
+            }
+            var n = readBody(decoder, body, read, body.length - read);
+            if(n < 0) return read == body.length ? body : Arrays.copyOf(body, read);
+            read += n;
+        }
+    }
+
+    // next body bytes of the current request, buffered bytes first, -1 once the decoder is done
+    int readBody(BodyDecoder decoder, byte[] dst, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        while(!decoder.isDone()) {
+            if(buffer.position() > 0) {
+                buffer.flip();
+                var n = decoder.decode(buffer, dst, off, len);
+                buffer.compact();
+                if(n > 0) return n;
+                continue;
+            }
+            flushIfBlocking();
+            soTimeout(bodyTimeoutMillis);
+            var direct = decoder.directlyReadable();
+            if(direct > 0) {
+                var n = stream.read(dst, off, (int) Math.min(len, direct)); // straight into the caller's array, no staging copy
+                if(n < 0) throw new EOFException("Connection closed in the middle of a request body");
+                metrics.bytesIn(n);
+                decoder.consumedDirectly(n);
+                return n;
+            }
+            var read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+            if(read < 0) throw new EOFException("Connection closed in the middle of a request body");
+            metrics.bytesIn(read);
+            buffer.position(buffer.position() + read);
+        }
+        return -1;
+    }
+
+    // whether the connection starts with prefix, reading only as far as it takes to tell and consuming nothing.
+    // Waits like readHead does, false when the client closes before that.
+    boolean startsWith(byte[] prefix) throws IOException {
+        var headDeadline = 0L;
+        while(true) {
+            var compared = Math.min(buffer.position(), prefix.length);
+            if(!Arrays.equals(buffer.array(), 0, compared, prefix, 0, compared)) return false;
+            if(compared == prefix.length) return true;
+            if(buffer.position() == 0) {
+                soTimeout(idleTimeoutMillis);
+            }
+            else {
+                if(headDeadline == 0) headDeadline = System.nanoTime() + headerTimeoutNanos;
+                soTimeout(headerTimeLeft(headDeadline));
+            }
+            int read;
+            try {
+                read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+            }
+            catch (SocketTimeoutException e) {
+                if(buffer.position() == 0) throw e;
+                throw headerTimedOut();
+            }
+            if(read < 0) return false;
+            metrics.bytesIn(read);
+            buffer.position(buffer.position() + read);
+        }
+    }
+
+    // the rest of the connection's input for another protocol to read, starting with whatever is buffered here.
+    // The reader must not be used after this.
+    InputStream takeOver() {
+        var buffered = Arrays.copyOf(buffer.array(), buffer.position());
+        buffer.clear();
+        return new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                var single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(len == 0) return 0;
+                if(position < buffered.length) {
+                    var n = Math.min(len, buffered.length - position);
+                    System.arraycopy(buffered, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+                var n = stream.read(b, off, len);
+                if(n > 0) metrics.bytesIn(n);
+                return n;
+            }
+        };
+    }
+
+    // the buffer itself, with whatever is buffered past the current request, for another protocol to keep reading into.
+    // The caller releases it, the reader must not be used after this.
+    PooledBuffer takeOverBuffer() {
+        var taken = pooledBuffer;
+        pooledBuffer = null;
+        buffer = null;
+        return taken;
+    }
+
+    // a quick look for the client having closed its end while its response is still being worked on. Bytes that arrive
+    // instead are kept for readHead, nothing is read once the buffer is full.
+    boolean isClosedByClient() throws IOException {
+        if(!buffer.hasRemaining()) return false;
+        soTimeout(1);
+        try {
+            var read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+            if(read < 0) return true;
+            metrics.bytesIn(read);
+            buffer.position(buffer.position() + read);
+            return false;
+        }
+        catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    // whether the next request, or part of it, is already here
+    boolean hasBufferedInput() throws IOException {
+        return buffer.position() > 0 || stream.available() > 0;
+    }
+
+    private int headerTimeLeft(long deadline) {
+        var left = deadline - System.nanoTime();
+        if(left <= 0) throw headerTimedOut();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, left / 1_000_000));
+    }
+
+    private HttpParseException headerTimedOut() {
+        metrics.timeout();
+        return new HttpParseException(408, "Request head took longer than %d ms".formatted(headerTimeoutNanos / 1_000_000));
+    }
+
+    // only touches the socket when the phase changes
+    private void soTimeout(int millis) throws SocketException {
+        if(millis == soTimeout) return;
+        socket.setSoTimeout(millis);
+        soTimeout = millis;
+    }
+
+    private void flushIfBlocking() throws IOException {
+        if(stream.available() == 0) output.flush();
+    }
+
+    private void consume(int bytes) {
+        buffer.flip().position(bytes);
+        buffer.compact();
+    }
+
+    private void grow() {
+        if(buffer.capacity() >= maxHeadSize) {
+            throw new HttpParseException(431, "Request head is larger than %d bytes".formatted(maxHeadSize));
+        }
+        var grown = BufferPool.HEAP.acquire(Math.min(buffer.capacity() * 2, maxHeadSize));
+        grown.buffer().put(buffer.flip());
+        pooledBuffer.release();
+        pooledBuffer = grown;
+        buffer = grown.buffer();
+    }
+
+    // once the connection is closed
+    void release() {
+        if(pooledBuffer != null) pooledBuffer.release();
+    }
+}
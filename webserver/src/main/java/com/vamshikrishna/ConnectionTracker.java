@@ -0,0 +1,118 @@
+package com.vamshikrishna;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// the open connections of a server, each either busy or idle since some time, and the cap on how many there are.
+// At the cap the connection idle the longest is handed to evict, it is the one least likely to be missed. Finding it
+// is a scan, which only happens under pressure, per request a connection only does a CAS on its own state.
+final class ConnectionTracker<C> {
+    private static final long BUSY = -1;
+    private static final long CLOSING = -2;
+    private static final int EVICTION_ATTEMPTS = 3;
+    private static final long RETRY_MILLIS = 10;
+    // idle timestamps are taken relative to this so they are never negative and can't be mistaken for a state
+    private static final long ORIGIN = System.nanoTime();
+    private final Map<C, AtomicLong> connections = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final Consumer<C> evict;
+
+    ConnectionTracker(int maxConnections, Consumer<C> evict) {
+        this.permits = new Semaphore(maxConnections);
+        this.evict = evict;
+    }
+
+    // a slot for a connection that was just accepted, evicting an idle one when full. Only called once a client is
+    // actually waiting, so nothing is evicted ahead of need. While every connection is busy it waits, looking again
+    // every RETRY_MILLIS for one that has gone idle since.
+    void acquire() throws InterruptedException {
+        if(permits.tryAcquire()) return;
+        var evicting = evictLeastRecentlyUsed();
+        while(!permits.tryAcquire(RETRY_MILLIS, TimeUnit.MILLISECONDS)) {
+            // one eviction at a time, unless there was none or another acceptor got the slot it freed
+            if(evicting == null || !connections.containsKey(evicting)) evicting = evictLeastRecentlyUsed();
+        }
+    }
+
+    // the slot from acquire when the connection couldn't be set up
+    void release() {
+        permits.release();
+    }
+
+    // new connections count as idle until their first request
+    void add(C connection) {
+        connections.put(connection, new AtomicLong(now()));
+    }
+
+    // false when the connection was claimed for closing and must not start another request
+    boolean markBusy(C connection) {
+        var state = connections.get(connection);
+        if(state == null) return false;
+        while(true) {
+            var current = state.get();
+            if(current == CLOSING) return false;
+            if(current == BUSY || state.compareAndSet(current, BUSY)) return true;
+        }
+    }
+
+    void markIdle(C connection) {
+        var state = connections.get(connection);
+        if(state != null) state.compareAndSet(BUSY, now());
+    }
+
+    // takes an idle connection away from its owner so it can be closed, false when it is busy or already claimed
+    boolean claimIdle(C connection) {
+        var state = connections.get(connection);
+        if(state == null) return false;
+        var current = state.get();
+        return current >= 0 && state.compareAndSet(current, CLOSING);
+    }
+
+    // true the first time, which is when the slot goes back
+    boolean remove(C connection) {
+        if(connections.remove(connection) == null) return false;
+        permits.release();
+        return true;
+    }
+
+    Set<C> connections() {
+        return connections.keySet();
+    }
+
+    boolean isEmpty() {
+        return connections.isEmpty();
+    }
+
+    // the connection handed to evict, whose removal frees a slot, null when none is idle
+    private C evictLeastRecentlyUsed() {
+        var victim = claimLeastRecentlyUsed();
+        if(victim != null) evict.accept(victim);
+        return victim;
+    }
+
+    private C claimLeastRecentlyUsed() {
+        for(int attempt = 0; attempt < EVICTION_ATTEMPTS; attempt++) {
+            C oldest = null;
+            var oldestSince = Long.MAX_VALUE;
+            for(var entry : connections.entrySet()) {
+                var since = entry.getValue().get();
+                if(since >= 0 && since < oldestSince) {
+                    oldest = entry.getKey();
+                    oldestSince = since;
+                }
+            }
+            if(oldest == null) return null;
+            if(claimIdle(oldest)) return oldest; // lost a race with a new request on it, look again
+        }
+        return null;
+    }
+
+    private static long now() {
+        return System.nanoTime() - ORIGIN;
+    }
+}
@@ -0,0 +1,41 @@
+package com.vamshikrishna;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// recycles Deflaters, each one holds a few hundred KB of native window and hash tables that are expensive to set
+// up and only freed by end(). Released ones are reset and kept up to a small cap, the rest are ended right away.
+final class DeflaterPool {
+    // raw deflate for gzip, whose header and trailer Compressor writes itself
+    static final DeflaterPool RAW = new DeflaterPool(true);
+    // zlib-wrapped deflate, which is what HTTP's "deflate" coding means
+    static final DeflaterPool ZLIB = new DeflaterPool(false);
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private final boolean nowrap;
+    private final Queue<Deflater> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    private DeflaterPool(boolean nowrap) {
+        this.nowrap = nowrap;
+    }
+
+    Deflater acquire() {
+        var deflater = pooled.poll();
+        if(deflater == null) return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+        pooledCount.decrementAndGet();
+        return deflater;
+    }
+
+    void release(Deflater deflater) {
+        deflater.reset();
+        if(pooledCount.incrementAndGet() <= MAX_POOLED) {
+            pooled.offer(deflater);
+        }
+        else {
+            pooledCount.decrementAndGet();
+            deflater.end();
+        }
+    }
+}
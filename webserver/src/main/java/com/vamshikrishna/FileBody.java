@@ -0,0 +1,46 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// a file region sent with FileChannel.transferTo, which is sendfile on a socket so the bytes never reach the heap
+final class FileBody implements ResponseBody {
+    private final FileChannel file;
+    private final long length;
+    private long position;
+    private long remaining;
+
+    FileBody(Path path, long position, long length) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.READ);
+        this.position = position;
+        this.length = length;
+        this.remaining = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        while(remaining > 0) {
+            var written = file.transferTo(position, remaining, channel);
+            if(written <= 0) {
+                if(position >= file.size()) throw new IOException("File shrank while it was being sent");
+                return false;
+            }
+            position += written;
+            remaining -= written;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+
+// turns the header blocks of one connection back into fields, RFC 7541 section 6. The dynamic table is shared by
+// every block the client sends, so each block has to be decoded in full and in order, even for a stream that is
+// refused right after. Any malformed block is a COMPRESSION_ERROR on the whole connection.
+final class HpackDecoder {
+    @FunctionalInterface
+    interface FieldConsumer {
+        void accept(String name, String value);
+    }
+
+    private final HpackTable table;
+    // the limit we advertised in SETTINGS_HEADER_TABLE_SIZE, size updates from the client may not exceed it
+    private final int maxTableSize;
+    private byte[] block;
+    private int position;
+    private int end;
+
+    HpackDecoder(int maxTableSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    void decode(byte[] source, int offset, int length, FieldConsumer fields) {
+        block = source;
+        position = offset;
+        end = offset + length;
+        var fieldSeen = false;
+        try {
+            while(position < end) {
+                var b = block[position] & 0xff;
+                if((b & 0x80) != 0) { // indexed field
+                    var index = readInt(7);
+                    fields.accept(table.name(index), table.value(index));
+                }
+                else if((b & 0x40) != 0) { // literal with incremental indexing
+                    var name = readName(6);
+                    var value = readString();
+                    table.add(name, value);
+                    fields.accept(name, value);
+                }
+                else if((b & 0x20) != 0) { // dynamic table size update, only allowed before the first field
+                    if(fieldSeen) throw compressionError("Dynamic table size update after a header field");
+                    var size = readInt(5);
+                    if(size > maxTableSize) {
+                        throw compressionError("Dynamic table size %d is larger than the %d allowed".formatted(size, maxTableSize));
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                }
+                else { // literal without indexing (0000) or never indexed (0001), the same to a server
+                    var name = readName(4);
+                    fields.accept(name, readString());
+                }
+                fieldSeen = true;
+            }
+        }
+        finally {
+            block = null;
+        }
+    }
+
+    private String readName(int prefixBits) {
+        var index = readInt(prefixBits);
+        return index == 0 ? readString() : table.name(index);
+    }
+
+    private String readString() {
+        if(position >= end) throw compressionError("Header block ends in the middle of a string");
+        var huffman = (block[position] & 0x80) != 0;
+        var length = readInt(7);
+        if(length > end - position) throw compressionError("String of %d bytes runs past the header block".formatted(length));
+        var value = huffman ? Huffman.decode(block, position, length) : new String(block, position, length, StandardCharsets.ISO_8859_1);
+        position += length;
+        return value;
+    }
+
+    // prefix coded integer, section 5.1. Anything that doesn't fit an int is an error, no sane field needs that.
+    private int readInt(int prefixBits) {
+        var mask = (1 << prefixBits) - 1;
+        var value = block[position++] & mask;
+        if(value < mask) return value;
+        for(int shift = 0; shift <= 28; shift += 7) {
+            if(position >= end) throw compressionError("Header block ends in the middle of an integer");
+            var b = block[position++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if(value < 0) break;
+            if((b & 0x80) == 0) return value;
+        }
+        throw compressionError("Integer in a header block is too large");
+    }
+
+    private static Http2Exception compressionError(String message) {
+        return Http2Exception.connectionError(Http2Codec.COMPRESSION_ERROR, message);
+    }
+}
@@ -0,0 +1,97 @@
+package com.vamshikrishna;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Set;
+
+// compresses the response headers of one connection, RFC 7541. Fields already in the static or dynamic table are
+// sent as a single index, others are added to the dynamic table so the next response on the connection can refer
+// to them. Values that change on every response aren't indexed, they would only push useful entries out, and
+// credentials are marked never-indexed so no intermediary keeps them. Blocks have to reach the client in the order
+// they were encoded, the caller encodes and writes under one lock.
+final class HpackEncoder {
+    private static final Set<String> NOT_INDEXED = Set.of("content-length", "content-range", "age", "etag", "last-modified");
+    private static final Set<String> NEVER_INDEXED = Set.of("authorization", "proxy-authorization", "set-cookie");
+    // the table we use never grows past this, whatever the client allows
+    private static final int MAX_TABLE_SIZE = Http2Codec.DEFAULT_HEADER_TABLE_SIZE;
+    private final HpackTable table = new HpackTable(MAX_TABLE_SIZE);
+    // size changes the client hasn't heard about yet, sent at the start of the next block. When the size went down
+    // and back up in between the smallest one has to be sent as well, section 4.2.
+    private int pendingMinSize = -1;
+    private int pendingSize = -1;
+
+    // SETTINGS_HEADER_TABLE_SIZE from the client
+    void setMaxTableSize(int clientMaxSize) {
+        var size = Math.min(clientMaxSize, MAX_TABLE_SIZE);
+        var current = pendingSize >= 0 ? pendingSize : table.maxSize();
+        if(size == current) return;
+        pendingMinSize = pendingMinSize < 0 ? Math.min(size, table.maxSize()) : Math.min(size, pendingMinSize);
+        pendingSize = size;
+    }
+
+    void beginBlock(ByteArrayOutputStream out) {
+        if(pendingSize < 0) return;
+        if(pendingMinSize < pendingSize) {
+            table.setMaxSize(pendingMinSize);
+            writeInt(out, 0x20, 5, pendingMinSize);
+        }
+        table.setMaxSize(pendingSize);
+        writeInt(out, 0x20, 5, pendingSize);
+        pendingMinSize = -1;
+        pendingSize = -1;
+    }
+
+    // name must be lower case already
+    void encode(String name, String value, ByteArrayOutputStream out) {
+        if(NEVER_INDEXED.contains(name)) {
+            writeLiteral(out, 0x10, 4, name, value);
+            return;
+        }
+        var index = table.indexOf(name, value);
+        if(index > 0) {
+            writeInt(out, 0x80, 7, index);
+        }
+        else if(NOT_INDEXED.contains(name)) {
+            writeLiteral(out, 0x00, 4, name, value);
+        }
+        else {
+            writeLiteral(out, 0x40, 6, name, value);
+            table.add(name, value);
+        }
+    }
+
+    private void writeLiteral(ByteArrayOutputStream out, int pattern, int prefixBits, String name, String value) {
+        var nameIndex = table.indexOfName(name);
+        writeInt(out, pattern, prefixBits, nameIndex);
+        if(nameIndex == 0) writeString(out, name);
+        writeString(out, value);
+    }
+
+    // Huffman coded whenever that comes out shorter, which it does for most header text
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        var huffmanLength = Huffman.encodedLength(value);
+        if(huffmanLength < value.length()) {
+            writeInt(out, 0x80, 7, huffmanLength);
+            Huffman.encode(value, out);
+            return;
+        }
+        writeInt(out, 0x00, 7, value.length());
+        for(int i = 0; i < value.length(); i++) {
+            out.write(value.charAt(i));
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int pattern, int prefixBits, int value) {
+        var mask = (1 << prefixBits) - 1;
+        if(value < mask) {
+            out.write(pattern | value);
+            return;
+        }
+        out.write(pattern | mask);
+        value -= mask;
+        while(value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
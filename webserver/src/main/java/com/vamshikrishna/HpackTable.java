@@ -0,0 +1,137 @@
+package com.vamshikrishna;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// the HPACK index space, RFC 7541 section 2.3: the 61 static entries followed by a dynamic table where the newest
+// entry has the lowest index. Each side of a connection keeps one per direction, an entry costs its name and value
+// lengths plus 32 bytes and the oldest entries are dropped to stay within maxSize.
+final class HpackTable {
+    static final int ENTRY_OVERHEAD = 32;
+    static final String[][] STATIC = {
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+            {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+            {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+            {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+            {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""}, {"date", ""},
+            {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""}, {"if-match", ""},
+            {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""},
+            {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+            {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""}, {"retry-after", ""},
+            {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+            {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+    // first static index of each name, and of each name and value pair that has one
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for(int i = STATIC.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC[i][0], i + 1);
+            if(!STATIC[i][1].isEmpty()) STATIC_FIELDS.put(STATIC[i][0] + '\0' + STATIC[i][1], i + 1);
+        }
+    }
+
+    // ring buffer, entries[head] is the newest
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+    private int head;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    int length() {
+        return STATIC.length + count;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    String name(int index) {
+        checkIndex(index);
+        return index <= STATIC.length ? STATIC[index - 1][0] : names[slot(index)];
+    }
+
+    String value(int index) {
+        checkIndex(index);
+        return index <= STATIC.length ? STATIC[index - 1][1] : values[slot(index)];
+    }
+
+    // an entry larger than the whole table empties it and isn't added, as the RFC says
+    void add(String name, String value) {
+        var entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+        evictUntilFits(maxSize - entrySize);
+        if(entrySize > maxSize) return;
+        if(count == names.length) grow();
+        head = (head - 1 + names.length) % names.length;
+        names[head] = name;
+        values[head] = value;
+        count++;
+        size += entrySize;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evictUntilFits(maxSize);
+    }
+
+    // index of the exact field, 0 when there is none
+    int indexOf(String name, String value) {
+        var staticIndex = STATIC_FIELDS.get(name + '\0' + value);
+        if(staticIndex != null) return staticIndex;
+        for(int i = 0; i < count; i++) {
+            var slot = (head + i) % names.length;
+            if(names[slot].equals(name) && values[slot].equals(value)) return STATIC.length + 1 + i;
+        }
+        return 0;
+    }
+
+    // index of any entry with the name, 0 when there is none
+    int indexOfName(String name) {
+        var staticIndex = STATIC_NAMES.get(name);
+        if(staticIndex != null) return staticIndex;
+        for(int i = 0; i < count; i++) {
+            if(names[(head + i) % names.length].equals(name)) return STATIC.length + 1 + i;
+        }
+        return 0;
+    }
+
+    private void evictUntilFits(int limit) {
+        while(size > Math.max(0, limit) && count > 0) {
+            var oldest = (head + count - 1) % names.length;
+            size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+            names[oldest] = null;
+            values[oldest] = null;
+            count--;
+        }
+    }
+
+    private void grow() {
+        var grownNames = new String[names.length * 2];
+        var grownValues = new String[names.length * 2];
+        for(int i = 0; i < count; i++) {
+            grownNames[i] = names[(head + i) % names.length];
+            grownValues[i] = values[(head + i) % names.length];
+        }
+        names = grownNames;
+        values = grownValues;
+        head = 0;
+    }
+
+    private int slot(int index) {
+        return (head + index - STATIC.length - 1) % names.length;
+    }
+
+    private void checkIndex(int index) {
+        if(index < 1 || index > length()) {
+            throw Http2Exception.connectionError(Http2Codec.COMPRESSION_ERROR, "HPACK index %d out of range".formatted(index));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+// HTTP/2 wire constants (RFC 9113) and the two ways a cleartext connection gets there: the client preface sent
+// right away by clients with prior knowledge, or an HTTP/1.1 request asking to Upgrade: h2c
+final class Http2Codec {
+    static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final int FRAME_HEADER_SIZE = 9;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    static final int MAX_MAX_FRAME_SIZE = (1 << 24) - 1;
+    static final int DEFAULT_WINDOW_SIZE = 65_535;
+    static final int DEFAULT_HEADER_TABLE_SIZE = 4_096;
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+
+    static final HttpResponse SWITCHING_PROTOCOLS = new HttpResponse(101, Map.of(
+            "Connection", List.of("Upgrade"), "Upgrade", List.of("h2c")), new byte[0]);
+    private static final String UPGRADE_TOKEN = "h2c";
+    private static final String SETTINGS_HEADER = "http2-settings";
+
+    private Http2Codec() {
+    }
+
+    // RFC 7540 section 3.2: Upgrade: h2c, exactly one HTTP2-Settings and both named in Connection. Requests with a
+    // body aren't switched, the body would have to be read in full first, they are simply answered over HTTP/1.1.
+    static boolean isUpgradeRequest(RequestHead head) {
+        if(!head.isHttp11() || HttpCodec.bodyDecoder(head) != null) return false;
+        var upgrade = head.indexOf(HttpHeaderNames.UPGRADE, 0);
+        if(upgrade < 0 || !head.hasToken(upgrade, UPGRADE_TOKEN)) return false;
+        var settings = head.indexOf(SETTINGS_HEADER, 0);
+        if(settings < 0 || head.indexOf(SETTINGS_HEADER, settings + 1) >= 0) return false;
+        var upgradeListed = false;
+        var settingsListed = false;
+        for(var i = head.indexOf(HttpHeaderNames.CONNECTION, 0); i >= 0; i = head.indexOf(HttpHeaderNames.CONNECTION, i + 1)) {
+            upgradeListed |= head.hasToken(i, HttpHeaderNames.UPGRADE);
+            settingsListed |= head.hasToken(i, SETTINGS_HEADER);
+        }
+        return upgradeListed && settingsListed && upgradeSettings(head) != null;
+    }
+
+    // the SETTINGS payload carried base64url encoded in the upgrade request, null when it doesn't decode
+    static byte[] upgradeSettings(RequestHead head) {
+        try {
+            var settings = Base64.getUrlDecoder().decode(head.firstValue(SETTINGS_HEADER).strip());
+            return settings.length % 6 == 0 ? settings : null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static int readInt(byte[] source, int offset) {
+        return (source[offset] & 0xff) << 24 | (source[offset + 1] & 0xff) << 16 | (source[offset + 2] & 0xff) << 8 | (source[offset + 3] & 0xff);
+    }
+
+    static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    static void writeFrameHeader(byte[] target, int length, int type, int flags, int streamId) {
+        target[0] = (byte) (length >>> 16);
+        target[1] = (byte) (length >>> 8);
+        target[2] = (byte) length;
+        target[3] = (byte) type;
+        target[4] = (byte) flags;
+        writeInt(target, 5, streamId);
+    }
+}
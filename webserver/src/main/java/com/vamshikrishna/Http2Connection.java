@@ -0,0 +1,784 @@
+package com.vamshikrishna;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// an HTTP/2 connection of the blocking server, RFC 9113. The connection's thread reads frames and answers the
+// control ones itself, every request gets a virtual thread of its own that runs the handler and writes the response
+// through the shared Http2FrameWriter, so a slow handler never holds up the other streams on the connection.
+// Request bodies are buffered up to maxInMemoryBodySize like on HTTP/1.1, handlers that accept streaming bodies
+// read larger ones as they arrive and the stream's window only opens again as they consume it.
+// The connection counts as busy while any stream is open and idle otherwise, so eviction and stop() treat it like
+// any other keep-alive connection.
+final class Http2Connection {
+    private static final int MAX_CONCURRENT_STREAMS = 256;
+    private static final int MAX_HEADER_LIST_SIZE = HttpRequestParser.DEFAULT_MAX_HEAD_SIZE;
+    // larger than a stream window so one upload doesn't stall the others, replenished as data arrives
+    private static final int CONNECTION_WINDOW_SIZE = 1 << 20;
+    private static final int STREAM_WINDOW_SIZE = Http2Codec.DEFAULT_WINDOW_SIZE;
+    private static final String PROTOCOL = "HTTP/2.0";
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] GOAWAY_PING = "goaway\0\0".getBytes(StandardCharsets.US_ASCII);
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+    private final Socket socket;
+    private final InputStream in;
+    private final HttpRequestHandler handler;
+    private final AsyncDispatcher asyncDispatcher;
+    private final ConcurrencyLimiter limiter;
+    private final ConnectionPolicy policy;
+    private final int maxInMemoryBodySize;
+    private final ConnectionTracker<Socket> connections;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final BooleanSupplier running;
+    private final String client;
+    private final Http2FrameWriter writer;
+    private final HpackDecoder decoder = new HpackDecoder(Http2Codec.DEFAULT_HEADER_TABLE_SIZE);
+    private final byte[] frameHeader = new byte[Http2Codec.FRAME_HEADER_SIZE];
+    private final byte[] payload = new byte[Http2Codec.DEFAULT_MAX_FRAME_SIZE];
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream(1_024);
+    // streams with a request still coming in or a response still going out
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    // guards active, draining and goingAway, the busy and idle marks have to follow the count in order
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private int active;
+    // announced that the connection is closing, streams already on their way are still taken
+    private boolean draining;
+    // no new streams are taken
+    private boolean goingAway;
+    private int served;
+    // written by the reader thread only
+    private volatile int lastStreamId;
+    private int continuationStream;
+    private boolean continuationEndStream;
+    private int connectionUnacknowledged;
+
+    private static final class Stream {
+        private final int id;
+        // what the client may still send before we open the window again
+        private final AtomicInteger receiveWindow = new AtomicInteger(STREAM_WINDOW_SIZE);
+        private String method;
+        private String url;
+        private HttpHeaders headers;
+        private long contentLength = -1;
+        private ByteArrayOutputStream body;
+        private PipedRequestBody pipe;
+        private long received;
+        private int unacknowledged;
+        private boolean dispatched;
+        private volatile boolean remoteClosed;
+        private volatile boolean reset;
+        // the response of an async handler, cancelled with the stream
+        private volatile CompletableFuture<HttpResponse> pending;
+
+        private Stream(int id) {
+            this.id = id;
+        }
+    }
+
+    Http2Connection(Socket socket, InputStream in, HttpRequestHandler handler, AsyncDispatcher asyncDispatcher, ConcurrencyLimiter limiter,
+                    ConnectionPolicy policy, int maxInMemoryBodySize, ConnectionTracker<Socket> connections, ServerMetrics metrics,
+                    AccessLog accessLog, BooleanSupplier running) throws IOException {
+        this.socket = socket;
+        this.in = in;
+        this.handler = handler;
+        this.asyncDispatcher = asyncDispatcher;
+        this.limiter = limiter;
+        this.policy = policy;
+        this.maxInMemoryBodySize = maxInMemoryBodySize;
+        this.connections = connections;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.running = running;
+        this.client = socket.getInetAddress().getHostAddress();
+        this.writer = new Http2FrameWriter(socket.getOutputStream(), metrics);
+    }
+
+    // returns once the connection is done with, the caller closes the socket. upgrade is the HTTP/1.1 request that
+    // asked for h2c, it becomes stream 1 and is answered over HTTP/2, null when the client started with the preface.
+    void serve(HttpRequest upgrade, byte[] upgradeSettings) throws IOException {
+        try {
+            writer.writeSettings(Http2Codec.SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS,
+                    Http2Codec.SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+            writer.writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - Http2Codec.DEFAULT_WINDOW_SIZE);
+            if(upgrade != null) {
+                applySettings(upgradeSettings, 0, upgradeSettings.length);
+                var stream = new Stream(1);
+                stream.remoteClosed = true;
+                lastStreamId = 1;
+                if(!open(stream)) return;
+                dispatch(stream, upgrade);
+            }
+            socket.setSoTimeout(ConnectionPolicy.millis(policy.idleTimeout()));
+            if(!readPreface()) return;
+            var first = true;
+            while(readFrame()) {
+                var type = frameHeader[3] & 0xff;
+                if(first && type != Http2Codec.SETTINGS) {
+                    throw Http2Exception.connectionError(Http2Codec.PROTOCOL_ERROR, "Connection preface must end with SETTINGS");
+                }
+                first = false;
+                try {
+                    handleFrame(type);
+                }
+                catch (Http2Exception e) {
+                    if(e.streamId() == 0) throw e;
+                    resetStream(e.streamId(), e.errorCode());
+                }
+                if(isDone()) return;
+            }
+        }
+        catch (Http2Exception e) {
+            writer.writeGoAway(lastStreamId, e.errorCode());
+        }
+        finally {
+            writer.close();
+            for(var stream : streams.values()) {
+                if(stream.pipe != null) stream.pipe.fail(PipedRequestBody.connectionClosed());
+                var pending = stream.pending;
+                if(pending != null) pending.cancel(true);
+            }
+        }
+    }
+
+    private boolean readPreface() throws IOException {
+        var preface = new byte[Http2Codec.PREFACE.length];
+        if(!readFully(preface, preface.length, true)) return false;
+        if(!Arrays.equals(preface, Http2Codec.PREFACE)) {
+            throw Http2Exception.connectionError(Http2Codec.PROTOCOL_ERROR, "Invalid connection preface");
+        }
+        return true;
+    }
+
+    // false once the client closed the connection or went quiet for longer than the idle timeout with nothing open
+    private boolean readFrame() throws IOException {
+        if(!readFully(frameHeader, frameHeader.length, true)) return false;
+        var length = (frameHeader[0] & 0xff) << 16 | (frameHeader[1] & 0xff) << 8 | (frameHeader[2] & 0xff);
+        if(length > payload.length) {
+            throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "Frame of %d bytes is larger than %d".formatted(length, payload.length));
+        }
+        return readFully(payload, length, false);
+    }
+
+    private boolean readFully(byte[] target, int length, boolean frameStart) throws IOException {
+        var read = 0;
+        while(read < length) {
+            int n;
+            try {
+                n = in.read(target, read, length - read);
+            }
+            catch (SocketTimeoutException e) {
+                if(frameStart && read == 0 && activeStreams() > 0) continue; // quiet while handlers work is fine
+                metrics.timeout();
+                if(frameStart && read == 0 && !isDone()) writer.writeGoAway(lastStreamId, Http2Codec.NO_ERROR);
+                return false;
+            }
+            if(n < 0) return false;
+            read += n;
+        }
+        return true;
+    }
+
+    private void handleFrame(int type) throws IOException {
+        var length = (frameHeader[0] & 0xff) << 16 | (frameHeader[1] & 0xff) << 8 | (frameHeader[2] & 0xff);
+        var flags = frameHeader[4] & 0xff;
+        var streamId = Http2Codec.readInt(frameHeader, 5) & 0x7fffffff;
+        if(continuationStream != 0 && (type != Http2Codec.CONTINUATION || streamId != continuationStream)) {
+            throw Http2Exception.connectionError(Http2Codec.PROTOCOL_ERROR, "Expected CONTINUATION of stream %d".formatted(continuationStream));
+        }
+        switch (type) {
+            case Http2Codec.DATA -> onData(streamId, flags, length);
+            case Http2Codec.HEADERS -> onHeaders(streamId, flags, length);
+            case Http2Codec.CONTINUATION -> onContinuation(streamId, flags, length);
+            case Http2Codec.SETTINGS -> onSettings(streamId, flags, length);
+            case Http2Codec.PING -> onPing(streamId, flags, length);
+            case Http2Codec.WINDOW_UPDATE -> onWindowUpdate(streamId, length);
+            case Http2Codec.RST_STREAM -> onRstStream(streamId, length);
+            case Http2Codec.GOAWAY -> onGoAway(streamId);
+            case Http2Codec.PRIORITY -> {
+                // deprecated by RFC 9113, streams are answered as their handlers finish
+                if(streamId == 0) throw protocolError("PRIORITY on stream 0");
+                if(length != 5) throw Http2Exception.streamError(streamId, Http2Codec.FRAME_SIZE_ERROR, "PRIORITY must be 5 bytes");
+            }
+            case Http2Codec.PUSH_PROMISE -> throw protocolError("Clients must not send PUSH_PROMISE");
+            default -> {
+                // unknown frame types are ignored, section 5.5
+            }
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        if(streamId == 0 || streamId % 2 == 0) throw protocolError("HEADERS on invalid stream %d".formatted(streamId));
+        var start = 0;
+        var end = length;
+        if((flags & Http2Codec.FLAG_PADDED) != 0) {
+            if(length < 1) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "HEADERS too short for its padding");
+            start = 1;
+            end -= payload[0] & 0xff;
+        }
+        if((flags & Http2Codec.FLAG_PRIORITY) != 0) start += 5;
+        if(end < start) throw protocolError("HEADERS padding is longer than the frame");
+        headerBlock.reset();
+        appendHeaderBlock(start, end - start);
+        var endStream = (flags & Http2Codec.FLAG_END_STREAM) != 0;
+        if((flags & Http2Codec.FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId, endStream);
+        }
+        else {
+            continuationStream = streamId;
+            continuationEndStream = endStream;
+        }
+    }
+
+    private void onContinuation(int streamId, int flags, int length) throws IOException {
+        if(continuationStream == 0) throw protocolError("CONTINUATION without HEADERS");
+        appendHeaderBlock(0, length);
+        if((flags & Http2Codec.FLAG_END_HEADERS) != 0) {
+            continuationStream = 0;
+            onHeaderBlock(streamId, continuationEndStream);
+        }
+    }
+
+    private void appendHeaderBlock(int offset, int length) {
+        if(headerBlock.size() + length > 2 * MAX_HEADER_LIST_SIZE) {
+            throw protocolError("Header block is larger than %d bytes".formatted(2 * MAX_HEADER_LIST_SIZE));
+        }
+        headerBlock.write(payload, offset, length);
+    }
+
+    // the block is decoded before anything else happens, even for a stream about to be refused, to keep the
+    // HPACK tables of both sides in step
+    private void onHeaderBlock(int streamId, boolean endStream) throws IOException {
+        var fields = new ArrayList<String[]>();
+        var listSize = new int[1];
+        var block = headerBlock.toByteArray();
+        decoder.decode(block, 0, block.length, (name, value) -> {
+            listSize[0] += name.length() + value.length() + HpackTable.ENTRY_OVERHEAD;
+            fields.add(new String[]{name, value});
+        });
+        var stream = streams.get(streamId);
+        if(stream != null) { // trailers, their fields are dropped like chunked trailers are
+            if(stream.reset) return;
+            if(stream.remoteClosed) throw Http2Exception.streamError(streamId, Http2Codec.STREAM_CLOSED, "HEADERS after END_STREAM");
+            if(!endStream) throw Http2Exception.streamError(streamId, Http2Codec.PROTOCOL_ERROR, "Trailers without END_STREAM");
+            endOfRequest(stream);
+            return;
+        }
+        if(streamId <= lastStreamId) {
+            throw Http2Exception.connectionError(Http2Codec.STREAM_CLOSED, "HEADERS on closed stream %d".formatted(streamId));
+        }
+        lastStreamId = streamId;
+        stream = new Stream(streamId);
+        stream.remoteClosed = endStream;
+        if(!admit(streamId)) return;
+        if(!open(stream)) return;
+        if(listSize[0] > MAX_HEADER_LIST_SIZE) {
+            respondEarly(stream, 431);
+            return;
+        }
+        readRequestHead(stream, fields);
+        if(endStream) {
+            endOfRequest(stream);
+        }
+        else if(handler.acceptsStreamingBody() && (stream.contentLength < 0 || stream.contentLength > maxInMemoryBodySize)) {
+            stream.pipe = new PipedRequestBody(Integer.MAX_VALUE, () -> {}); // the stream window bounds what it holds
+            dispatch(stream, new HttpRequest(stream.method, stream.url, stream.headers, new StreamBody(stream, stream.pipe)));
+        }
+        else if(stream.contentLength > maxInMemoryBodySize) {
+            respondEarly(stream, 413);
+        }
+        else {
+            stream.body = new ByteArrayOutputStream(stream.contentLength >= 0 ? (int) stream.contentLength : 1_024);
+        }
+    }
+
+    // refused streams can be retried on another connection by the client, nothing of them was processed
+    private boolean admit(int streamId) throws IOException {
+        stateLock.lock();
+        try {
+            if(goingAway || active >= MAX_CONCURRENT_STREAMS) {
+                writer.writeRstStream(streamId, Http2Codec.REFUSED_STREAM);
+                return false;
+            }
+            if(!draining && (!running.getAsBoolean() || ++served >= policy.maxRequestsPerConnection())) drain();
+            return true;
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    // graceful shutdown, section 6.8: a GOAWAY that still admits every stream tells the client to open no more,
+    // the final one follows a round trip later, once the client acknowledged the PING sent along. Streams the
+    // client sent in the meantime are answered instead of refused.
+    private void drain() throws IOException {
+        draining = true;
+        writer.writeGoAway(Integer.MAX_VALUE, Http2Codec.NO_ERROR);
+        writer.writePing(GOAWAY_PING);
+    }
+
+    private void goAway() throws IOException {
+        stateLock.lock();
+        try {
+            if(goingAway) return;
+            goingAway = true;
+            writer.writeGoAway(lastStreamId, Http2Codec.NO_ERROR);
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    // false when stop() or eviction claimed the connection while it was idle
+    private boolean open(Stream stream) throws IOException {
+        stateLock.lock();
+        try {
+            if(active == 0 && !connections.markBusy(socket)) {
+                writer.writeRstStream(stream.id, Http2Codec.REFUSED_STREAM);
+                return false;
+            }
+            active++;
+            streams.put(stream.id, stream);
+            writer.openStream(stream.id);
+            return true;
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void close(Stream stream) {
+        if(streams.remove(stream.id, stream)) {
+            writer.closeStream(stream.id);
+            stateLock.lock();
+            try {
+                if(--active > 0) return;
+                connections.markIdle(socket);
+                if(!draining && !running.getAsBoolean()) drain();
+                if(goingAway) {
+                    // the client sees the end of the stream after the last response and closes its side
+                    socket.shutdownOutput();
+                }
+            }
+            catch (IOException ignored) {
+                // the connection is gone already
+            }
+            finally {
+                stateLock.unlock();
+            }
+        }
+    }
+
+    private int activeStreams() {
+        stateLock.lock();
+        try {
+            return active;
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    private boolean isDone() {
+        stateLock.lock();
+        try {
+            return goingAway && active == 0;
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    // pseudo-headers first and only the four a request may have, lower-case names and none of the HTTP/1.1
+    // connection headers, section 8.3. Anything else is a malformed request and resets the stream.
+    private void readRequestHead(Stream stream, List<String[]> fields) {
+        String scheme = null;
+        String authority = null;
+        var headers = new HttpHeaders(fields.size() + 1);
+        StringBuilder cookies = null;
+        var regularSeen = false;
+        for(var field : fields) {
+            var name = field[0];
+            var value = field[1];
+            if(name.startsWith(":")) {
+                if(regularSeen) throw malformed(stream, "Pseudo-header %s after a regular header".formatted(name));
+                switch (name) {
+                    case ":method" -> stream.method = requireFirst(stream, stream.method, name, value);
+                    case ":path" -> stream.url = requireFirst(stream, stream.url, name, value);
+                    case ":scheme" -> scheme = requireFirst(stream, scheme, name, value);
+                    case ":authority" -> authority = requireFirst(stream, authority, name, value);
+                    default -> throw malformed(stream, "Unknown pseudo-header %s".formatted(name));
+                }
+                continue;
+            }
+            regularSeen = true;
+            if(!isLowerCase(name)) throw malformed(stream, "Upper case header name %s".formatted(name));
+            if(CONNECTION_HEADERS.contains(name) || name.equals("te") && !value.equals("trailers")) {
+                throw malformed(stream, "Connection-specific header %s".formatted(name));
+            }
+            if(name.equals(HttpHeaderNames.COOKIE)) { // split into several fields for better compression, section 8.2.3
+                cookies = cookies == null ? new StringBuilder(value) : cookies.append("; ").append(value);
+                continue;
+            }
+            headers.add(name, value);
+        }
+        if(stream.method == null || scheme == null || stream.url == null || stream.url.isEmpty()) {
+            throw malformed(stream, "Missing :method, :scheme or :path");
+        }
+        if(cookies != null) headers.add(HttpHeaderNames.COOKIE, cookies.toString());
+        if(authority != null && !headers.contains(HttpHeaderNames.HOST)) headers.add(HttpHeaderNames.HOST, authority);
+        var contentLength = headers.indexOf(HttpHeaderNames.CONTENT_LENGTH, 0);
+        if(contentLength >= 0) {
+            try {
+                stream.contentLength = Long.parseLong(headers.value(contentLength));
+            }
+            catch (NumberFormatException e) {
+                throw malformed(stream, "Invalid content-length");
+            }
+            if(headers.indexOf(HttpHeaderNames.CONTENT_LENGTH, contentLength + 1) >= 0 || stream.contentLength < 0) {
+                throw malformed(stream, "Invalid content-length");
+            }
+        }
+        stream.headers = headers;
+    }
+
+    private static String requireFirst(Stream stream, String current, String name, String value) {
+        if(current != null) throw malformed(stream, "Repeated %s".formatted(name));
+        return value;
+    }
+
+    private static boolean isLowerCase(String name) {
+        for(int i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            if(c >= 'A' && c <= 'Z') return false;
+        }
+        return true;
+    }
+
+    private static Http2Exception malformed(Stream stream, String message) {
+        return Http2Exception.streamError(stream.id, Http2Codec.PROTOCOL_ERROR, message);
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        if(streamId == 0) throw protocolError("DATA on stream 0");
+        var start = 0;
+        var end = length;
+        if((flags & Http2Codec.FLAG_PADDED) != 0) {
+            if(length < 1) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "DATA too short for its padding");
+            start = 1;
+            end -= payload[0] & 0xff;
+            if(end < start) throw protocolError("DATA padding is longer than the frame");
+        }
+        // the whole frame counts against the windows, padding included
+        consumeConnectionWindow(length);
+        var stream = streams.get(streamId);
+        if(stream == null) {
+            if(streamId > lastStreamId) throw protocolError("DATA on idle stream %d".formatted(streamId));
+            return; // a stream we already answered or reset, the client may not know yet
+        }
+        if(stream.remoteClosed) {
+            if(stream.reset) return;
+            throw Http2Exception.streamError(streamId, Http2Codec.STREAM_CLOSED, "DATA after END_STREAM");
+        }
+        if(stream.receiveWindow.addAndGet(-length) < 0) {
+            throw Http2Exception.streamError(streamId, Http2Codec.FLOW_CONTROL_ERROR, "DATA beyond the stream window");
+        }
+        var endStream = (flags & Http2Codec.FLAG_END_STREAM) != 0;
+        var dataLength = end - start;
+        stream.received += dataLength;
+        if(stream.pipe != null) {
+            if(dataLength > 0) stream.pipe.offer(Arrays.copyOfRange(payload, start, end));
+            stream.unacknowledged += length - dataLength; // padding never reaches the handler, give it back right away
+        }
+        else if(stream.body != null) {
+            if(stream.received > maxInMemoryBodySize) {
+                respondEarly(stream, 413);
+                return;
+            }
+            stream.body.write(payload, start, dataLength);
+            stream.unacknowledged += length;
+        }
+        if(endStream) {
+            endOfRequest(stream);
+        }
+        else if(stream.unacknowledged >= STREAM_WINDOW_SIZE / 2) {
+            openStreamWindow(stream, stream.unacknowledged);
+            stream.unacknowledged = 0;
+        }
+    }
+
+    private void consumeConnectionWindow(int length) throws IOException {
+        connectionUnacknowledged += length;
+        if(connectionUnacknowledged > CONNECTION_WINDOW_SIZE) {
+            throw Http2Exception.connectionError(Http2Codec.FLOW_CONTROL_ERROR, "DATA beyond the connection window");
+        }
+        if(connectionUnacknowledged >= CONNECTION_WINDOW_SIZE / 2) {
+            writer.writeWindowUpdate(0, connectionUnacknowledged);
+            connectionUnacknowledged = 0;
+        }
+    }
+
+    private void openStreamWindow(Stream stream, int increment) throws IOException {
+        if(increment <= 0 || stream.reset) return;
+        stream.receiveWindow.addAndGet(increment);
+        writer.writeWindowUpdate(stream.id, increment);
+    }
+
+    private void endOfRequest(Stream stream) {
+        stream.remoteClosed = true;
+        if(stream.contentLength >= 0 && stream.received != stream.contentLength) {
+            throw malformed(stream, "Body of %d bytes doesn't match content-length %d".formatted(stream.received, stream.contentLength));
+        }
+        if(stream.pipe != null) {
+            stream.pipe.finish();
+        }
+        else {
+            var body = stream.body == null ? EMPTY : stream.body.toByteArray();
+            stream.body = null;
+            dispatch(stream, new HttpRequest(stream.method, stream.url, stream.headers, body));
+        }
+    }
+
+    private void onSettings(int streamId, int flags, int length) throws IOException {
+        if(streamId != 0) throw protocolError("SETTINGS on stream %d".formatted(streamId));
+        if((flags & Http2Codec.FLAG_ACK) != 0) {
+            if(length != 0) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "SETTINGS ack with a payload");
+            return;
+        }
+        if(length % 6 != 0) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "SETTINGS length %d isn't a multiple of 6".formatted(length));
+        applySettings(payload, 0, length);
+        writer.writeSettingsAck();
+    }
+
+    private void applySettings(byte[] source, int offset, int length) {
+        for(int i = offset; i < offset + length; i += 6) {
+            var id = (source[i] & 0xff) << 8 | (source[i + 1] & 0xff);
+            var value = Http2Codec.readInt(source, i + 2);
+            switch (id) {
+                case Http2Codec.SETTINGS_ENABLE_PUSH -> {
+                    if(value != 0 && value != 1) throw protocolError("SETTINGS_ENABLE_PUSH must be 0 or 1");
+                }
+                case Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    if(value < 0) throw Http2Exception.connectionError(Http2Codec.FLOW_CONTROL_ERROR, "SETTINGS_INITIAL_WINDOW_SIZE too large");
+                }
+                case Http2Codec.SETTINGS_MAX_FRAME_SIZE -> {
+                    if(value < Http2Codec.DEFAULT_MAX_FRAME_SIZE || value > Http2Codec.MAX_MAX_FRAME_SIZE) {
+                        throw protocolError("SETTINGS_MAX_FRAME_SIZE %d out of range".formatted(value));
+                    }
+                }
+                default -> {
+                }
+            }
+            writer.applySetting(id, value);
+        }
+    }
+
+    private void onPing(int streamId, int flags, int length) throws IOException {
+        if(streamId != 0) throw protocolError("PING on stream %d".formatted(streamId));
+        if(length != 8) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "PING must be 8 bytes");
+        if((flags & Http2Codec.FLAG_ACK) == 0) writer.writePingAck(Arrays.copyOf(payload, 8));
+        else if(Arrays.equals(payload, 0, 8, GOAWAY_PING, 0, 8)) goAway();
+    }
+
+    private void onWindowUpdate(int streamId, int length) {
+        if(length != 4) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "WINDOW_UPDATE must be 4 bytes");
+        var increment = Http2Codec.readInt(payload, 0) & 0x7fffffff;
+        if(increment == 0) {
+            if(streamId == 0) throw protocolError("WINDOW_UPDATE of 0 on the connection");
+            throw Http2Exception.streamError(streamId, Http2Codec.PROTOCOL_ERROR, "WINDOW_UPDATE of 0");
+        }
+        if(streamId > lastStreamId) throw protocolError("WINDOW_UPDATE on idle stream %d".formatted(streamId));
+        writer.windowUpdate(streamId, increment);
+    }
+
+    private void onRstStream(int streamId, int length) {
+        if(streamId == 0 || streamId > lastStreamId) throw protocolError("RST_STREAM on idle stream %d".formatted(streamId));
+        if(length != 4) throw Http2Exception.connectionError(Http2Codec.FRAME_SIZE_ERROR, "RST_STREAM must be 4 bytes");
+        var stream = streams.get(streamId);
+        if(stream == null) return;
+        cancel(stream);
+        if(!stream.dispatched) close(stream); // nobody else will
+    }
+
+    private void onGoAway(int streamId) {
+        if(streamId != 0) throw protocolError("GOAWAY on stream %d".formatted(streamId));
+        stateLock.lock();
+        try {
+            goingAway = true; // the client opens no more streams, those open still get their responses
+        }
+        finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void cancel(Stream stream) {
+        stream.reset = true;
+        stream.remoteClosed = true;
+        writer.closeStream(stream.id);
+        if(stream.pipe != null) stream.pipe.fail(new IOException("Stream %d was reset by the client".formatted(stream.id)));
+        var pending = stream.pending;
+        if(pending != null) pending.cancel(true);
+    }
+
+    // a stream error found while reading, the stream ends here whatever its handler is doing
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        var stream = streams.get(streamId);
+        if(stream != null) {
+            cancel(stream);
+            if(!stream.dispatched) close(stream);
+        }
+        writer.writeRstStream(streamId, errorCode);
+    }
+
+    // an error response before the request is complete, the client stops sending its body once it sees the reset
+    private void respondEarly(Stream stream, int status) throws IOException {
+        var response = new HttpResponse(status, new HttpHeaders(1).add("Content-Length", "0"), EMPTY);
+        writer.writeHeaders(stream.id, response, true);
+        metrics.response(status);
+        if(!stream.remoteClosed) writer.writeRstStream(stream.id, Http2Codec.NO_ERROR);
+        stream.body = null;
+        cancel(stream);
+        close(stream);
+    }
+
+    private void dispatch(Stream stream, HttpRequest request) {
+        stream.dispatched = true;
+        Thread.startVirtualThread(() -> answer(stream, request));
+    }
+
+    private void answer(Stream stream, HttpRequest request) {
+        var started = System.nanoTime();
+        var headersSent = false;
+        try {
+            var res = limiter != null && !limiter.acquire(request) ? limiter.rejection() : admitted(stream, request);
+            var handled = System.nanoTime();
+            try (var body = res.streamingBody()) {
+                var bytes = res.body() == null ? EMPTY : res.body();
+                var noContent = request.method().equals("HEAD") || body == null && bytes.length == 0;
+                writer.writeHeaders(stream.id, res, noContent);
+                headersSent = true;
+                if(!noContent && body != null) {
+                    writeBody(stream.id, body);
+                    writer.writeData(stream.id, EMPTY, 0, 0, true);
+                }
+                else if(!noContent) {
+                    writer.writeData(stream.id, bytes, 0, bytes.length, true);
+                }
+            }
+            var written = System.nanoTime();
+            metrics.handlerLatency.record(handled - started);
+            metrics.writeLatency.record(written - handled);
+            metrics.response(res.responseCode());
+            if(accessLog != null) {
+                accessLog.log(client, request.method(), request.url(), PROTOCOL, res.responseCode(), AccessLog.bodyLength(res), written - started);
+            }
+            if(!stream.remoteClosed) writer.writeRstStream(stream.id, Http2Codec.NO_ERROR); // answered without reading the whole body
+        }
+        catch (Http2Exception | CancellationException e) {
+            // reset by the client while we answered, nothing left to tell it
+        }
+        catch (IOException e) {
+            // the connection is gone, the reader cleans up
+        }
+        catch (Exception e) {
+            System.out.println("Problem while handling stream %d".formatted(stream.id));
+            e.printStackTrace();
+            try {
+                if(headersSent) writer.writeRstStream(stream.id, Http2Codec.INTERNAL_ERROR);
+                else writer.writeHeaders(stream.id, HttpCodec.errorResponse(500), true);
+                metrics.response(500);
+            }
+            catch (IOException | Http2Exception ignored) {
+
+            }
+        }
+        finally {
+            close(stream);
+        }
+    }
+
+    private HttpResponse admitted(Stream stream, HttpRequest request) {
+        var started = System.nanoTime();
+        try {
+            return handler instanceof AsyncHttpRequestHandler async ? awaitResponse(stream, async, request) : handler.handle(request);
+        }
+        finally {
+            if(limiter != null) limiter.release(System.nanoTime() - started);
+        }
+    }
+
+    // the stream's virtual thread is all that waits, a reset or the connection going away cancels the handler's stage
+    private HttpResponse awaitResponse(Stream stream, AsyncHttpRequestHandler async, HttpRequest request) {
+        var response = asyncDispatcher.dispatch(async, request);
+        stream.pending = response;
+        if(stream.reset) response.cancel(true); // reset before we got here
+        return response.join();
+    }
+
+    // streaming bodies go out as DATA frames, ChunkedBody without its HTTP/1.1 chunk framing
+    private void writeBody(int streamId, ResponseBody body) throws IOException {
+        var channel = writer.dataChannel(streamId);
+        if(body instanceof ChunkedBody chunked) {
+            var out = new BufferedOutputStream(Channels.newOutputStream(channel), writer.maxFrameSize());
+            chunked.writeContentTo(out);
+            out.flush();
+            return;
+        }
+        while(!body.writeTo(channel)) {
+            // blocking, only returns false on a partial write
+        }
+    }
+
+    private static Http2Exception protocolError(String message) {
+        return Http2Exception.connectionError(Http2Codec.PROTOCOL_ERROR, message);
+    }
+
+    // a streamed request body that opens the stream window as the handler consumes it, so a slow handler slows the
+    // client down instead of piling up its body in memory
+    private final class StreamBody extends FilterInputStream {
+        private final Stream stream;
+        private int consumed;
+
+        private StreamBody(Stream stream, InputStream pipe) {
+            super(pipe);
+            this.stream = stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var n = super.read(b, off, len);
+            if(n > 0) {
+                consumed += n;
+                if(consumed >= STREAM_WINDOW_SIZE / 2) {
+                    if(!stream.remoteClosed) openStreamWindow(stream, consumed);
+                    consumed = 0;
+                }
+            }
+            return n;
+        }
+    }
+}
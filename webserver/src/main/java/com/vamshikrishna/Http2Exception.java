@@ -0,0 +1,31 @@
+package com.vamshikrishna;
+
+// an HTTP/2 protocol violation. Stream errors end only that stream with a RST_STREAM, connection errors (streamId 0)
+// end the whole connection with a GOAWAY.
+final class Http2Exception extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int errorCode;
+    private final int streamId;
+
+    private Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    static Http2Exception connectionError(int errorCode, String message) {
+        return new Http2Exception(errorCode, 0, message);
+    }
+
+    static Http2Exception streamError(int streamId, int errorCode, String message) {
+        return new Http2Exception(errorCode, streamId, message);
+    }
+
+    int errorCode() {
+        return errorCode;
+    }
+
+    int streamId() {
+        return streamId;
+    }
+}
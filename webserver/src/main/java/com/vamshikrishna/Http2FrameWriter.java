@@ -0,0 +1,337 @@
+package com.vamshikrishna;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// write side of an HTTP/2 connection, shared by the reader and every stream answering a request. Frames go out
+// whole under one lock, which also keeps HPACK blocks in the order they were encoded. Whoever releases the lock
+// last flushes what is buffered, so frames from streams finishing together leave in one write and nothing is left
+// behind when the last holder was the reader updating a window.
+// DATA is flow controlled, RFC 9113 section 5.2: a stream waits until both its own window and the connection's
+// have room, WINDOW_UPDATE frames from the client open them again.
+final class Http2FrameWriter {
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    // hop-by-hop headers that mean nothing on an HTTP/2 connection and make clients treat the response as malformed
+    private static final Set<String> CONNECTION_HEADERS = Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+    private final OutputStream out;
+    private final ServerMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition windowOpened = lock.newCondition();
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream(512);
+    private final byte[] frameHeader = new byte[Http2Codec.FRAME_HEADER_SIZE];
+    // send windows of the streams still answering, guarded by lock
+    private final Map<Integer, int[]> streamWindows = new HashMap<>();
+    private int connectionWindow = Http2Codec.DEFAULT_WINDOW_SIZE;
+    private int initialWindowSize = Http2Codec.DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = Http2Codec.DEFAULT_MAX_FRAME_SIZE;
+    private boolean closed;
+    // frames buffered but not flushed yet, guarded by lock
+    private boolean dirty;
+
+    Http2FrameWriter(OutputStream out, ServerMetrics metrics) {
+        this.out = new BufferedOutputStream(out, Http2Codec.FRAME_HEADER_SIZE + Http2Codec.DEFAULT_MAX_FRAME_SIZE);
+        this.metrics = metrics;
+    }
+
+    // one setting from the client, in the order they arrived
+    void applySetting(int id, int value) {
+        lock.lock();
+        try {
+            switch (id) {
+                case Http2Codec.SETTINGS_HEADER_TABLE_SIZE -> encoder.setMaxTableSize(value);
+                case Http2Codec.SETTINGS_MAX_FRAME_SIZE -> maxFrameSize = value;
+                case Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE -> {
+                    // applies to the windows of open streams too, by the difference, section 6.9.2
+                    var delta = value - initialWindowSize;
+                    initialWindowSize = value;
+                    for(var window : streamWindows.values()) {
+                        if((long) window[0] + delta > MAX_WINDOW_SIZE) {
+                            throw Http2Exception.connectionError(Http2Codec.FLOW_CONTROL_ERROR, "Initial window size overflows a stream window");
+                        }
+                        window[0] += delta;
+                    }
+                    if(delta > 0) windowOpened.signalAll();
+                }
+                default -> {
+                }
+            }
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    void openStream(int streamId) {
+        lock.lock();
+        try {
+            streamWindows.put(streamId, new int[]{initialWindowSize});
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // the stream is done or was reset, a writer still waiting on its window gives up
+    void closeStream(int streamId) {
+        lock.lock();
+        try {
+            if(streamWindows.remove(streamId) != null) windowOpened.signalAll();
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // a WINDOW_UPDATE from the client, stream 0 is the connection
+    void windowUpdate(int streamId, int increment) {
+        lock.lock();
+        try {
+            if(streamId == 0) {
+                if((long) connectionWindow + increment > MAX_WINDOW_SIZE) {
+                    throw Http2Exception.connectionError(Http2Codec.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                connectionWindow += increment;
+            }
+            else {
+                var window = streamWindows.get(streamId);
+                if(window == null) return; // finished already, updates may still be on their way
+                if((long) window[0] + increment > MAX_WINDOW_SIZE) {
+                    throw Http2Exception.streamError(streamId, Http2Codec.FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+                window[0] += increment;
+            }
+            windowOpened.signalAll();
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // SETTINGS as id and value pairs
+    void writeSettings(int... settings) throws IOException {
+        var payload = new byte[settings.length / 2 * 6];
+        for(int i = 0; i < settings.length; i += 2) {
+            payload[i * 3] = (byte) (settings[i] >>> 8);
+            payload[i * 3 + 1] = (byte) settings[i];
+            Http2Codec.writeInt(payload, i * 3 + 2, settings[i + 1]);
+        }
+        writeControl(Http2Codec.SETTINGS, 0, 0, payload);
+    }
+
+    void writeSettingsAck() throws IOException {
+        writeControl(Http2Codec.SETTINGS, Http2Codec.FLAG_ACK, 0, new byte[0]);
+    }
+
+    void writePing(byte[] payload) throws IOException {
+        writeControl(Http2Codec.PING, 0, 0, payload);
+    }
+
+    void writePingAck(byte[] payload) throws IOException {
+        writeControl(Http2Codec.PING, Http2Codec.FLAG_ACK, 0, payload);
+    }
+
+    void writeGoAway(int lastStreamId, int errorCode) throws IOException {
+        var payload = new byte[8];
+        Http2Codec.writeInt(payload, 0, lastStreamId);
+        Http2Codec.writeInt(payload, 4, errorCode);
+        writeControl(Http2Codec.GOAWAY, 0, 0, payload);
+    }
+
+    void writeRstStream(int streamId, int errorCode) throws IOException {
+        closeStream(streamId);
+        var payload = new byte[4];
+        Http2Codec.writeInt(payload, 0, errorCode);
+        writeControl(Http2Codec.RST_STREAM, 0, streamId, payload);
+    }
+
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        var payload = new byte[4];
+        Http2Codec.writeInt(payload, 0, increment);
+        writeControl(Http2Codec.WINDOW_UPDATE, 0, streamId, payload);
+    }
+
+    // the response head as HEADERS, followed by CONTINUATION frames when the block is larger than a frame
+    void writeHeaders(int streamId, HttpResponse res, boolean endStream) throws IOException {
+        lock.lock();
+        try {
+            requireOpen(streamId);
+            headerBlock.reset();
+            encoder.beginBlock(headerBlock);
+            encoder.encode(":status", String.valueOf(res.responseCode()), headerBlock);
+            var hasDate = false;
+            var fields = res.headerFields();
+            for(int i = 0; i < fields.size(); i++) {
+                var name = fields.name(i).toLowerCase(Locale.ROOT);
+                if(CONNECTION_HEADERS.contains(name)) continue;
+                hasDate |= name.equals("date");
+                encoder.encode(name, fields.value(i), headerBlock);
+            }
+            if(!hasDate) encoder.encode("date", ResponseEncoder.date(), headerBlock);
+            var block = headerBlock.toByteArray();
+            var type = Http2Codec.HEADERS;
+            var offset = 0;
+            do {
+                var length = Math.min(maxFrameSize, block.length - offset);
+                var last = offset + length == block.length;
+                var flags = (last ? Http2Codec.FLAG_END_HEADERS : 0) | (endStream && type == Http2Codec.HEADERS ? Http2Codec.FLAG_END_STREAM : 0);
+                writeFrame(type, flags, streamId, block, offset, length);
+                offset += length;
+                type = Http2Codec.CONTINUATION;
+            } while(offset < block.length);
+            if(endStream) streamWindows.remove(streamId);
+        }
+        finally {
+            unlockAndFlush();
+        }
+    }
+
+    // as much of the body as the windows allow per frame, blocking until the client opens them again
+    void writeData(int streamId, byte[] data, int offset, int length, boolean endStream) throws IOException {
+        do {
+            lock.lock();
+            try {
+                var window = requireOpen(streamId);
+                while(length > 0 && (connectionWindow <= 0 || window[0] <= 0)) {
+                    flush(); // whatever others left buffered must not wait for our window
+                    windowOpened.await();
+                    window = requireOpen(streamId);
+                }
+                var n = Math.min(length, Math.min(maxFrameSize, Math.min(connectionWindow, window[0])));
+                var last = n == length;
+                writeFrame(Http2Codec.DATA, last && endStream ? Http2Codec.FLAG_END_STREAM : 0, streamId, data, offset, n);
+                connectionWindow -= n;
+                window[0] -= n;
+                offset += n;
+                length -= n;
+                if(last && endStream) streamWindows.remove(streamId);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the flow control window");
+            }
+            finally {
+                unlockAndFlush();
+            }
+        } while(length > 0);
+    }
+
+    int maxFrameSize() {
+        lock.lock();
+        try {
+            return maxFrameSize;
+        }
+        finally {
+            unlock();
+        }
+    }
+
+    // streams still waiting on a window fail, the socket is closed by the owner
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            streamWindows.clear();
+            windowOpened.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // DATA for a streaming body, end of stream is sent separately once the body is done
+    WritableByteChannel dataChannel(int streamId) {
+        return new WritableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                var length = src.remaining();
+                if(length == 0) return 0;
+                if(src.hasArray()) {
+                    writeData(streamId, src.array(), src.arrayOffset() + src.position(), length, false);
+                }
+                else {
+                    var copy = new byte[length];
+                    src.duplicate().get(copy);
+                    writeData(streamId, copy, 0, length, false);
+                }
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    private int[] requireOpen(int streamId) throws IOException {
+        if(closed) throw new IOException("HTTP/2 connection is closed");
+        var window = streamWindows.get(streamId);
+        if(window == null) throw Http2Exception.streamError(streamId, Http2Codec.STREAM_CLOSED, "Stream %d was reset".formatted(streamId));
+        return window;
+    }
+
+    private void writeControl(int type, int flags, int streamId, byte[] payload) throws IOException {
+        lock.lock();
+        try {
+            if(closed) throw new IOException("HTTP/2 connection is closed");
+            writeFrame(type, flags, streamId, payload, 0, payload.length);
+        }
+        finally {
+            unlockAndFlush();
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+        Http2Codec.writeFrameHeader(frameHeader, length, type, flags, streamId);
+        out.write(frameHeader);
+        out.write(payload, offset, length);
+        dirty = true;
+        metrics.bytesOut(frameHeader.length + length);
+    }
+
+    private void flush() throws IOException {
+        dirty = false;
+        out.flush();
+    }
+
+    // a thread still queued for the lock releases it through here as well and flushes then, anyone who queues up
+    // after the check does too
+    private void unlockAndFlush() throws IOException {
+        try {
+            if(dirty && !closed && !lock.hasQueuedThreads()) flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // for the callers that only touch the windows or settings but may be the last to hold the lock
+    private void unlock() {
+        try {
+            unlockAndFlush();
+        }
+        catch (IOException e) {
+            // the socket is broken, the reader and the next write on it fail and tear the connection down
+        }
+    }
+}
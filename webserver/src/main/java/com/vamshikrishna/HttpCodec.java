@@ -0,0 +1,74 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+
+final class HttpCodec {
+    static final String CONNECTION_HEADER_KEEP_ALIVE = "keep-alive";
+    static final String CONNECTION_HEADER_CLOSE = "close";
+    static final String TRANSFER_ENCODING_CHUNKED = "chunked";
+    static final String EXPECT_CONTINUE = "100-continue";
+    static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private HttpCodec() {
+    }
+
+    // HTTP/1.1 connections persist unless the client says close, HTTP/1.0 ones only when it asks for keep-alive.
+    // Connection may be repeated and each value is a token list, so every token of every value counts.
+    static boolean shouldReuseConnection(HttpRequest request) {
+        var head = request.head();
+        if(head == null) {
+            var connection = request.header(HttpHeaderNames.CONNECTION);
+            return connection == null || !connection.equalsIgnoreCase(CONNECTION_HEADER_CLOSE);
+        }
+        var keepAlive = false;
+        for(var index = head.indexOf(HttpHeaderNames.CONNECTION, 0); index >= 0; index = head.indexOf(HttpHeaderNames.CONNECTION, index + 1)) {
+            if(head.hasToken(index, CONNECTION_HEADER_CLOSE)) return false;
+            keepAlive |= head.hasToken(index, CONNECTION_HEADER_KEEP_ALIVE);
+        }
+        return keepAlive || head.isHttp11();
+    }
+
+    // a handler can end the connection by answering with Connection: close itself
+    static boolean shouldReuseConnection(HttpRequest request, HttpResponse response) {
+        if(!shouldReuseConnection(request)) return false;
+        var fields = response.headerFields();
+        for(var index = fields.indexOf(HttpHeaderNames.CONNECTION, 0); index >= 0; index = fields.indexOf(HttpHeaderNames.CONNECTION, index + 1)) {
+            if(fields.value(index).equalsIgnoreCase(CONNECTION_HEADER_CLOSE)) return false;
+        }
+        return true;
+    }
+
+    // what the response has to say about the connection: close when it ends, keep-alive for HTTP/1.0 clients that
+    // would otherwise assume close, and nothing for HTTP/1.1 where persistence is the default
+    static byte[] connectionHeader(HttpRequest request, boolean keepAlive) {
+        if(!keepAlive) return ResponseEncoder.CONNECTION_CLOSE;
+        var head = request.head();
+        return head == null || head.isHttp11() ? null : ResponseEncoder.CONNECTION_KEEP_ALIVE;
+    }
+
+    // null when the request has no body. Transfer-Encoding together with Content-Length is how requests get
+    // smuggled past proxies, so that combination is refused instead of picking one
+    static BodyDecoder bodyDecoder(RequestHead head) {
+        var transferEncoding = head.indexOf(HttpHeaderNames.TRANSFER_ENCODING, 0);
+        if(transferEncoding >= 0) {
+            if(head.indexOf(HttpHeaderNames.CONTENT_LENGTH, 0) >= 0) {
+                throw new HttpParseException(400, "Both transfer-encoding and content-length are present");
+            }
+            if(!head.valueEqualsIgnoreCase(transferEncoding, TRANSFER_ENCODING_CHUNKED)) {
+                throw new HttpParseException(501, "Unsupported transfer-encoding");
+            }
+            return BodyDecoder.chunked();
+        }
+        var contentLength = head.contentLength();
+        return contentLength > 0 ? BodyDecoder.fixedLength(contentLength) : null;
+    }
+
+    static boolean expectsContinue(RequestHead head) {
+        var expect = head.indexOf(HttpHeaderNames.EXPECT, 0);
+        return expect >= 0 && head.isHttp11() && head.valueEqualsIgnoreCase(expect, EXPECT_CONTINUE);
+    }
+
+    static HttpResponse errorResponse(int responseCode) {
+        return new HttpResponse(responseCode, new HttpHeaders(2).add("Content-Length", "0").add("Connection", "close"), new byte[0]);
+    }
+}
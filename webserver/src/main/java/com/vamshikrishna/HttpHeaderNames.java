@@ -0,0 +1,80 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+
+// lower-case constants for the header names we see on almost every request, the parser maps raw bytes onto these
+// so looking them up or materializing them never allocates
+final class HttpHeaderNames {
+    static final String HOST = "host";
+    static final String CONNECTION = "connection";
+    static final String CONTENT_LENGTH = "content-length";
+    static final String CONTENT_TYPE = "content-type";
+    static final String TRANSFER_ENCODING = "transfer-encoding";
+    static final String ACCEPT = "accept";
+    static final String ACCEPT_ENCODING = "accept-encoding";
+    static final String ACCEPT_LANGUAGE = "accept-language";
+    static final String USER_AGENT = "user-agent";
+    static final String COOKIE = "cookie";
+    static final String AUTHORIZATION = "authorization";
+    static final String CACHE_CONTROL = "cache-control";
+    static final String PRAGMA = "pragma";
+    static final String REFERER = "referer";
+    static final String ORIGIN = "origin";
+    static final String UPGRADE = "upgrade";
+    static final String EXPECT = "expect";
+    static final String IF_NONE_MATCH = "if-none-match";
+    static final String IF_MODIFIED_SINCE = "if-modified-since";
+    static final String RANGE = "range";
+    static final String IF_RANGE = "if-range";
+    static final String X_FORWARDED_FOR = "x-forwarded-for";
+    static final String KEEP_ALIVE = "keep-alive";
+
+    static final int UNKNOWN = -1;
+    private static final String[] NAMES = {
+            HOST, CONNECTION, CONTENT_LENGTH, CONTENT_TYPE, TRANSFER_ENCODING, ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE,
+            USER_AGENT, COOKIE, AUTHORIZATION, CACHE_CONTROL, PRAGMA, REFERER, ORIGIN, UPGRADE, EXPECT, IF_NONE_MATCH,
+            IF_MODIFIED_SINCE, RANGE, IF_RANGE, X_FORWARDED_FOR, KEEP_ALIVE
+    };
+    private static final byte[][] NAME_BYTES = new byte[NAMES.length][];
+
+    static {
+        for(int i = 0; i < NAMES.length; i++) {
+            NAME_BYTES[i] = NAMES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private HttpHeaderNames() {
+    }
+
+    static String name(int id) {
+        return NAMES[id];
+    }
+
+    static int idOf(byte[] source, int start, int end) {
+        var length = end - start;
+        for(int id = 0; id < NAME_BYTES.length; id++) {
+            var name = NAME_BYTES[id];
+            if(name.length == length && equalsIgnoreCase(name, source, start)) return id;
+        }
+        return UNKNOWN;
+    }
+
+    static int idOf(String name) {
+        for(int id = 0; id < NAMES.length; id++) {
+            if(NAMES[id].equalsIgnoreCase(name)) return id;
+        }
+        return UNKNOWN;
+    }
+
+    // the names table is already lower case, so only the source side needs folding
+    private static boolean equalsIgnoreCase(byte[] lowerCase, byte[] source, int start) {
+        for(int i = 0; i < lowerCase.length; i++) {
+            if(toLowerCase(source[start + i]) != lowerCase[i]) return false;
+        }
+        return true;
+    }
+
+    static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
@@ -0,0 +1,241 @@
+package com.vamshikrishna;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// header fields as two parallel arrays in the order they were added, so a dozen headers cost three objects plus
+// their Strings instead of a map node, a list and its array per name. Names keep the case they were added with and
+// are matched ignoring it without allocating, repeated names are simply repeated entries.
+// The fields of a parsed request are read straight off its head until something changes them, a value only becomes
+// a String when it is asked for.
+// asMap() is a read-only view for code that wants a Map, values of a name are grouped under its first spelling.
+// Nothing here is thread-safe: fill it in, hand it over, and copy() it to change what someone else built.
+final class HttpHeaders {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final String[] NONE = new String[0];
+    private RequestHead head;
+    private String[] names;
+    private String[] values;
+    private int size;
+    private Map<String, List<String>> map;
+
+    HttpHeaders() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    HttpHeaders(int capacity) {
+        this.names = new String[Math.max(1, capacity)];
+        this.values = new String[names.length];
+    }
+
+    // lower-case names, same as the head hands them out
+    HttpHeaders(RequestHead head) {
+        this.head = head;
+        this.names = NONE;
+        this.values = NONE;
+    }
+
+    static HttpHeaders of(Map<String, List<String>> headers) {
+        if(headers == null) throw new IllegalArgumentException("headers must not be null");
+        var fields = new HttpHeaders(headers.size());
+        for(var header : headers.entrySet()) {
+            for(var value : header.getValue()) {
+                fields.add(header.getKey(), value);
+            }
+        }
+        return fields;
+    }
+
+    HttpHeaders add(String name, String value) {
+        if(name == null || value == null) {
+            throw new IllegalArgumentException("Header name and value must not be null, got %s: %s".formatted(name, value));
+        }
+        detach();
+        if(size == names.length) {
+            names = Arrays.copyOf(names, Math.max(DEFAULT_CAPACITY, size * 2));
+            values = Arrays.copyOf(values, names.length);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+        return this;
+    }
+
+    // replaces every value the name had
+    HttpHeaders set(String name, String value) {
+        remove(name);
+        return add(name, value);
+    }
+
+    boolean remove(String name) {
+        detach();
+        var kept = 0;
+        for(int i = 0; i < size; i++) {
+            if(matches(i, name)) continue;
+            names[kept] = names[i];
+            values[kept] = values[i];
+            kept++;
+        }
+        var removed = kept < size;
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(values, kept, size, null);
+        size = kept;
+        return removed;
+    }
+
+    int size() {
+        return head != null ? head.headerCount() : size;
+    }
+
+    String name(int index) {
+        return head != null ? head.headerName(index) : names[index];
+    }
+
+    String value(int index) {
+        return head != null ? head.headerValue(index) : values[index];
+    }
+
+    int indexOf(String name, int from) {
+        if(head != null) return head.indexOf(name, from);
+        for(int i = from; i < size; i++) {
+            if(matches(i, name)) return i;
+        }
+        return -1;
+    }
+
+    boolean contains(String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    String first(String name) {
+        var index = indexOf(name, 0);
+        return index < 0 ? null : value(index);
+    }
+
+    // empty when the name isn't there
+    List<String> all(String name) {
+        var index = indexOf(name, 0);
+        if(index < 0) return List.of();
+        var next = indexOf(name, index + 1);
+        if(next < 0) return List.of(value(index));
+        var all = new String[count(name)];
+        var n = 0;
+        for(var i = index; i >= 0; i = indexOf(name, i + 1)) {
+            all[n++] = value(i);
+        }
+        return List.of(all);
+    }
+
+    HttpHeaders copy() {
+        var fields = size();
+        var copy = new HttpHeaders(fields + 2); // room for what a wrapping handler usually adds
+        for(int i = 0; i < fields; i++) {
+            copy.names[i] = name(i);
+            copy.values[i] = value(i);
+        }
+        copy.size = fields;
+        return copy;
+    }
+
+    Map<String, List<String>> asMap() {
+        if(map == null) map = new MapView();
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    private int count(String name) {
+        var count = 0;
+        for(var i = indexOf(name, 0); i >= 0; i = indexOf(name, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    // the first entry with this entry's name, the one it is grouped under in the map view
+    private boolean isFirstOfName(int index) {
+        return indexOf(name(index), 0) == index;
+    }
+
+    // from here on the fields live in the arrays, the head stays as it was parsed
+    private void detach() {
+        if(head == null) return;
+        var copy = copy();
+        head = null;
+        names = copy.names;
+        values = copy.values;
+        size = copy.size;
+    }
+
+    private boolean matches(int index, String name) {
+        var candidate = names[index];
+        return candidate == name || candidate.equalsIgnoreCase(name);
+    }
+
+    private final class MapView extends AbstractMap<String, List<String>> {
+        @Override
+        public List<String> get(Object key) {
+            if(!(key instanceof String name)) return null;
+            var all = all(name);
+            return all.isEmpty() ? null : all;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String name && contains(name);
+        }
+
+        @Override
+        public int size() {
+            var distinct = 0;
+            for(int i = 0; i < HttpHeaders.this.size(); i++) {
+                if(isFirstOfName(i)) distinct++;
+            }
+            return distinct;
+        }
+
+        @Override
+        public Set<Entry<String, List<String>>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, List<String>>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < HttpHeaders.this.size();
+                        }
+
+                        @Override
+                        public Entry<String, List<String>> next() {
+                            if(!hasNext()) throw new NoSuchElementException();
+                            var name = name(next);
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(name, all(name));
+                        }
+
+                        private int advance(int from) {
+                            while(from < HttpHeaders.this.size() && !isFirstOfName(from)) from++;
+                            return from;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return MapView.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.vamshikrishna;
+
+// a request the server can't make sense of, carries the status code the client should get back before we close
+class HttpParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    private final int responseCode;
+
+    HttpParseException(int responseCode, String message) {
+        super(message);
+        this.responseCode = responseCode;
+    }
+
+    int responseCode() {
+        return responseCode;
+    }
+}
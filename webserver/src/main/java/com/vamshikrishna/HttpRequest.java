@@ -1,8 +1,180 @@
 package com.vamshikrishna;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-record HttpRequest(String method, String url, Map<String, List<String>> headers, byte[] body) {
+// method, url and headers are views over the parsed head and only become Strings/HttpHeaders on first access.
+// The body is either fully buffered or, for handlers that accept it, a stream read off the connection on demand.
+final class HttpRequest {
+    private final RequestHead head;
+    private final InputStream bodyStream;
+    private byte[] body;
+    private String method;
+    private String url;
+    private HttpHeaders headers;
+    private Map<String, List<String>> queryParams;
+    private PathParams pathParams = PathParams.EMPTY;
 
+    HttpRequest(String method, String url, Map<String, List<String>> headers, byte[] body) {
+        this(method, url, HttpHeaders.of(headers), body);
+    }
+
+    HttpRequest(String method, String url, Map<String, List<String>> headers, InputStream bodyStream) {
+        this(method, url, HttpHeaders.of(headers), bodyStream);
+    }
+
+    HttpRequest(String method, String url, HttpHeaders headers, byte[] body) {
+        this.head = null;
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.body = body;
+        this.bodyStream = null;
+    }
+
+    HttpRequest(String method, String url, HttpHeaders headers, InputStream bodyStream) {
+        this.head = null;
+        this.method = method;
+        this.url = url;
+        this.headers = headers;
+        this.bodyStream = bodyStream;
+    }
+
+    HttpRequest(RequestHead head, byte[] body) {
+        this.head = head;
+        this.body = body;
+        this.bodyStream = null;
+    }
+
+    HttpRequest(RequestHead head, InputStream bodyStream) {
+        this.head = head;
+        this.bodyStream = bodyStream;
+    }
+
+    String method() {
+        if(method == null) method = head.method();
+        return method;
+    }
+
+    String url() {
+        if(url == null) url = head.target();
+        return url;
+    }
+
+    String path() {
+        if(head != null) return head.path();
+        var query = url.indexOf('?');
+        return query < 0 ? url : url.substring(0, query);
+    }
+
+    String query() {
+        if(head != null) return head.query();
+        var query = url.indexOf('?');
+        return query < 0 ? null : url.substring(query + 1);
+    }
+
+    // header names are lower case in the map, same as before, and looked up ignoring case
+    Map<String, List<String>> headers() {
+        return headerFields().asMap();
+    }
+
+    HttpHeaders headerFields() {
+        if(headers == null) headers = new HttpHeaders(head);
+        return headers;
+    }
+
+    String header(String name) {
+        return head != null ? head.firstValue(name) : headers.first(name);
+    }
+
+    // for a streamed body this reads whatever is left of it into memory
+    byte[] body() {
+        if(body == null) {
+            try {
+                body = bodyStream.readAllBytes();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Failed to read the request body", e);
+            }
+        }
+        return body;
+    }
+
+    InputStream bodyStream() {
+        return bodyStream != null ? bodyStream : new ByteArrayInputStream(body);
+    }
+
+    boolean isBodyStreamed() {
+        return bodyStream != null;
+    }
+
+    RequestHead head() {
+        return head;
+    }
+
+    // captures from the route that matched, see Router
+    String pathParam(String name) {
+        return pathParams.get(name);
+    }
+
+    Map<String, String> pathParams() {
+        return pathParams.toMap();
+    }
+
+    void setPathParams(PathParams pathParams) {
+        this.pathParams = pathParams;
+    }
+
+    String queryParam(String name) {
+        var values = queryParams().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    // parsed on first use, most requests never look at their query string
+    Map<String, List<String>> queryParams() {
+        if(queryParams == null) queryParams = parseQuery(query());
+        return queryParams;
+    }
+
+    private static Map<String, List<String>> parseQuery(String query) {
+        if(query == null || query.isEmpty()) return Map.of();
+        var params = new LinkedHashMap<String, List<String>>();
+        var start = 0;
+        while(start <= query.length()) {
+            var end = query.indexOf('&', start);
+            if(end < 0) end = query.length();
+            if(end > start) {
+                var equals = query.indexOf('=', start);
+                var hasValue = equals >= 0 && equals < end;
+                var name = decodeQueryComponent(query.substring(start, hasValue ? equals : end));
+                var value = hasValue ? decodeQueryComponent(query.substring(equals + 1, end)) : "";
+                params.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+            }
+            start = end + 1;
+        }
+        return params;
+    }
+
+    private static String decodeQueryComponent(String component) {
+        if(component.indexOf('%') < 0 && component.indexOf('+') < 0) return component;
+        try {
+            return URLDecoder.decode(component, StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException e) {
+            return component; // malformed escapes are kept as sent
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpRequest[method=%s, url=%s]".formatted(method(), url());
+    }
 }
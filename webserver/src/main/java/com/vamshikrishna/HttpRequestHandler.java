@@ -2,4 +2,10 @@ package com.vamshikrishna;
 
 public interface HttpRequestHandler {
     HttpResponse handle(HttpRequest request);
+
+    // handlers that return true get bodies above the in-memory limit (and chunked ones) as a stream via
+    // HttpRequest.bodyStream() instead of a 413
+    default boolean acceptsStreamingBody() {
+        return false;
+    }
 }
@@ -0,0 +1,220 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// byte level state machine for the request head. It only records offsets while parsing, so it can be fed the same
+// buffer again after every read and picks up exactly where it stopped. One instance is reused per connection.
+final class HttpRequestParser {
+    static final int DEFAULT_MAX_HEAD_SIZE = 65_536;
+    private static final int MAX_HEADERS = 100;
+    private static final int START = 0;
+    private static final int METHOD = 1;
+    private static final int TARGET = 2;
+    private static final int VERSION = 3;
+    private static final int REQUEST_LINE_END = 4;
+    private static final int HEADER_LINE_START = 5;
+    private static final int HEADER_NAME = 6;
+    private static final int HEADER_VALUE_START = 7;
+    private static final int HEADER_VALUE = 8;
+    private static final int HEADER_LINE_END = 9;
+    private static final int HEAD_END = 10;
+    private static final int DONE = 11;
+    private static final boolean[] TOKEN_CHARS = new boolean[128];
+
+    static {
+        for(char c = '0'; c <= '9'; c++) TOKEN_CHARS[c] = true;
+        for(char c = 'a'; c <= 'z'; c++) TOKEN_CHARS[c] = true;
+        for(char c = 'A'; c <= 'Z'; c++) TOKEN_CHARS[c] = true;
+        for(char c : "!#$%&'*+-.^_`|~".toCharArray()) TOKEN_CHARS[c] = true;
+    }
+
+    private final int maxHeadSize;
+    private int[] offsets = new int[RequestHead.HEADERS_OFFSET + 16 * RequestHead.SLOTS_PER_HEADER];
+    private int headerCount;
+    private int state;
+    private int start;
+    private int position;
+    private int headerStart;
+    private int valueStart;
+    private int valueEnd;
+
+    HttpRequestParser() {
+        this(DEFAULT_MAX_HEAD_SIZE);
+    }
+
+    HttpRequestParser(int maxHeadSize) {
+        this.maxHeadSize = maxHeadSize;
+    }
+
+    // the next head begins at start in whatever buffer gets passed to parse
+    void reset(int start) {
+        this.start = start;
+        this.position = start;
+        this.state = START;
+        this.headerCount = 0;
+    }
+
+    int headEnd() {
+        return position;
+    }
+
+    boolean isDone() {
+        return state == DONE;
+    }
+
+    // scans buffer[position, limit), absolute reads so the caller's position and limit stay untouched
+    boolean parse(ByteBuffer buffer, int limit) {
+        while(state != DONE && position < limit) {
+            var b = buffer.get(position);
+            switch (state) {
+                case START -> {
+                    if(b != '\r' && b != '\n') { // tolerate stray line breaks between pipelined requests
+                        start = position;
+                        offsets[RequestHead.METHOD_START] = position;
+                        state = METHOD;
+                        continue;
+                    }
+                }
+                case METHOD -> {
+                    if(b == ' ') {
+                        if(position == offsets[RequestHead.METHOD_START]) throw badRequest("Empty method");
+                        offsets[RequestHead.METHOD_END] = position;
+                        offsets[RequestHead.TARGET_START] = position + 1;
+                        state = TARGET;
+                    }
+                    else if(!isToken(b)) throw badRequest("Invalid character in method");
+                }
+                case TARGET -> {
+                    if(b == ' ') {
+                        if(position == offsets[RequestHead.TARGET_START]) throw badRequest("Empty request target");
+                        offsets[RequestHead.TARGET_END] = position;
+                        offsets[RequestHead.VERSION_START] = position + 1;
+                        state = VERSION;
+                    }
+                    else if(b <= ' ' || b == 0x7f) throw badRequest("Invalid character in request target");
+                }
+                case VERSION -> {
+                    if(b == '\r' || b == '\n') {
+                        offsets[RequestHead.VERSION_END] = position;
+                        checkVersion(buffer);
+                        state = b == '\r' ? REQUEST_LINE_END : HEADER_LINE_START;
+                    }
+                }
+                case REQUEST_LINE_END, HEADER_LINE_END -> {
+                    if(b != '\n') throw badRequest("Expected LF after CR");
+                    state = HEADER_LINE_START;
+                }
+                case HEADER_LINE_START -> {
+                    if(b == '\r') state = HEAD_END;
+                    else if(b == '\n') state = DONE;
+                    else if(b == ' ' || b == '\t') throw badRequest("Obsolete header line folding is not supported");
+                    else if(isToken(b)) {
+                        if(headerCount == MAX_HEADERS) throw new HttpParseException(431, "Too many headers");
+                        headerStart = position;
+                        state = HEADER_NAME;
+                    }
+                    else throw badRequest("Invalid character in header name");
+                }
+                case HEADER_NAME -> {
+                    if(b == ':') {
+                        if(position == headerStart) throw badRequest("Empty header name");
+                        valueStart = position + 1;
+                        valueEnd = valueStart;
+                        state = HEADER_VALUE_START;
+                        offsets = ensureCapacity(offsets, headerCount);
+                        var slot = RequestHead.HEADERS_OFFSET + headerCount * RequestHead.SLOTS_PER_HEADER;
+                        offsets[slot + RequestHead.NAME_START] = headerStart;
+                        offsets[slot + RequestHead.NAME_END] = position;
+                    }
+                    else if(!isToken(b)) throw badRequest("Invalid character in header name");
+                }
+                case HEADER_VALUE_START -> {
+                    if(b == '\r' || b == '\n') {
+                        valueStart = position;
+                        valueEnd = position;
+                        endHeaderLine(b);
+                    }
+                    else if(b != ' ' && b != '\t') {
+                        checkValueByte(b);
+                        valueStart = position;
+                        valueEnd = position + 1;
+                        state = HEADER_VALUE;
+                    }
+                }
+                case HEADER_VALUE -> {
+                    if(b == '\r' || b == '\n') endHeaderLine(b);
+                    else if(b != ' ' && b != '\t') {
+                        checkValueByte(b);
+                        valueEnd = position + 1; // trailing whitespace never moves the end
+                    }
+                }
+                case HEAD_END -> {
+                    if(b != '\n') throw badRequest("Expected LF after CR");
+                    state = DONE;
+                }
+                default -> throw new IllegalStateException("Unknown parser state " + state);
+            }
+            position++;
+        }
+        if(state != DONE && position - start > maxHeadSize) {
+            throw new HttpParseException(431, "Request head is larger than %d bytes".formatted(maxHeadSize));
+        }
+        return state == DONE;
+    }
+
+    // copies the head out of the (reused) connection buffer, the only allocation a parsed head needs
+    RequestHead toHead(ByteBuffer buffer) {
+        if(state != DONE) throw new IllegalStateException("Request head is not complete yet");
+        var bytes = new byte[position - start];
+        buffer.get(start, bytes);
+        var used = RequestHead.HEADERS_OFFSET + headerCount * RequestHead.SLOTS_PER_HEADER;
+        var relative = Arrays.copyOf(offsets, used);
+        for(int i = 0; i < used; i++) {
+            if(i >= RequestHead.HEADERS_OFFSET && (i - RequestHead.HEADERS_OFFSET) % RequestHead.SLOTS_PER_HEADER == RequestHead.NAME_ID) continue;
+            relative[i] -= start;
+        }
+        for(int i = 0; i < headerCount; i++) {
+            var slot = RequestHead.HEADERS_OFFSET + i * RequestHead.SLOTS_PER_HEADER;
+            relative[slot + RequestHead.NAME_ID] = HttpHeaderNames.idOf(bytes, relative[slot + RequestHead.NAME_START], relative[slot + RequestHead.NAME_END]);
+        }
+        return new RequestHead(bytes, relative, headerCount);
+    }
+
+    private void endHeaderLine(byte b) {
+        var slot = RequestHead.HEADERS_OFFSET + headerCount * RequestHead.SLOTS_PER_HEADER;
+        offsets[slot + RequestHead.VALUE_START] = valueStart;
+        offsets[slot + RequestHead.VALUE_END] = valueEnd;
+        headerCount++;
+        state = b == '\r' ? HEADER_LINE_END : HEADER_LINE_START;
+    }
+
+    private void checkVersion(ByteBuffer buffer) {
+        var from = offsets[RequestHead.VERSION_START];
+        if(offsets[RequestHead.VERSION_END] - from != 8
+                || buffer.get(from) != 'H' || buffer.get(from + 1) != 'T' || buffer.get(from + 2) != 'T' || buffer.get(from + 3) != 'P'
+                || buffer.get(from + 4) != '/' || buffer.get(from + 6) != '.') {
+            throw badRequest("Malformed HTTP version");
+        }
+        if(buffer.get(from + 5) != '1' || (buffer.get(from + 7) != '0' && buffer.get(from + 7) != '1')) {
+            throw new HttpParseException(505, "Unsupported HTTP version");
+        }
+    }
+
+    private static void checkValueByte(byte b) {
+        if((b >= 0 && b < ' ') || b == 0x7f) throw badRequest("Invalid character in header value");
+    }
+
+    private static boolean isToken(byte b) {
+        return b > 0 && TOKEN_CHARS[b];
+    }
+
+    private static int[] ensureCapacity(int[] offsets, int headerCount) {
+        var needed = RequestHead.HEADERS_OFFSET + (headerCount + 1) * RequestHead.SLOTS_PER_HEADER;
+        return needed <= offsets.length ? offsets : Arrays.copyOf(offsets, offsets.length * 2);
+    }
+
+    private static HttpParseException badRequest(String message) {
+        return new HttpParseException(400, message);
+    }
+}
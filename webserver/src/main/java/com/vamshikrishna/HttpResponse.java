@@ -3,6 +3,36 @@ package com.vamshikrishna;
 import java.util.List;
 import java.util.Map;
 
-record HttpResponse(int responseCode, Map<String, List<String>> headers, byte[] body) {
+// streamingBody, when set, is written instead of body, e.g. a file that should never be pulled onto the heap.
+// Headers given as a Map are copied into HttpHeaders, headers() hands them back as a read-only Map view
+record HttpResponse(int responseCode, HttpHeaders headerFields, byte[] body, ResponseBody streamingBody) {
+    private static final byte[] EMPTY_BODY = new byte[0];
 
+    HttpResponse {
+        if(headerFields == null) throw new IllegalArgumentException("headerFields must not be null");
+    }
+
+    HttpResponse(int responseCode, HttpHeaders headerFields, byte[] body) {
+        this(responseCode, headerFields, body, null);
+    }
+
+    HttpResponse(int responseCode, HttpHeaders headerFields, ResponseBody streamingBody) {
+        this(responseCode, headerFields, EMPTY_BODY, streamingBody);
+    }
+
+    HttpResponse(int responseCode, Map<String, List<String>> headers, byte[] body, ResponseBody streamingBody) {
+        this(responseCode, HttpHeaders.of(headers), body, streamingBody);
+    }
+
+    HttpResponse(int responseCode, Map<String, List<String>> headers, byte[] body) {
+        this(responseCode, HttpHeaders.of(headers), body, null);
+    }
+
+    HttpResponse(int responseCode, Map<String, List<String>> headers, ResponseBody streamingBody) {
+        this(responseCode, HttpHeaders.of(headers), EMPTY_BODY, streamingBody);
+    }
+
+    Map<String, List<String>> headers() {
+        return headerFields.asMap();
+    }
 }
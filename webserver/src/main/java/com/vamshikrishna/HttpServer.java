@@ -3,4 +3,7 @@ package com.vamshikrishna;
 public interface HttpServer {
     void start(HttpRequestHandler handler);
     void stop();
+    ServerMetrics metrics();
+    // requests are logged only once one is set, call before start
+    void setAccessLog(AccessLog accessLog);
 }
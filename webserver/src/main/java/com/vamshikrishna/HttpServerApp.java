@@ -1,14 +1,24 @@
 package com.vamshikrishna;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
 public class HttpServerApp {
     public static void main(String[] args) throws Exception{
-        var server = new HttpServerImpl(Executors.newFixedThreadPool(10), 8080, 10_000);
-        server.start(r -> {
+        // same handler and port for every mode so they can be compared under identical load
+        var mode = args.length > 0 ? args[0] : "pool";
+        HttpServer server = switch (mode) {
+            case "nio" -> new NioHttpServer(Executors.newFixedThreadPool(10), 8080, 10_000);
+            case "virtual" -> HttpServerImpl.withVirtualThreads(8080, 10_000, 50_000);
+            default -> new HttpServerImpl(Executors.newFixedThreadPool(10), 8080, 10_000);
+        };
+        if(Arrays.asList(args).contains("--access-log")) {
+            server.setAccessLog(new AccessLog(System.out)); // off by default, it costs a queue offer per request
+        }
+        HttpRequestHandler handler = r -> {
             var body = """
                         {
                             "id": 1,
@@ -37,8 +47,30 @@ public class HttpServerApp {
             var headers = Map.of("Content-Type", List.of("application/json"),
                     "Content-Length", List.of(String.valueOf(body.length)));
             return new HttpResponse(200, headers, body);
+        };
+        // whatever one /live client sends, every connected one gets
+        var live = new WebSocketGroup();
+        var liveEndpoint = new WebSocketEndpoint(new WebSocketHandler() {
+            @Override
+            public void onOpen(WebSocket webSocket) {
+                live.join(webSocket);
+            }
+
+            @Override
+            public void onText(WebSocket webSocket, String message) {
+                live.broadcastText(message);
+            }
+
+            @Override
+            public void onClose(WebSocket webSocket, int code, String reason) {
+                live.leave(webSocket);
+            }
         });
-        System.out.println("Server has started...");
+        server.start(new CompressionHandler(new Router()
+                .get("/metrics", new MetricsHandler(server.metrics()))
+                .get("/live", liveEndpoint)
+                .fallback(handler)));
+        System.out.println("Server has started in %s mode...".formatted(mode));
 //        Thread.sleep(1000);
 //        System.out.println("Stopping the server...");
 //        server.stop();
@@ -0,0 +1,214 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+
+// how a server listens and sets up the sockets it accepts, e.g.
+//   HttpServerConfig.builder(8080).acceptors(4).reusePort(true).backlog(4096).build()
+//   backlog              connections the kernel queues up before they are accepted, 0 for the JDK default of 50
+//   acceptors            threads accepting connections. With reusePort each binds a listening socket of its own and
+//                        the kernel spreads new connections across them, otherwise they take turns on a shared one
+//   reuseAddress         rebind right away after a restart while old connections are still in TIME_WAIT
+//   reusePort            SO_REUSEPORT, binding fails on platforms without it
+//   tcpNoDelay           send responses as soon as they are written, Nagle would hold back the last segment of each
+//   receiveBufferSize,   socket buffers in bytes, 0 keeps the OS default and its autotuning. The receive buffer is
+//   sendBufferSize       set on the listening socket so accepted ones start with it and can scale their window
+//   eventLoops           NioHttpServer only, split into one group per acceptor
+//   policy               timeouts and limits of each connection
+//   maxInMemoryBodySize  larger request bodies are streamed or refused with a 413
+//   h2c                  HttpServerImpl only and off by default, HTTP/2 without TLS for clients that open with its
+//                        connection preface or ask to Upgrade: h2c
+//   requestTimeout       AsyncHttpRequestHandler only, how long a response may take before the client gets a 504 and
+//                        the handler's stage is cancelled. Duration.ZERO waits for as long as it takes
+//   maxPendingRequests   AsyncHttpRequestHandler only, responses being worked on across the server. Past it new
+//                        requests get a 503 right away instead of queueing up behind the ones already waiting
+//   admission            HttpServerImpl only, an adaptive limit on requests in the handler at once that turns the
+//                        rest away with a 503, see AdmissionPolicy. null, the default, lets everything through
+public record HttpServerConfig(int port, int backlog, int acceptors, boolean reuseAddress, boolean reusePort,
+                               boolean tcpNoDelay, int receiveBufferSize, int sendBufferSize, int eventLoops,
+                               ConnectionPolicy policy, int maxInMemoryBodySize, boolean h2c, Duration requestTimeout,
+                               int maxPendingRequests, AdmissionPolicy admission) {
+    private static final int DEFAULT_BACKLOG = 1_024;
+    private static final int DEFAULT_CONNECTION_TIMEOUT = 10_000;
+
+    public HttpServerConfig {
+        if(port < 0 || port > 65_535) {
+            throw new IllegalArgumentException("port must be between 0 and 65535, got %d".formatted(port));
+        }
+        requireNotNegative("backlog", backlog);
+        requireNotNegative("receiveBufferSize", receiveBufferSize);
+        requireNotNegative("sendBufferSize", sendBufferSize);
+        requireNotNegative("maxInMemoryBodySize", maxInMemoryBodySize);
+        if(acceptors < 1) {
+            throw new IllegalArgumentException("At least one acceptor is required, got %d".formatted(acceptors));
+        }
+        if(eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required, got %d".formatted(eventLoops));
+        }
+        if(policy == null) {
+            throw new IllegalArgumentException("policy is required");
+        }
+        if(requestTimeout == null || requestTimeout.isNegative()) {
+            throw new IllegalArgumentException("requestTimeout must not be negative, got %s".formatted(requestTimeout));
+        }
+        if(maxPendingRequests < 1) {
+            throw new IllegalArgumentException("maxPendingRequests must be positive, got %d".formatted(maxPendingRequests));
+        }
+    }
+
+    public static Builder builder(int port) {
+        return new Builder(port);
+    }
+
+    public static class Builder {
+        private final int port;
+        private int backlog = DEFAULT_BACKLOG;
+        private int acceptors = 1;
+        private boolean reuseAddress = true;
+        private boolean reusePort;
+        private boolean tcpNoDelay = true;
+        private int receiveBufferSize;
+        private int sendBufferSize;
+        private int eventLoops = Runtime.getRuntime().availableProcessors();
+        private ConnectionPolicy policy = ConnectionPolicy.withTimeout(DEFAULT_CONNECTION_TIMEOUT);
+        private int maxInMemoryBodySize = HttpServerImpl.DEFAULT_MAX_IN_MEMORY_BODY_SIZE;
+        private boolean h2c;
+        private Duration requestTimeout = Duration.ZERO;
+        private int maxPendingRequests = ConnectionPolicy.UNLIMITED;
+        private AdmissionPolicy admission;
+
+        private Builder(int port) {
+            this.port = port;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder acceptors(int acceptors) {
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        public Builder reuseAddress(boolean reuseAddress) {
+            this.reuseAddress = reuseAddress;
+            return this;
+        }
+
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder receiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+            return this;
+        }
+
+        public Builder sendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+            return this;
+        }
+
+        public Builder eventLoops(int eventLoops) {
+            this.eventLoops = eventLoops;
+            return this;
+        }
+
+        public Builder policy(ConnectionPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        public Builder maxInMemoryBodySize(int maxInMemoryBodySize) {
+            this.maxInMemoryBodySize = maxInMemoryBodySize;
+            return this;
+        }
+
+        public Builder h2c(boolean h2c) {
+            this.h2c = h2c;
+            return this;
+        }
+
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public Builder maxPendingRequests(int maxPendingRequests) {
+            this.maxPendingRequests = maxPendingRequests;
+            return this;
+        }
+
+        public Builder admission(AdmissionPolicy admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        public HttpServerConfig build() {
+            return new HttpServerConfig(port, backlog, acceptors, reuseAddress, reusePort, tcpNoDelay, receiveBufferSize,
+                    sendBufferSize, eventLoops, policy, maxInMemoryBodySize, h2c, requestTimeout, maxPendingRequests,
+                    admission);
+        }
+    }
+
+    // one listening socket per acceptor with reusePort, a single shared one otherwise. With port 0 the first
+    // socket picks the port and the others join it.
+    ServerSocketChannel[] openServerChannels() throws IOException {
+        var channels = new ServerSocketChannel[reusePort ? acceptors : 1];
+        var address = new InetSocketAddress(port);
+        try {
+            for(int i = 0; i < channels.length; i++) {
+                channels[i] = openServerChannel(address);
+                address = (InetSocketAddress) channels[i].getLocalAddress();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            for(var channel : channels) {
+                if(channel != null) channel.close();
+            }
+            throw e;
+        }
+        return channels;
+    }
+
+    AsyncDispatcher asyncDispatcher() {
+        return new AsyncDispatcher(requestTimeout, maxPendingRequests);
+    }
+
+    // socket options that only apply once a connection exists
+    void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if(sendBufferSize > 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+    }
+
+    private ServerSocketChannel openServerChannel(InetSocketAddress address) throws IOException {
+        var channel = ServerSocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+            if(reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            if(receiveBufferSize > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            return channel.bind(address, backlog);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void requireNotNegative(String name, int value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("%s must not be negative, got %d".formatted(name, value));
+        }
+    }
+}
@@ -1,223 +1,493 @@
 package com.vamshikrishna;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HttpServerImpl implements HttpServer {
     private final Executor connectionHandler;
-    private final int port;
-    private final int connectionTimeout;
-    private static final String HTTP_NEW_LINE_DELIMITER = "\r\n";
-    private static final String HTTP_HEAD_BODY_DELIMITER = HTTP_NEW_LINE_DELIMITER + HTTP_NEW_LINE_DELIMITER;
-    private static final int HTTP_HEAD_BODY_SEPARTOR_BYTES = HTTP_NEW_LINE_DELIMITER.getBytes(StandardCharsets.US_ASCII).length;
-    private static final int DEFAULT_BUFFER_SIZE = 10_000;
-    private static final String CONTENT_LENGTH_HEADER = "content-length";
-    private static final String CONNECTION_HEADER = "connection";
-    private static final String CONNECTION_HEADER_KEEP_ALIVE = "keep-alive";
-    private ServerSocket serverSocket;
-    private boolean isRunning;
+    private final HttpServerConfig config;
+    private final ConnectionPolicy policy;
+    private final boolean ownsConnectionHandler;
+    private final int maxInMemoryBodySize;
+    static final int DEFAULT_MAX_IN_MEMORY_BODY_SIZE = 1024 * 1024;
+    private static final long MAX_UNREAD_BODY_TO_DRAIN = 64 * 1024;
+    private static final int LINGER_MILLIS = 1_000;
+    // connections lingering over a 503 at once, each holds a socket for up to LINGER_MILLIS
+    private static final int MAX_SHEDDING = 1_024;
+    private static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(5);
+    // how often a connection waiting on an async response looks for the client having gone away
+    private static final long CLIENT_CHECK_MILLIS = 1_000;
+    private final ServerMetrics metrics = new ServerMetrics();
+    // open connections and whether each is in the middle of a request right now
+    private final ConnectionTracker<Socket> connections;
+    // told to go away when the server stops, they'd otherwise stay open until the drain deadline
+    private final Set<WebSocket> webSockets = ConcurrentHashMap.newKeySet();
+    // connections being turned away, outside the connection cap but bounded by MAX_SHEDDING and closed by stop()
+    private final Set<Socket> shedding = ConcurrentHashMap.newKeySet();
+    private final Semaphore sheddingPermits = new Semaphore(MAX_SHEDDING);
+    private final AsyncDispatcher asyncDispatcher;
+    // null without an admission policy
+    private final ConcurrencyLimiter limiter;
+    // connections handed to the executor that no thread has picked up yet, and how long the last one picked up waited
+    private final AtomicInteger queuedConnections = new AtomicInteger();
+    private volatile long lastQueueWaitNanos;
+    private volatile AccessLog accessLog;
+    private ServerSocketChannel[] serverChannels;
+    private volatile boolean isRunning;
     private HttpRequestHandler requestHandler;
     public HttpServerImpl(Executor connectionHandler, int port, int connectionTimeout) {
+        this(connectionHandler, port, ConnectionPolicy.withTimeout(connectionTimeout));
+    }
+    public HttpServerImpl(Executor connectionHandler, int port, int connectionTimeout, int maxConnections) {
+        this(connectionHandler, port, ConnectionPolicy.withTimeout(connectionTimeout).withMaxConnections(maxConnections));
+    }
+    public HttpServerImpl(Executor connectionHandler, int port, int connectionTimeout, int maxConnections, int maxInMemoryBodySize) {
+        this(connectionHandler, port, ConnectionPolicy.withTimeout(connectionTimeout).withMaxConnections(maxConnections), maxInMemoryBodySize);
+    }
+    public HttpServerImpl(Executor connectionHandler, int port, ConnectionPolicy policy) {
+        this(connectionHandler, port, policy, DEFAULT_MAX_IN_MEMORY_BODY_SIZE);
+    }
+    public HttpServerImpl(Executor connectionHandler, int port, ConnectionPolicy policy, int maxInMemoryBodySize) {
+        this(connectionHandler, HttpServerConfig.builder(port).policy(policy).maxInMemoryBodySize(maxInMemoryBodySize).build());
+    }
+    public HttpServerImpl(Executor connectionHandler, HttpServerConfig config) {
+        this(connectionHandler, config, false);
+    }
+    private HttpServerImpl(Executor connectionHandler, HttpServerConfig config, boolean ownsConnectionHandler) {
         this.connectionHandler = connectionHandler;
-        this.port = port;
-        this.connectionTimeout = connectionTimeout;
+        this.config = config;
+        this.policy = config.policy();
+        this.maxInMemoryBodySize = config.maxInMemoryBodySize();
+        this.connections = new ConnectionTracker<>(policy.maxConnections(), this::evict);
+        this.asyncDispatcher = config.asyncDispatcher();
+        this.limiter = config.admission() == null ? null : new ConcurrencyLimiter(config.admission(), metrics);
+        this.ownsConnectionHandler = ownsConnectionHandler;
+    }
+    // one virtual thread per connection, handlers stay blocking-style and only the connection cap bounds concurrency
+    public static HttpServerImpl withVirtualThreads(int port, int connectionTimeout, int maxConnections) {
+        return withVirtualThreads(port, ConnectionPolicy.withTimeout(connectionTimeout).withMaxConnections(maxConnections));
+    }
+    public static HttpServerImpl withVirtualThreads(int port, ConnectionPolicy policy) {
+        return withVirtualThreads(HttpServerConfig.builder(port).policy(policy).build());
+    }
+    public static HttpServerImpl withVirtualThreads(HttpServerConfig config) {
+        return new HttpServerImpl(Executors.newVirtualThreadPerTaskExecutor(), config, true);
     }
     @Override
     public void start(HttpRequestHandler requestHandler) {
         if(isServerRunning()) {
-            throw new RuntimeException("Server is running on port %d already".formatted(port));
+            throw new RuntimeException("Server is running on port %d already".formatted(config.port()));
         }
         startServer(requestHandler);
     }
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+    @Override
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
     private boolean isServerRunning() {
-        return serverSocket != null && isRunning;
+        return serverChannels != null && isRunning;
     }
     private void startServer(HttpRequestHandler requestHandler) {
         try {
-            serverSocket = new ServerSocket(port);
+            serverChannels = config.openServerChannels(); // channel backed sockets, so they can do gathering writes
             isRunning = true;
         }
         catch (Exception e) {
-            throw new RuntimeException("Failed to start the Http Server on port %s".formatted(port), e);
+            throw new RuntimeException("Failed to start the Http Server on port %s".formatted(config.port()), e);
         }
-        new Thread(() -> {
-            try {
-                while(isServerRunning()) {
-                    var connection = serverSocket.accept();
-                    connection.setSoTimeout(connectionTimeout);
-                    connectionHandler.execute(() -> handleRequest(connection, requestHandler)); // to handle multiple client requests without blocking the server
+        for(int i = 0; i < config.acceptors(); i++) {
+            var serverChannel = serverChannels[i % serverChannels.length];
+            new Thread(() -> acceptConnections(serverChannel, requestHandler), "http-acceptor-" + i).start();
+        }
+    }
+    private void acceptConnections(ServerSocketChannel serverChannel, HttpRequestHandler requestHandler) {
+        try {
+            while(isServerRunning()) {
+                var channel = serverChannel.accept();
+                try {
+                    config.configure(channel);
                 }
-            }
-            catch (Exception e) {
-                if(isServerRunning()) {
-                    stop();
-                    throw new RuntimeException("Failed to accept the next connection...", e);
+                catch (IOException e) {
+                    channel.close(); // the client went away before we got to it
+                    continue;
+                }
+                var connection = channel.socket();
+                if(limiter != null && (limiter.isSaturated() || isExecutorBacklogged())) {
+                    startShedding(connection); // the executor's queue would only make it wait for the same answer
+                    continue;
+                }
+                try {
+                    connections.acquire(); // at the cap an idle connection makes room, with none idle this one waits and the rest queue in the listen backlog
                 }
-                System.out.println("Closing the server...");
+                catch (InterruptedException e) {
+                    connection.close();
+                    throw e;
+                }
+                metrics.connectionAccepted();
+                connections.add(connection);
+                var accepted = System.nanoTime();
+                queuedConnections.incrementAndGet();
+                connectionHandler.execute(() -> handleConnection(connection, requestHandler, accepted)); // to handle multiple client requests without blocking the server
+            }
+        }
+        catch (Exception e) {
+            if(isServerRunning()) {
+                stop();
+                throw new RuntimeException("Failed to accept the next connection...", e);
             }
-        }).start();
+            System.out.println("Closing the server...");
+        }
     }
 
-    private Optional<HttpRequest> readRequest(Socket connection) throws Exception {
-        var stream = connection.getInputStream();
-        var rawRequestHead = readRawRequestHeader(stream);
-        if(rawRequestHead.length == 0) return Optional.empty();
-        var requestHead = new String(rawRequestHead, StandardCharsets.US_ASCII);
-        var lines = requestHead.split(HTTP_NEW_LINE_DELIMITER);
-        var line = lines[0];
-        var methodUrl = line.split(" ");
-        var method = methodUrl[0];
-        var url = methodUrl[1];
-        var headers = readHeaders(lines);
-        var bodyLength = getExpectedBodyLength(headers);
-        byte[] body;
-        if(bodyLength > 0) {
-            var bodyStartIdx = requestHead.indexOf(HTTP_HEAD_BODY_DELIMITER);
-            if(bodyStartIdx > 0) {
-                var readBody = Arrays.copyOfRange(rawRequestHead, bodyStartIdx + HTTP_HEAD_BODY_SEPARTOR_BYTES, rawRequestHead.length);
-                body = readBody(stream, readBody, bodyLength);
-            } else {
-                body = new byte[0];
-            }
+    // bodies up to maxInMemoryBodySize are read up front, larger or chunked ones are streamed to handlers that
+    // accept that and refused with a 413 otherwise. Empty when the client closed the connection, or when stop() or
+    // eviction claimed it before the request started.
+    private Optional<HttpRequest> readRequest(Socket connection, ConnectionReader reader, ResponseWriter writer, HttpRequestHandler requestHandler) throws Exception {
+        var head = reader.readHead();
+        if(head == null || !connections.markBusy(connection)) return Optional.empty();
+        var decoder = HttpCodec.bodyDecoder(head);
+        if(decoder == null) return Optional.of(new HttpRequest(head, new byte[0]));
+        var streaming = requestHandler.acceptsStreamingBody() && (decoder.isChunked() || decoder.length() > maxInMemoryBodySize);
+        if(!streaming && decoder.length() > maxInMemoryBodySize) {
+            throw new HttpParseException(413, "Request body of %d bytes is larger than %d".formatted(decoder.length(), maxInMemoryBodySize));
+        }
+        if(HttpCodec.expectsContinue(head)) {
+            writer.writeContinue();
         }
-        else {
-            body = new byte[0];
+        if(streaming) {
+            return Optional.of(new HttpRequest(head, new RequestBodyStream(reader, decoder)));
         }
-        return Optional.of(new HttpRequest(method, url, headers, body));
+        return Optional.of(new HttpRequest(head, reader.readBody(decoder, maxInMemoryBodySize)));
     }
-    private int getExpectedBodyLength(Map<String, List<String>> headers) {
+    private void handleConnection(Socket connection, HttpRequestHandler requestHandler, long accepted) {
+        var queueWait = System.nanoTime() - accepted;
+        queuedConnections.decrementAndGet();
+        lastQueueWaitNanos = queueWait;
+        if(limiter != null && queueWait > config.admission().maxQueueWait().toNanos()) {
+            startShedding(connection); // the client may well have given up on it already
+            return;
+        }
+        ResponseWriter writer = null;
+        ConnectionReader reader = null;
         try {
-            return Integer.parseInt(headers.getOrDefault(CONTENT_LENGTH_HEADER, List.of("0")).get(0));
-        } catch (Exception e) {
-            return 0;
+            writer = new ResponseWriter(connection.getChannel(), metrics);
+            reader = new ConnectionReader(connection, writer, policy, metrics);
+            handleRequest(connection, reader, writer, requestHandler);
+        }
+        catch (IOException e) {
+            closeConnection(connection);
+        }
+        finally {
+            if(writer != null) writer.release(); // the connection is closed by now, its buffers go back to the pool
+            if(reader != null) reader.release();
         }
     }
-    private byte[] readRawRequestHeader(InputStream stream) throws Exception {
-        var toRead = stream.available();
-        if(toRead == 0) toRead = DEFAULT_BUFFER_SIZE;
-        var buffer = new byte[toRead];
-        var read = stream.read(buffer);
-        if(read <= 0) return new byte[0];
-        return read == toRead ? buffer : Arrays.copyOf(buffer, read);
-    }
-    private void handleRequest(Socket connection, HttpRequestHandler requestHandler) {
+    // loops for as long as the connection is kept alive, every request used to add stack frames here
+    private void handleRequest(Socket connection, ConnectionReader reader, ResponseWriter writer, HttpRequestHandler requestHandler) {
         try {
-            var requestOpt = readRequest(connection);
-            if (requestOpt.isEmpty()) {
-                closeConnection(connection);
+            if(config.h2c() && reader.startsWith(Http2Codec.PREFACE)) {
+                serveHttp2(connection, reader, requestHandler, null);
                 return;
             }
-            var request = requestOpt.get();
-            PrintRequest(request);
-            respondToRequest(connection, request, requestHandler);
-            if (shouldReuseConnection(request.headers())) {
-                // System.out.println("Reusing the connection...");
-                handleRequest(connection, requestHandler);
+            var served = 0;
+            while(true) {
+                var requestOpt = readRequest(connection, reader, writer, requestHandler);
+                if (requestOpt.isEmpty()) {
+                    closeConnection(connection);
+                    return;
+                }
+                var request = requestOpt.get();
+                if(config.h2c() && isRunning && Http2Codec.isUpgradeRequest(request.head())) {
+                    metrics.response(101);
+                    writer.write(Http2Codec.SWITCHING_PROTOCOLS);
+                    writer.flush();
+                    serveHttp2(connection, reader, requestHandler, request);
+                    return;
+                }
+                var keepAlive = isRunning && ++served < policy.maxRequestsPerConnection();
+                keepAlive = respondToRequest(connection, reader, writer, request, requestHandler, keepAlive); // flushed by the reader once it runs out of pipelined input
+                if (!keepAlive || !skipUnreadBody(request)) {
+                    writer.flush();
+                    closeConnection(connection);
+                    return;
+                }
+                if(!reader.hasBufferedInput()) { // nothing pipelined, the connection waits for the client from here on
+                    writer.flush();
+                    connections.markIdle(connection);
+                }
             }
         }
         catch (SocketTimeoutException e) {
-            System.out.println("Socket timeout, closing..");
+            metrics.timeout();
             closeConnection(connection);
+        } catch (HttpParseException e) {
+            respondAndClose(connection, writer, HttpCodec.errorResponse(e.responseCode()));
+        } catch (IOException e) {
+            closeConnection(connection); // reset by the client, or closed under us by stop() or eviction
         } catch (Exception e) {
             System.out.println("Problem while handling connection");
             e.printStackTrace();
             closeConnection(connection);
         }
     }
-    private void respondToRequest(Socket connection, HttpRequest req, HttpRequestHandler requestHandler) throws Exception {
-        var res = requestHandler.handle(req);
-        var os = connection.getOutputStream();
-        var resHead = new StringBuilder("HTTP/1.1 %d".formatted(res.responseCode()));
-        res.headers().forEach((k, vs) ->
-                vs.forEach(v ->
-                        resHead.append(HTTP_NEW_LINE_DELIMITER)
-                                .append(k)
-                                .append(": ")
-                                .append(v)));
-        resHead.append(HTTP_HEAD_BODY_DELIMITER);
-        os.write(resHead.toString().getBytes(StandardCharsets.US_ASCII));
-        if(res.body().length > 0) {
-            os.write(res.body());
+    // the rest of the connection is HTTP/2, its streams are answered concurrently. upgrade is the HTTP/1.1
+    // request that switched protocols, it is answered as stream 1.
+    private void serveHttp2(Socket connection, ConnectionReader reader, HttpRequestHandler requestHandler, HttpRequest upgrade) throws IOException {
+        var http2 = new Http2Connection(connection, reader.takeOver(), requestHandler, asyncDispatcher, limiter, policy, maxInMemoryBodySize,
+                connections, metrics, accessLog, () -> isRunning);
+        try {
+            http2.serve(upgrade, upgrade == null ? null : Http2Codec.upgradeSettings(upgrade.head()));
+        }
+        finally {
+            closeConnection(connection);
         }
     }
-    private void closeConnection(Socket connection) {
+    private boolean skipUnreadBody(HttpRequest request) throws IOException {
+        if(request.isBodyStreamed() && request.bodyStream() instanceof RequestBodyStream body && !body.isFinished()) {
+            return body.drain(MAX_UNREAD_BODY_TO_DRAIN);
+        }
+        return true;
+    }
+    // whether the connection stays open, the response says so either way
+    private boolean respondToRequest(Socket connection, ConnectionReader reader, ResponseWriter writer, HttpRequest req, HttpRequestHandler requestHandler, boolean keepAlive) throws Exception {
+        var started = System.nanoTime();
+        if(limiter != null && !limiter.acquire(req)) {
+            return rejectRequest(connection, writer, req, started);
+        }
+        var admitted = System.nanoTime();
+        HttpResponse res;
         try {
-            System.out.println("Closing the connection...");
-            connection.close();
-        } catch (IOException e) {
+            res = requestHandler instanceof AsyncHttpRequestHandler async
+                    ? awaitResponse(reader, req, asyncDispatcher.dispatch(async, req))
+                    : requestHandler.handle(req);
+        }
+        finally {
+            if(limiter != null) limiter.release(System.nanoTime() - admitted);
+        }
+        var handled = System.nanoTime();
+        var webSocket = WebSocketUpgrade.of(res);
+        if(webSocket != null && !isRunning) {
+            res = HttpCodec.errorResponse(503); // stop() has already told the open ones to go away
+            webSocket = null;
+        }
+        keepAlive &= webSocket == null && HttpCodec.shouldReuseConnection(req, res);
+        writer.write(res, HttpCodec.connectionHeader(req, keepAlive));
+        var written = System.nanoTime();
+        metrics.handlerLatency.record(handled - admitted);
+        metrics.writeLatency.record(written - handled);
+        metrics.response(res.responseCode());
+        var log = accessLog;
+        if(log != null) {
+            log.log(connection.getInetAddress().getHostAddress(), req.head(), res.responseCode(), AccessLog.bodyLength(res), written - started);
+        }
+        if(webSocket != null) serveWebSocket(connection, reader, webSocket);
+        return keepAlive;
+    }
+    // the rest of the connection is a WebSocket, read on this thread until either side closes it
+    private void serveWebSocket(Socket connection, ConnectionReader reader, WebSocketUpgrade upgrade) throws IOException {
+        var webSocket = new WebSocket(connection, upgrade.policy(), metrics);
+        var session = new WebSocketConnection(connection, reader.takeOverBuffer(), webSocket, upgrade, metrics);
+        webSockets.add(webSocket);
+        metrics.webSocketOpened();
+        try {
+            session.serve();
+        }
+        finally {
+            webSockets.remove(webSocket);
+            metrics.webSocketClosed();
+            closeConnection(connection);
+        }
+    }
+    // no room in the handler, the client gets the 503 and the connection closes so it backs off
+    private boolean rejectRequest(Socket connection, ResponseWriter writer, HttpRequest req, long started) throws IOException {
+        writer.write(limiter.encodedRejection());
+        metrics.response(503);
+        var log = accessLog;
+        if(log != null) {
+            log.log(connection.getInetAddress().getHostAddress(), req.head(), 503, 0, System.nanoTime() - started);
+        }
+        return false;
+    }
+    private boolean isExecutorBacklogged() {
+        return queuedConnections.get() > 0 && lastQueueWaitNanos > config.admission().maxQueueWait().toNanos();
+    }
+    // lingers on a virtual thread of its own so shedding never takes one from the executor. Past MAX_SHEDDING the
+    // connection is reset instead, it would otherwise hold a descriptor the server is short of already.
+    private void startShedding(Socket connection) {
+        if(!sheddingPermits.tryAcquire()) {
+            metrics.shed();
+            reset(connection);
+            return;
+        }
+        shedding.add(connection);
+        if(!isRunning) { // stop() may have closed the others already
+            closeShedding(connection);
+            return;
+        }
+        Thread.startVirtualThread(() -> shed(connection));
+    }
+    // turned away before a byte of it is read, the client finds the 503 when it goes to read its response
+    private void shed(Socket connection) {
+        metrics.shed();
+        metrics.response(503);
+        try {
+            var rejection = limiter.encodedRejection();
+            connection.getOutputStream().write(rejection);
+            metrics.bytesOut(rejection.length);
+            lingerBeforeClose(connection);
+        }
+        catch (IOException ignored) {
 
         }
+        finally {
+            closeShedding(connection);
+        }
     }
-    private boolean shouldReuseConnection(Map<String, List<String>> headers) {
-        return headers.getOrDefault(CONNECTION_HEADER, List.of(CONNECTION_HEADER_KEEP_ALIVE)).get(0).equals(CONNECTION_HEADER_KEEP_ALIVE);
+    private void closeShedding(Socket connection) {
+        closeConnection(connection);
+        if(shedding.remove(connection)) sheddingPermits.release();
     }
-    private void PrintRequest(HttpRequest request) {
-        System.out.println("Method: " + request.method());
-        System.out.println("Url: " + request.url());
-        System.out.println("Headers:");
-        request.headers().forEach((k, v) -> {
-            System.out.println("%s - %s".formatted(k, v));
-        });
-        System.out.println("Body:");
-        if(request.body().length > 0) {
-            System.out.println(new String(request.body(), StandardCharsets.UTF_8));
-        }
-        else {
-            System.out.println("Body is Empty");
-        }
-    }
-    private Map<String, List<String>> readHeaders(String[] lines) {
-        var headers = new HashMap<String, List<String>>();
-        for(int i = 1; i < lines.length; i++) {
-            var line = lines[i];
-            if(line.isEmpty()) break;
-            var keyValue = line.split(":");
-            var key = keyValue[0].toLowerCase().strip();
-            var value = keyValue[1].strip();
-            headers.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
-        }
-        return headers;
-    }
-    private byte[] readBody(InputStream stream, byte[] readBody, int expectedBodyLength) throws IOException {
-        if(readBody.length == expectedBodyLength) return readBody;
-        var result = new ByteArrayOutputStream(expectedBodyLength);
-        result.write(readBody);
-        var readBytes = readBody.length;
-        var buffer = new byte[DEFAULT_BUFFER_SIZE];
-        while(readBytes < expectedBodyLength) {
-            var read = stream.read(buffer);
-            if(read > 0) {
-                result.write(buffer, 0, read);
-                readBytes += read;
+    // an RST instead of a FIN, nothing of the connection is left behind in TIME_WAIT either
+    private void reset(Socket connection) {
+        try {
+            connection.setSoLinger(true, 0);
+        }
+        catch (IOException ignored) {
+
+        }
+        closeConnection(connection);
+    }
+    // the handler holds no thread while it waits on others, this one only looks in on the client every now and then
+    // so the handler's stage can be cancelled once nobody is left to answer. A client that half-closes after sending
+    // its request counts as gone, as it does for most proxies.
+    private HttpResponse awaitResponse(ConnectionReader reader, HttpRequest req, CompletableFuture<HttpResponse> response) throws Exception {
+        while(true) {
+            try {
+                return response.get(CLIENT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
             }
-            else {
-                break;
+            catch (TimeoutException e) {
+                // a streamed body may still be read by the handler, the socket is its until then
+                var bodyInUse = req.isBodyStreamed() && !(req.bodyStream() instanceof RequestBodyStream body && body.isFinished());
+                if(!bodyInUse && reader.isClosedByClient()) {
+                    response.cancel(true);
+                    throw new EOFException("Client closed the connection before its response was ready");
+                }
             }
         }
-        return result.toByteArray();
+    }
+    private void respondAndClose(Socket connection, ResponseWriter writer, HttpResponse res) {
+        try {
+            metrics.response(res.responseCode());
+            writer.write(res);
+            writer.flush();
+            lingerBeforeClose(connection);
+        }
+        catch (IOException ignored) {
+
+        }
+        finally {
+            closeConnection(connection);
+        }
+    }
+    // closing with request bytes still unread resets the connection, and the client may lose the error response
+    // before reading it. Half-close and discard input for a moment so the response gets through.
+    private void lingerBeforeClose(Socket connection) throws IOException {
+        connection.shutdownOutput();
+        connection.setSoTimeout(LINGER_MILLIS);
+        var deadline = System.nanoTime() + Duration.ofMillis(LINGER_MILLIS).toNanos();
+        var in = connection.getInputStream();
+        var discard = new byte[8192];
+        try {
+            while(System.nanoTime() < deadline && in.read(discard) >= 0) {
+                // dropped
+            }
+        }
+        catch (SocketTimeoutException ignored) {
+
+        }
+    }
+    private void closeConnection(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+
+        }
+        finally {
+            if(connections.remove(connection)) {
+                metrics.connectionClosed();
+            }
+        }
+    }
+    // the idle connection unused the longest, closed to make room for a new one at the cap. Its thread is blocked
+    // reading and fails out quietly.
+    private void evict(Socket connection) {
+        metrics.connectionEvicted();
+        closeConnection(connection);
     }
     @Override
     public void stop() {
+        stop(DEFAULT_DRAIN_TIMEOUT);
+    }
+    // stops accepting, lets requests already being handled finish until the deadline and then closes whatever is left
+    public void stop(Duration drainTimeout) {
         if(isServerRunning()) {
             try {
-                serverSocket.close();
-
+                isRunning = false;
+                for(var serverChannel : serverChannels) {
+                    serverChannel.close();
+                }
             }
             catch (Exception e) {
                 throw new RuntimeException("Fail to close the server", e);
             }
             finally {
-                serverSocket = null;
+                serverChannels = null;
                 isRunning = false;
+                drainConnections(drainTimeout);
             }
         }
     }
+    private void drainConnections(Duration drainTimeout) {
+        webSockets.forEach(webSocket -> webSocket.close(WebSocketCodec.GOING_AWAY, "Server is shutting down"));
+        connections.connections().forEach(connection -> {
+            if(connections.claimIdle(connection)) {
+                closeConnection(connection); // idle keep-alive connections have nothing to finish
+            }
+        });
+        var deadline = System.nanoTime() + drainTimeout.toNanos();
+        try {
+            while(!connections.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connections.connections().forEach(this::closeConnection);
+        shedding.forEach(this::closeShedding); // cuts their lingering short, the 503 is written first thing
+        if(ownsConnectionHandler && connectionHandler instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
 }
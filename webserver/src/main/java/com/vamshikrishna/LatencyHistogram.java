@@ -0,0 +1,85 @@
+package com.vamshikrishna;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// log-linear histogram in the style of HdrHistogram: every power of two is split into SUB_BUCKETS linear buckets,
+// so any recorded nanosecond value lands in a bucket at most 1/16 wider than itself, from 1ns up to Long.MAX_VALUE,
+// in a fixed array. Recording is an index computation and an atomic increment, no locks and no allocation.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    // the le boundaries exported to Prometheus, in seconds, from a microsecond to ten seconds
+    private static final double[] EXPORTED_BOUNDS = {
+            0.000001, 0.0000025, 0.000005, 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005,
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final String[] EXPORTED_LABELS = new String[EXPORTED_BOUNDS.length];
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+
+    static {
+        for(int i = 0; i < EXPORTED_BOUNDS.length; i++) {
+            EXPORTED_LABELS[i] = BigDecimal.valueOf(EXPORTED_BOUNDS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        sum.add(nanos);
+    }
+
+    // cumulative buckets as Prometheus expects them. A bucket straddling an le boundary is counted in the next
+    // one up, so a value can show up one boundary late but never early.
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        var snapshot = snapshot();
+        var cumulative = 0L;
+        var index = 0;
+        for(int b = 0; b < EXPORTED_BOUNDS.length; b++) {
+            var boundNanos = Math.round(EXPORTED_BOUNDS[b] * 1e9);
+            while(index < snapshot.length && upperBound(index) <= boundNanos) {
+                cumulative += snapshot[index++];
+            }
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(EXPORTED_LABELS[b]).append("\"} ").append(cumulative).append('\n');
+        }
+        while(index < snapshot.length) {
+            cumulative += snapshot[index++];
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(String.format(Locale.ROOT, "%.9f", sum.sum() / 1e9)).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    private long[] snapshot() {
+        var snapshot = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    // values below SUB_BUCKETS get a bucket each, above that the top SUB_BUCKET_BITS + 1 bits pick the bucket
+    private static int indexOf(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        var shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        var subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int index) {
+        if(index < SUB_BUCKETS) return index;
+        var shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    private static long upperBound(int index) {
+        if(index < SUB_BUCKETS) return index;
+        var shift = index / SUB_BUCKETS - 1;
+        return lowerBound(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,23 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+
+// serves a server's metrics in the Prometheus text format, mount it wherever the scraper looks:
+//   new Router().get("/metrics", new MetricsHandler(server.metrics())).fallback(handler)
+public class MetricsHandler implements HttpRequestHandler {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final ServerMetrics metrics;
+
+    public MetricsHandler(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        var body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+        return new HttpResponse(200, new HttpHeaders(3)
+                .add("Content-Type", CONTENT_TYPE)
+                .add("Content-Length", String.valueOf(body.length))
+                .add("Cache-Control", "no-store"), body);
+    }
+}
@@ -0,0 +1,563 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+final class NioConnection {
+    private static final int INITIAL_BUFFER_SIZE = 8_192;
+    private static final int STREAMED_BODY_CAPACITY = 256 * 1024;
+    private static final int MAX_PUMPED_BYTES = 256 * 1024;
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private final NioEventLoop loop;
+    private final SelectionKey key;
+    private final SocketChannel channel;
+    private final Executor requestExecutor;
+    private final HttpRequestHandler requestHandler;
+    private final AsyncDispatcher asyncDispatcher;
+    private final ConnectionPolicy policy;
+    private final int maxInMemoryBodySize;
+    private final ConnectionTracker<NioConnection> connections;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    // pooled buffers go back to the pool as soon as they have been written
+    private final ArrayDeque<PooledBuffer> outbound = new ArrayDeque<>();
+    private final Set<PooledBuffer> pumped = Collections.newSetFromMap(new IdentityHashMap<>());
+    private ResponseBody outboundBody;
+    private volatile PumpOutput pumpOutput;
+    private final HttpRequestParser parser = new HttpRequestParser();
+    // only held while there are unparsed bytes, idle keep-alive connections give it back to the pool
+    private PooledBuffer pooledReadBuffer;
+    private ByteBuffer readBuffer;
+    private RequestHead head;
+    private BodyDecoder bodyDecoder;
+    private byte[] body;
+    private int bodyRead;
+    // set while a handler reads the body of the current request as it arrives
+    private PipedRequestBody requestBody;
+    private BodyDecoder requestBodyDecoder;
+    private boolean requestBodyPaused;
+    private boolean processing;
+    // an async handler is working on the response, reading goes on meanwhile to notice the client going away
+    private boolean awaitingResponse;
+    private volatile CompletableFuture<HttpResponse> pendingResponse;
+    private boolean responseQueued;
+    private boolean pumping;
+    private boolean closeAfterWrite;
+    private long lastActivity = System.currentTimeMillis();
+    // when the first bytes of the head being read arrived, for the header timeout
+    private long headStartedAt;
+    private int served;
+    private long parseNanos;
+    // the request being answered and what was sent for it, recorded once the response is on the wire
+    private RequestHead inFlight;
+    private long dispatchedAt;
+    private Handled handled;
+
+    // how a handler answered, handed from the worker to the event loop along with the encoded response
+    private record Handled(int status, long bodyLength, long handledAt) {
+    }
+
+    NioConnection(NioEventLoop loop, SelectionKey key, SocketChannel channel, Executor requestExecutor, HttpRequestHandler requestHandler,
+                  AsyncDispatcher asyncDispatcher, ConnectionPolicy policy, int maxInMemoryBodySize, ConnectionTracker<NioConnection> connections,
+                  ServerMetrics metrics, AccessLog accessLog) {
+        this.loop = loop;
+        this.key = key;
+        this.channel = channel;
+        this.requestExecutor = requestExecutor;
+        this.requestHandler = requestHandler;
+        this.asyncDispatcher = asyncDispatcher;
+        this.policy = policy;
+        this.maxInMemoryBodySize = maxInMemoryBodySize;
+        this.connections = connections;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+    }
+
+    void onReady() {
+        try {
+            if(key.isValid() && key.isReadable()) {
+                read();
+            }
+            if(key.isValid() && key.isWritable()) {
+                flush();
+            }
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    // the timeout that applies depends on what the connection is waiting for. Nothing times out while a handler
+    // runs, a response is being written or a slow handler holds back the body, a head that doesn't arrive in time
+    // gets a 408.
+    void closeIfTimedOut(long now) {
+        var readingBody = requestBody != null ? !requestBodyDecoder.isDone() && !requestBodyPaused : bodyDecoder != null;
+        if(processing && !readingBody) return;
+        if(readingBody) {
+            if(now - lastActivity < policy.bodyTimeout().toMillis()) return;
+            metrics.timeout();
+            close();
+        }
+        else if(readBuffer != null && readBuffer.position() > 0) {
+            if(now - headStartedAt < policy.headerTimeout().toMillis()) return;
+            metrics.timeout();
+            respondAndClose(408);
+        }
+        else if(now - lastActivity >= policy.idleTimeout().toMillis()) {
+            metrics.timeout();
+            close();
+        }
+    }
+
+    // called off the loop when the connection cap needs room and this is the connection idle the longest
+    void evict() {
+        loop.execute(() -> {
+            metrics.connectionEvicted();
+            close();
+        });
+    }
+
+    void close() {
+        if(connections.remove(this)) metrics.connectionClosed();
+        try {
+            key.cancel();
+            channel.close();
+        } catch (IOException ignored) {
+
+        }
+        closeOutboundBody();
+        outbound.forEach(PooledBuffer::release);
+        outbound.clear();
+        pumped.clear();
+        releaseReadBuffer();
+        if(requestBody != null) requestBody.fail(PipedRequestBody.connectionClosed());
+        var pending = pendingResponse;
+        if(pending != null) pending.cancel(true);
+        var output = pumpOutput;
+        if(output != null) output.close();
+    }
+
+    private void read() throws IOException {
+        if(readBuffer == null) acquireReadBuffer(INITIAL_BUFFER_SIZE);
+        var read = channel.read(readBuffer);
+        if(read < 0) {
+            close();
+            return;
+        }
+        metrics.bytesIn(read);
+        lastActivity = System.currentTimeMillis();
+        if(readBuffer.position() == read && head == null && bodyDecoder == null && requestBody == null) {
+            headStartedAt = lastActivity; // first bytes of a new request
+        }
+        if(requestBody != null) {
+            feedRequestBody();
+            return;
+        }
+        processInput();
+        if(awaitingResponse) updateInterest(); // stops reading once the buffer is full of pipelined requests
+    }
+
+    private void acquireReadBuffer(int capacity) {
+        var previous = pooledReadBuffer;
+        pooledReadBuffer = BufferPool.DIRECT.acquire(capacity);
+        readBuffer = pooledReadBuffer.buffer();
+        if(previous != null) {
+            readBuffer.put(previous.buffer().flip());
+            previous.release();
+        }
+    }
+
+    private void releaseReadBuffer() {
+        if(pooledReadBuffer == null) return;
+        pooledReadBuffer.release();
+        pooledReadBuffer = null;
+        readBuffer = null;
+    }
+
+    // parses as much as is buffered, but keeps at most one request in flight so pipelined responses stay in order
+    private void processInput() {
+        try {
+            while(readBuffer != null && !processing && key.isValid()) {
+                if(head == null && !readHead()) break;
+                if(processing) break; // handed to the handler with a streamed body
+                if(bodyDecoder != null && !readBufferedBody()) break;
+                var request = new HttpRequest(head, body == null ? EMPTY_BODY : body);
+                head = null;
+                bodyDecoder = null;
+                body = null;
+                bodyRead = 0;
+                dispatch(request);
+            }
+            if(readBuffer != null && readBuffer.position() == 0 && head == null && requestBody == null) {
+                releaseReadBuffer();
+            }
+        }
+        catch (HttpParseException e) {
+            respondAndClose(e.responseCode());
+        }
+    }
+
+    private boolean readHead() {
+        var started = System.nanoTime();
+        if(!parser.parse(readBuffer, readBuffer.position())) {
+            parseNanos += System.nanoTime() - started;
+            if(!readBuffer.hasRemaining()) {
+                acquireReadBuffer(readBuffer.capacity() * 2);
+            }
+            return false;
+        }
+        head = parser.toHead(readBuffer);
+        metrics.parseLatency.record(parseNanos + System.nanoTime() - started);
+        parseNanos = 0;
+        readBuffer.flip().position(parser.headEnd());
+        readBuffer.compact();
+        parser.reset(0);
+        bodyDecoder = HttpCodec.bodyDecoder(head);
+        if(bodyDecoder == null) return true;
+        var streaming = requestHandler.acceptsStreamingBody() && (bodyDecoder.isChunked() || bodyDecoder.length() > maxInMemoryBodySize);
+        if(!streaming && bodyDecoder.length() > maxInMemoryBodySize) {
+            throw new HttpParseException(413, "Request body of %d bytes is larger than %d".formatted(bodyDecoder.length(), maxInMemoryBodySize));
+        }
+        if(HttpCodec.expectsContinue(head)) {
+            outbound.add(PooledBuffer.unpooled(ByteBuffer.wrap(HttpCodec.CONTINUE_RESPONSE)));
+            flushSafely();
+        }
+        if(streaming) {
+            requestBody = new PipedRequestBody(STREAMED_BODY_CAPACITY, () -> loop.execute(this::resumeRequestBody));
+            requestBodyDecoder = bodyDecoder;
+            var request = new HttpRequest(head, requestBody);
+            head = null;
+            bodyDecoder = null;
+            dispatch(request);
+            if(key.isValid()) feedRequestBody();
+            return true;
+        }
+        body = new byte[bodyDecoder.isChunked() ? Math.min(INITIAL_BUFFER_SIZE, maxInMemoryBodySize) : (int) bodyDecoder.length()];
+        return true;
+    }
+
+    // chunked bodies grow their array up to the in-memory limit
+    private boolean readBufferedBody() {
+        while(!bodyDecoder.isDone()) {
+            if(bodyRead == body.length) {
+                if(body.length >= maxInMemoryBodySize) {
+                    throw new HttpParseException(413, "Chunked request body is larger than %d".formatted(maxInMemoryBodySize));
+                }
+                body = Arrays.copyOf(body, (int) Math.min((long) body.length * 2, maxInMemoryBodySize));
+            }
+            if(readBuffer.position() == 0) return false;
+            readBuffer.flip();
+            bodyRead += bodyDecoder.decode(readBuffer, body, bodyRead, body.length - bodyRead);
+            readBuffer.compact();
+        }
+        if(bodyRead < body.length) body = Arrays.copyOf(body, bodyRead);
+        return true;
+    }
+
+    private void feedRequestBody() {
+        try {
+            while(readBuffer.position() > 0 && !requestBodyDecoder.isDone() && !requestBodyPaused) {
+                readBuffer.flip();
+                var chunk = new byte[readBuffer.remaining()];
+                var n = requestBodyDecoder.decode(readBuffer, chunk, 0, chunk.length);
+                readBuffer.compact();
+                if(n > 0 && !requestBody.offer(n == chunk.length ? chunk : Arrays.copyOf(chunk, n))) {
+                    requestBodyPaused = true; // the handler is behind, stop reading and let TCP push back on the client
+                }
+            }
+        }
+        catch (HttpParseException e) {
+            requestBody.fail(new IOException(e.getMessage(), e));
+            close();
+            return;
+        }
+        if(requestBodyDecoder.isDone()) requestBody.finish();
+        updateInterest();
+    }
+
+    private void resumeRequestBody() {
+        if(requestBody == null || !key.isValid()) return;
+        requestBodyPaused = false;
+        feedRequestBody();
+    }
+
+    private void dispatch(HttpRequest request) {
+        processing = true;
+        if(!connections.markBusy(this)) { // claimed for eviction, the client will retry elsewhere
+            close();
+            return;
+        }
+        inFlight = request.head();
+        dispatchedAt = System.nanoTime();
+        var lastRequest = ++served >= policy.maxRequestsPerConnection();
+        awaitingResponse = requestHandler instanceof AsyncHttpRequestHandler;
+        updateInterest(); // stop reading until the response is out, TCP pushes back on the client
+        try {
+            requestExecutor.execute(() -> handle(request, lastRequest));
+        }
+        catch (RejectedExecutionException e) {
+            respondAndClose(503);
+        }
+    }
+
+    // runs on the request executor. An async handler's worker is free again as soon as it has its stage, the
+    // response is encoded on a worker once the stage completes.
+    private void handle(HttpRequest request, boolean lastRequest) {
+        var started = System.nanoTime();
+        if(!(requestHandler instanceof AsyncHttpRequestHandler async)) {
+            respond(request, () -> requestHandler.handle(request), lastRequest, started);
+            return;
+        }
+        CompletableFuture<HttpResponse> response;
+        try {
+            response = asyncDispatcher.dispatch(async, request);
+        }
+        catch (HttpParseException e) {
+            respond(request, () -> { throw e; }, lastRequest, started); // answered like a plain handler's failure
+            return;
+        }
+        pendingResponse = response;
+        if(!key.isValid()) response.cancel(true); // closed before close() could see it
+        if(response.isDone()) {
+            if(!response.isCancelled()) respond(request, response::join, lastRequest, started);
+            return;
+        }
+        response.thenAccept(res -> {
+            try {
+                requestExecutor.execute(() -> respond(request, () -> res, lastRequest, started));
+            }
+            catch (RejectedExecutionException e) {
+                loop.execute(() -> respondAndClose(503));
+            }
+        });
+    }
+
+    // hands the encoded response back to the event loop. Bodies that may block while producing their bytes are
+    // pumped from this thread so they never stall the loop.
+    private void respond(HttpRequest request, Supplier<HttpResponse> handler, boolean lastRequest, long started) {
+        pendingResponse = null;
+        PooledBuffer[] response;
+        ResponseBody streamingBody = null;
+        boolean keepAlive;
+        Handled outcome;
+        try {
+            var res = handler.get();
+            if(WebSocketUpgrade.of(res) != null) res = HttpCodec.errorResponse(501); // only the blocking server switches protocols
+            outcome = new Handled(res.responseCode(), AccessLog.bodyLength(res), System.nanoTime());
+            metrics.handlerLatency.record(outcome.handledAt() - started);
+            keepAlive = !lastRequest && HttpCodec.shouldReuseConnection(request, res);
+            response = ResponseEncoder.encode(res, BufferPool.DIRECT, HttpCodec.connectionHeader(request, keepAlive));
+            streamingBody = res.streamingBody();
+        }
+        catch (Exception e) {
+            System.out.println("Problem while handling request");
+            e.printStackTrace();
+            outcome = new Handled(500, 0, System.nanoTime());
+            response = ResponseEncoder.encode(HttpCodec.errorResponse(500), BufferPool.DIRECT);
+            keepAlive = false;
+        }
+        var encoded = response;
+        var reuse = keepAlive;
+        var answer = outcome;
+        if(streamingBody == null || streamingBody.isNonBlocking()) {
+            var body = streamingBody;
+            loop.execute(() -> write(encoded, body, reuse, false, answer));
+            return;
+        }
+        var output = new PumpOutput();
+        pumpOutput = output;
+        loop.execute(() -> write(encoded, null, reuse, true, answer));
+        try (var body = streamingBody) {
+            while(!body.writeTo(output)) {
+                // PumpOutput blocks rather than returning short writes
+            }
+        }
+        catch (IOException e) {
+            loop.execute(this::close);
+        }
+        finally {
+            pumpOutput = null;
+            loop.execute(() -> {
+                pumping = false;
+                flushSafely();
+            });
+        }
+    }
+
+    private void respondAndClose(int responseCode) {
+        processing = true;
+        var res = HttpCodec.errorResponse(responseCode);
+        write(ResponseEncoder.encode(res, BufferPool.DIRECT), null, false, false, new Handled(responseCode, AccessLog.bodyLength(res), System.nanoTime()));
+    }
+
+    private void write(PooledBuffer[] response, ResponseBody body, boolean keepAlive, boolean bodyPumped, Handled outcome) {
+        awaitingResponse = false;
+        outboundBody = body;
+        handled = outcome;
+        if(!key.isValid()) {
+            closeOutboundBody();
+            for(var buffer : response) {
+                buffer.release();
+            }
+            return;
+        }
+        for(var buffer : response) {
+            if(buffer.buffer().hasRemaining()) outbound.add(buffer);
+            else buffer.release();
+        }
+        closeAfterWrite = !keepAlive;
+        responseQueued = true;
+        pumping = bodyPumped;
+        flushSafely();
+    }
+
+    private void writePumped(PooledBuffer buffer) {
+        if(!key.isValid()) {
+            buffer.release();
+            return;
+        }
+        outbound.add(buffer);
+        pumped.add(buffer);
+        flushSafely();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        if(!outbound.isEmpty()) {
+            var buffers = new ByteBuffer[outbound.size()];
+            var i = 0;
+            for(var pooled : outbound) {
+                buffers[i++] = pooled.buffer();
+            }
+            metrics.bytesOut(channel.write(buffers));
+            while(!outbound.isEmpty() && !outbound.peek().buffer().hasRemaining()) {
+                var written = outbound.poll();
+                var output = pumpOutput;
+                if(pumped.remove(written) && output != null) output.release(written.buffer().limit());
+                written.release();
+            }
+        }
+        if(outbound.isEmpty() && outboundBody != null && outboundBody.writeTo(channel)) { // transferTo/write until the socket pushes back
+            metrics.bytesOut(outboundBody.length()); // only non-blocking bodies get here and they all know their length
+            closeOutboundBody();
+        }
+        lastActivity = System.currentTimeMillis();
+        if(responseQueued && !pumping && outbound.isEmpty() && outboundBody == null) {
+            completeResponse();
+            return;
+        }
+        updateInterest();
+    }
+
+    private void completeResponse() {
+        recordResponse();
+        var unreadBody = requestBody != null && !requestBodyDecoder.isDone();
+        requestBody = null;
+        requestBodyDecoder = null;
+        requestBodyPaused = false;
+        responseQueued = false;
+        processing = false;
+        if(closeAfterWrite || unreadBody) { // what is left of the body would be parsed as the next request
+            close();
+            return;
+        }
+        connections.markIdle(this);
+        headStartedAt = lastActivity; // a pipelined request already buffered starts its clock now
+        updateInterest();
+        processInput();
+    }
+
+    private void recordResponse() {
+        var now = System.nanoTime();
+        metrics.writeLatency.record(now - handled.handledAt());
+        metrics.response(handled.status());
+        if(accessLog != null && inFlight != null) {
+            var address = channel.socket().getInetAddress();
+            accessLog.log(address == null ? "-" : address.getHostAddress(), inFlight, handled.status(), handled.bodyLength(), now - dispatchedAt);
+        }
+        inFlight = null;
+        handled = null;
+    }
+
+    private void updateInterest() {
+        if(!key.isValid()) return;
+        var reading = !processing || (requestBody != null && !requestBodyDecoder.isDone() && !requestBodyPaused)
+                || (awaitingResponse && requestBody == null && (readBuffer == null || readBuffer.hasRemaining()));
+        var writing = !outbound.isEmpty() || outboundBody != null;
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void closeOutboundBody() {
+        if(outboundBody == null) return;
+        try {
+            outboundBody.close();
+        } catch (IOException ignored) {
+
+        }
+        outboundBody = null;
+    }
+
+    // blocking channel the worker pumps a response body into. Writes are copied over to the event loop and the
+    // worker waits once MAX_PUMPED_BYTES are queued there but not yet on the wire.
+    private final class PumpOutput implements WritableByteChannel {
+        private final Semaphore permits = new Semaphore(MAX_PUMPED_BYTES);
+        private volatile boolean closed;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            var n = Math.min(src.remaining(), BufferPool.MAX_POOLED_SIZE);
+            if(n == 0) return 0;
+            try {
+                permits.acquire(n);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the response body");
+            }
+            if(closed) throw new ClosedChannelException();
+            var copy = BufferPool.DIRECT.acquire(n);
+            copy.buffer().put(src.slice(src.position(), n)).flip();
+            src.position(src.position() + n);
+            loop.execute(() -> writePumped(copy));
+            return n;
+        }
+
+        void release(int bytes) {
+            permits.release(bytes);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            permits.release(MAX_PUMPED_BYTES);
+        }
+    }
+}
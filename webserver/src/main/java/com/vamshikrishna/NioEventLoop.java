@@ -0,0 +1,132 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+final class NioEventLoop implements Executor {
+    private static final long SELECT_TIMEOUT_MILLIS = 1_000;
+    private final Thread thread;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Executor requestExecutor;
+    private final HttpRequestHandler requestHandler;
+    private final AsyncDispatcher asyncDispatcher;
+    private final ConnectionPolicy policy;
+    private final int maxInMemoryBodySize;
+    private final ConnectionTracker<NioConnection> connections;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private volatile boolean isRunning = true;
+    private long lastTimeoutCheck;
+
+    NioEventLoop(String name, Executor requestExecutor, HttpRequestHandler requestHandler, AsyncDispatcher asyncDispatcher, ConnectionPolicy policy,
+                 int maxInMemoryBodySize, ConnectionTracker<NioConnection> connections, ServerMetrics metrics, AccessLog accessLog) throws IOException {
+        this.selector = Selector.open();
+        this.requestExecutor = requestExecutor;
+        this.requestHandler = requestHandler;
+        this.asyncDispatcher = asyncDispatcher;
+        this.policy = policy;
+        this.maxInMemoryBodySize = maxInMemoryBodySize;
+        this.connections = connections;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.thread = new Thread(this::run, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                var key = channel.register(selector, SelectionKey.OP_READ);
+                var connection = new NioConnection(this, key, channel, requestExecutor, requestHandler, asyncDispatcher, policy, maxInMemoryBodySize, connections, metrics, accessLog);
+                key.attach(connection);
+                connections.add(connection);
+            }
+            catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+
+                }
+                connections.release();
+                metrics.connectionClosed();
+            }
+        });
+    }
+
+    // everything touching a connection's buffers or its SelectionKey must run through here
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if(Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while(isRunning) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                runTasks();
+                var keys = selector.selectedKeys();
+                for(var key : keys) {
+                    var connection = (NioConnection) key.attachment();
+                    if(connection != null) {
+                        connection.onReady();
+                    }
+                }
+                keys.clear();
+                closeTimedOutConnections();
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Event loop %s failed".formatted(thread.getName()));
+            e.printStackTrace();
+        }
+        finally {
+            for(var key : selector.keys()) {
+                if(key.attachment() instanceof NioConnection connection) {
+                    connection.close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    // timeouts are checked about once a second, which is as precise as they get
+    private void closeTimedOutConnections() {
+        var now = System.currentTimeMillis();
+        if(now - lastTimeoutCheck < SELECT_TIMEOUT_MILLIS) return;
+        lastTimeoutCheck = now;
+        for(var key : selector.keys()) {
+            if(key.attachment() instanceof NioConnection connection) {
+                connection.closeIfTimedOut(now);
+            }
+        }
+    }
+}
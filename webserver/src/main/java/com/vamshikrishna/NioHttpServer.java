@@ -0,0 +1,153 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Executor;
+
+public class NioHttpServer implements HttpServer {
+    private final Executor requestExecutor;
+    private final HttpServerConfig config;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final ConnectionTracker<NioConnection> connections;
+    private final AsyncDispatcher asyncDispatcher;
+    private volatile AccessLog accessLog;
+    private ServerSocketChannel[] serverChannels;
+    private NioEventLoop[] eventLoops;
+    private volatile boolean isRunning;
+
+    public NioHttpServer(Executor requestExecutor, int port, int connectionTimeout) {
+        this(requestExecutor, port, connectionTimeout, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioHttpServer(Executor requestExecutor, int port, int connectionTimeout, int eventLoopCount) {
+        this(requestExecutor, port, connectionTimeout, eventLoopCount, HttpServerImpl.DEFAULT_MAX_IN_MEMORY_BODY_SIZE);
+    }
+
+    public NioHttpServer(Executor requestExecutor, int port, int connectionTimeout, int eventLoopCount, int maxInMemoryBodySize) {
+        this(requestExecutor, port, ConnectionPolicy.withTimeout(connectionTimeout), eventLoopCount, maxInMemoryBodySize);
+    }
+
+    public NioHttpServer(Executor requestExecutor, int port, ConnectionPolicy policy) {
+        this(requestExecutor, HttpServerConfig.builder(port).policy(policy).build());
+    }
+
+    public NioHttpServer(Executor requestExecutor, int port, ConnectionPolicy policy, int eventLoopCount, int maxInMemoryBodySize) {
+        this(requestExecutor, HttpServerConfig.builder(port).policy(policy).eventLoops(eventLoopCount).maxInMemoryBodySize(maxInMemoryBodySize).build());
+    }
+
+    public NioHttpServer(Executor requestExecutor, HttpServerConfig config) {
+        this.requestExecutor = requestExecutor;
+        this.config = config;
+        this.connections = new ConnectionTracker<>(config.policy().maxConnections(), NioConnection::evict);
+        this.asyncDispatcher = config.asyncDispatcher();
+    }
+
+    @Override
+    public void start(HttpRequestHandler requestHandler) {
+        if(isServerRunning()) {
+            throw new RuntimeException("Server is running on port %d already".formatted(config.port()));
+        }
+        startServer(requestHandler);
+    }
+
+    @Override
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    private boolean isServerRunning() {
+        return serverChannels != null && isRunning;
+    }
+
+    private void startServer(HttpRequestHandler requestHandler) {
+        try {
+            serverChannels = config.openServerChannels();
+            eventLoops = new NioEventLoop[config.eventLoops()];
+            for(int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop("nio-event-loop-" + i, requestExecutor, requestHandler, asyncDispatcher, config.policy(),
+                        config.maxInMemoryBodySize(), connections, metrics, accessLog);
+                eventLoops[i].start();
+            }
+            isRunning = true;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Failed to start the Http Server on port %s".formatted(config.port()), e);
+        }
+        for(int i = 0; i < config.acceptors(); i++) {
+            var serverChannel = serverChannels[i % serverChannels.length];
+            var group = eventLoopGroup(i);
+            new Thread(() -> acceptConnections(serverChannel, group), "nio-acceptor-" + i).start();
+        }
+    }
+
+    // acceptor i feeds every loop whose index matches it modulo the number of groups, so acceptors never share a
+    // round-robin counter. With fewer loops than acceptors some acceptors share a loop.
+    private NioEventLoop[] eventLoopGroup(int acceptor) {
+        var groups = Math.min(config.acceptors(), eventLoops.length);
+        var group = new NioEventLoop[(eventLoops.length - acceptor % groups + groups - 1) / groups];
+        for(int i = 0; i < group.length; i++) {
+            group[i] = eventLoops[acceptor % groups + i * groups];
+        }
+        return group;
+    }
+
+    private void acceptConnections(ServerSocketChannel serverChannel, NioEventLoop[] group) {
+        var next = 0;
+        try {
+            while(isServerRunning()) {
+                var connection = serverChannel.accept(); // blocking accept, the loops only ever see non-blocking sockets
+                try {
+                    config.configure(connection);
+                }
+                catch (IOException e) {
+                    connection.close(); // the client went away before we got to it
+                    continue;
+                }
+                try {
+                    connections.acquire(); // at the cap an idle connection makes room, with none idle this one waits and the rest queue in the listen backlog
+                }
+                catch (InterruptedException e) {
+                    connection.close();
+                    throw e;
+                }
+                metrics.connectionAccepted();
+                group[next].register(connection);
+                next = (next + 1) % group.length;
+            }
+        }
+        catch (Exception e) {
+            if(isServerRunning()) {
+                stop();
+                throw new RuntimeException("Failed to accept the next connection...", e);
+            }
+            System.out.println("Closing the server...");
+        }
+    }
+
+    @Override
+    public void stop() {
+        if(isServerRunning()) {
+            try {
+                isRunning = false;
+                for(var serverChannel : serverChannels) {
+                    serverChannel.close();
+                }
+                for(var loop : eventLoops) {
+                    loop.shutdown();
+                }
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Fail to close the server", e);
+            }
+            finally {
+                serverChannels = null;
+                eventLoops = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.vamshikrishna;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// values a Router captured from the path. They stay offsets into the path until a handler asks for one.
+final class PathParams {
+    static final PathParams EMPTY = new PathParams("", new String[0], new int[0]);
+    private final String path;
+    private final String[] names;
+    private final int[] bounds;
+
+    PathParams(String path, String[] names, int[] bounds) {
+        this.path = path;
+        this.names = names;
+        this.bounds = bounds;
+    }
+
+    String get(String name) {
+        for(int i = 0; i < names.length; i++) {
+            if(names[i].equals(name)) return value(i);
+        }
+        return null;
+    }
+
+    Map<String, String> toMap() {
+        var params = new LinkedHashMap<String, String>();
+        for(int i = 0; i < names.length; i++) {
+            params.put(names[i], value(i));
+        }
+        return params;
+    }
+
+    private String value(int index) {
+        var raw = path.substring(bounds[index * 2], bounds[index * 2 + 1]);
+        if(raw.indexOf('%') < 0) return raw;
+        try {
+            return URLDecoder.decode(raw.replace("+", "%2B"), StandardCharsets.UTF_8); // '+' is literal in a path
+        }
+        catch (IllegalArgumentException e) {
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.vamshikrishna;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// request body handed from an event loop to the handler thread. The loop offers chunks as they arrive and stops
+// reading from the socket once capacity bytes are waiting, the handler resumes it after draining half of that.
+// A lock rather than synchronized so virtual threads waiting on it don't pin their carrier.
+final class PipedRequestBody extends InputStream {
+    private final int capacity;
+    private final Runnable onDrained;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private byte[] current;
+    private int currentPosition;
+    private int buffered;
+    private boolean paused;
+    private boolean finished;
+    private IOException failure;
+
+    PipedRequestBody(int capacity, Runnable onDrained) {
+        this.capacity = capacity;
+        this.onDrained = onDrained;
+    }
+
+    // false means the producer should stop reading until onDrained runs
+    boolean offer(byte[] chunk) {
+        lock.lock();
+        try {
+            chunks.add(chunk);
+            buffered += chunk.length;
+            readable.signalAll();
+            paused = buffered >= capacity;
+            return !paused;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void fail(IOException cause) {
+        lock.lock();
+        try {
+            if(!finished) failure = cause;
+            readable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+        var resume = false;
+        int n;
+        lock.lock();
+        try {
+            while(current == null && chunks.isEmpty()) {
+                if(failure != null) throw failure;
+                if(finished) return -1;
+                readable.await();
+            }
+            if(current == null) {
+                current = chunks.poll();
+                currentPosition = 0;
+            }
+            n = Math.min(len, current.length - currentPosition);
+            System.arraycopy(current, currentPosition, b, off, n);
+            currentPosition += n;
+            buffered -= n;
+            if(currentPosition == current.length) current = null;
+            if(paused && buffered <= capacity / 2) {
+                paused = false;
+                resume = true;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the request body");
+        }
+        finally {
+            lock.unlock();
+        }
+        if(resume) onDrained.run();
+        return n;
+    }
+
+    @Override
+    public int available() {
+        lock.lock();
+        try {
+            return buffered;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    static IOException connectionClosed() {
+        return new EOFException("Connection closed in the middle of a request body");
+    }
+}
@@ -0,0 +1,52 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a buffer on loan from a BufferPool. Whoever holds a reference calls release() once done with it, retain() adds
+// a reference for bytes that are shared, e.g. one encoded frame written to many connections.
+final class PooledBuffer {
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    // bytes that don't belong to any pool, so they can sit in the same queues as pooled ones
+    static PooledBuffer unpooled(ByteBuffer buffer) {
+        return new PooledBuffer(null, -1, buffer);
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    PooledBuffer retain() {
+        if(references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Buffer was retained after it went back to the pool");
+        }
+        return this;
+    }
+
+    // true when this was the last reference and the buffer went back to the pool
+    boolean release() {
+        var remaining = references.decrementAndGet();
+        if(remaining < 0) throw new IllegalStateException("Buffer was released more often than it was retained");
+        if(remaining > 0) return false;
+        if(pool != null) pool.recycle(this);
+        return true;
+    }
+
+    void reuse() {
+        references.set(1);
+    }
+}
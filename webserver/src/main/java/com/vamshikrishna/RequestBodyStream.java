@@ -0,0 +1,43 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// a request body read straight off the blocking connection as the handler consumes it. Nothing is read ahead,
+// so a slow consumer simply leaves the bytes in the client's socket buffer and TCP slows the client down.
+final class RequestBodyStream extends InputStream {
+    private final ConnectionReader reader;
+    private final BodyDecoder decoder;
+
+    RequestBodyStream(ConnectionReader reader, BodyDecoder decoder) {
+        this.reader = reader;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return reader.readBody(decoder, b, off, len);
+    }
+
+    boolean isFinished() {
+        return decoder.isDone();
+    }
+
+    // whatever the handler left unread has to go before the next request can be parsed, up to a limit
+    boolean drain(long maxBytes) throws IOException {
+        var scratch = new byte[8_192];
+        var drained = 0L;
+        while(drained <= maxBytes) {
+            var n = read(scratch, 0, scratch.length);
+            if(n < 0) return true;
+            drained += n;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,189 @@
+package com.vamshikrishna;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// parsed request head kept as raw bytes plus offsets, strings are only built when someone asks for them
+final class RequestHead {
+    static final int METHOD_START = 0;
+    static final int METHOD_END = 1;
+    static final int TARGET_START = 2;
+    static final int TARGET_END = 3;
+    static final int VERSION_START = 4;
+    static final int VERSION_END = 5;
+    static final int HEADERS_OFFSET = 6;
+    static final int NAME_START = 0;
+    static final int NAME_END = 1;
+    static final int VALUE_START = 2;
+    static final int VALUE_END = 3;
+    static final int NAME_ID = 4;
+    static final int SLOTS_PER_HEADER = 5;
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+
+    private final byte[] bytes;
+    private final int[] offsets;
+    private final int headerCount;
+    private String method;
+    private String target;
+
+    RequestHead(byte[] bytes, int[] offsets, int headerCount) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.headerCount = headerCount;
+    }
+
+    String method() {
+        if(method == null) {
+            var start = offsets[METHOD_START];
+            var end = offsets[METHOD_END];
+            for(var known : METHODS) {
+                if(known.length() == end - start && matches(known, start)) {
+                    return method = known;
+                }
+            }
+            method = ascii(start, end);
+        }
+        return method;
+    }
+
+    String target() {
+        if(target == null) {
+            target = ascii(offsets[TARGET_START], offsets[TARGET_END]);
+        }
+        return target;
+    }
+
+    String path() {
+        var query = queryStart();
+        return query < 0 ? target() : ascii(offsets[TARGET_START], query - 1);
+    }
+
+    String query() {
+        var query = queryStart();
+        return query < 0 ? null : ascii(query, offsets[TARGET_END]);
+    }
+
+    boolean isHttp11() {
+        return bytes[offsets[VERSION_END] - 1] == '1';
+    }
+
+    int headerCount() {
+        return headerCount;
+    }
+
+    String headerName(int index) {
+        var slot = slot(index);
+        var id = offsets[slot + NAME_ID];
+        if(id != HttpHeaderNames.UNKNOWN) return HttpHeaderNames.name(id);
+        return ascii(offsets[slot + NAME_START], offsets[slot + NAME_END]).toLowerCase(Locale.ROOT);
+    }
+
+    String headerValue(int index) {
+        var slot = slot(index);
+        return new String(bytes, offsets[slot + VALUE_START], offsets[slot + VALUE_END] - offsets[slot + VALUE_START], StandardCharsets.ISO_8859_1);
+    }
+
+    // case-insensitive and allocation free, known names are compared by id
+    int indexOf(String name, int from) {
+        var id = HttpHeaderNames.idOf(name);
+        for(int i = from; i < headerCount; i++) {
+            var slot = slot(i);
+            if(id != HttpHeaderNames.UNKNOWN ? offsets[slot + NAME_ID] == id : nameEqualsIgnoreCase(slot, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    String firstValue(String name) {
+        var index = indexOf(name, 0);
+        return index < 0 ? null : headerValue(index);
+    }
+
+    boolean valueEqualsIgnoreCase(int index, String value) {
+        var slot = slot(index);
+        var start = offsets[slot + VALUE_START];
+        var end = offsets[slot + VALUE_END];
+        if(end - start != value.length()) return false;
+        for(int i = 0; i < value.length(); i++) {
+            if(Character.toLowerCase((char) bytes[start + i]) != Character.toLowerCase(value.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    // whether a comma separated list value (Connection, say) holds the lower-case token, ignoring case and whitespace
+    boolean hasToken(int index, String token) {
+        var slot = slot(index);
+        var end = offsets[slot + VALUE_END];
+        var start = offsets[slot + VALUE_START];
+        while(start < end) {
+            var comma = start;
+            while(comma < end && bytes[comma] != ',') comma++;
+            var from = start;
+            var to = comma;
+            while(from < to && (bytes[from] == ' ' || bytes[from] == '\t')) from++;
+            while(to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) to--;
+            if(to - from == token.length() && equalsIgnoreCase(from, token)) return true;
+            start = comma + 1;
+        }
+        return false;
+    }
+
+    // -1 when there is no content-length, parsed straight from the bytes
+    long contentLength() {
+        var index = indexOf(HttpHeaderNames.CONTENT_LENGTH, 0);
+        if(index < 0) return -1;
+        var slot = slot(index);
+        var start = offsets[slot + VALUE_START];
+        var end = offsets[slot + VALUE_END];
+        if(start == end || end - start > 18) throw new HttpParseException(400, "Invalid content-length");
+        long length = 0;
+        for(int i = start; i < end; i++) {
+            var b = bytes[i];
+            if(b < '0' || b > '9') throw new HttpParseException(400, "Invalid content-length");
+            length = length * 10 + (b - '0');
+        }
+        if(indexOf(HttpHeaderNames.CONTENT_LENGTH, index + 1) >= 0) {
+            throw new HttpParseException(400, "Multiple content-length headers");
+        }
+        return length;
+    }
+
+    private int queryStart() {
+        for(int i = offsets[TARGET_START]; i < offsets[TARGET_END]; i++) {
+            if(bytes[i] == '?') return i + 1;
+        }
+        return -1;
+    }
+
+    private boolean nameEqualsIgnoreCase(int slot, String name) {
+        var start = offsets[slot + NAME_START];
+        if(offsets[slot + NAME_END] - start != name.length()) return false;
+        for(int i = 0; i < name.length(); i++) {
+            if(HttpHeaderNames.toLowerCase(bytes[start + i]) != Character.toLowerCase(name.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private boolean equalsIgnoreCase(int start, String lowerCase) {
+        for(int i = 0; i < lowerCase.length(); i++) {
+            if(HttpHeaderNames.toLowerCase(bytes[start + i]) != lowerCase.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private boolean matches(String ascii, int start) {
+        for(int i = 0; i < ascii.length(); i++) {
+            if(bytes[start + i] != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String ascii(int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    private static int slot(int index) {
+        return HEADERS_OFFSET + index * SLOTS_PER_HEADER;
+    }
+}
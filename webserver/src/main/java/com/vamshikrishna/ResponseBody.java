@@ -0,0 +1,24 @@
+package com.vamshikrishna;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+// a response body that is written straight to the connection instead of being held as a byte[].
+// A negative length means it is sent with chunked transfer coding.
+interface ResponseBody extends Closeable {
+    long length();
+
+    // writes as much as the channel accepts right now, true once everything is out. On a blocking channel
+    // callers just loop, the event loop calls it again when the socket becomes writable.
+    boolean writeTo(WritableByteChannel channel) throws IOException;
+
+    // false for bodies whose content itself may block (streams, writer callbacks), those are never written on an event loop
+    default boolean isNonBlocking() {
+        return true;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,181 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// writes response heads straight into byte buffers: status lines are precomputed, header names are encoded once
+// and the Date header is re-rendered at most once per second
+final class ResponseEncoder {
+    static final int SMALL_BODY_SIZE = 16_384;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NAME_VALUE_SEPARATOR = {':', ' '};
+    private static final int MAX_CACHED_HEADER_NAMES = 1_024;
+    private static final String DATE_HEADER = "Date";
+    private static final byte[] CHUNKED_HEADER = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String CONNECTION_HEADER = "Connection";
+    static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] CONNECTION_KEEP_ALIVE = "Connection: keep-alive\r\n".getBytes(StandardCharsets.US_ASCII);
+    // IMF-fixdate, fixed width so a head measured in one second still fits when encoded in the next
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final Map<String, byte[]> HEADER_NAMES = new ConcurrentHashMap<>();
+    private static volatile DateLine dateLine = new DateLine(-1, "", new byte[0]);
+
+    static {
+        var reasons = Map.ofEntries(
+                Map.entry(100, "Continue"), Map.entry(101, "Switching Protocols"), Map.entry(102, "Processing"),
+                Map.entry(103, "Early Hints"), Map.entry(200, "OK"), Map.entry(201, "Created"), Map.entry(202, "Accepted"),
+                Map.entry(203, "Non-Authoritative Information"), Map.entry(204, "No Content"), Map.entry(205, "Reset Content"),
+                Map.entry(206, "Partial Content"), Map.entry(207, "Multi-Status"), Map.entry(208, "Already Reported"),
+                Map.entry(226, "IM Used"), Map.entry(300, "Multiple Choices"), Map.entry(301, "Moved Permanently"),
+                Map.entry(302, "Found"), Map.entry(303, "See Other"), Map.entry(304, "Not Modified"), Map.entry(305, "Use Proxy"),
+                Map.entry(307, "Temporary Redirect"), Map.entry(308, "Permanent Redirect"), Map.entry(400, "Bad Request"),
+                Map.entry(401, "Unauthorized"), Map.entry(402, "Payment Required"), Map.entry(403, "Forbidden"),
+                Map.entry(404, "Not Found"), Map.entry(405, "Method Not Allowed"), Map.entry(406, "Not Acceptable"),
+                Map.entry(407, "Proxy Authentication Required"), Map.entry(408, "Request Timeout"), Map.entry(409, "Conflict"),
+                Map.entry(410, "Gone"), Map.entry(411, "Length Required"), Map.entry(412, "Precondition Failed"),
+                Map.entry(413, "Content Too Large"), Map.entry(414, "URI Too Long"), Map.entry(415, "Unsupported Media Type"),
+                Map.entry(416, "Range Not Satisfiable"), Map.entry(417, "Expectation Failed"), Map.entry(421, "Misdirected Request"),
+                Map.entry(422, "Unprocessable Content"), Map.entry(423, "Locked"), Map.entry(424, "Failed Dependency"),
+                Map.entry(425, "Too Early"), Map.entry(426, "Upgrade Required"), Map.entry(428, "Precondition Required"),
+                Map.entry(429, "Too Many Requests"), Map.entry(431, "Request Header Fields Too Large"),
+                Map.entry(451, "Unavailable For Legal Reasons"), Map.entry(500, "Internal Server Error"),
+                Map.entry(501, "Not Implemented"), Map.entry(502, "Bad Gateway"), Map.entry(503, "Service Unavailable"),
+                Map.entry(504, "Gateway Timeout"), Map.entry(505, "HTTP Version Not Supported"),
+                Map.entry(506, "Variant Also Negotiates"), Map.entry(507, "Insufficient Storage"), Map.entry(508, "Loop Detected"),
+                Map.entry(510, "Not Extended"), Map.entry(511, "Network Authentication Required"));
+        for(int code = 100; code < STATUS_LINES.length; code++) {
+            var line = "HTTP/1.1 %d %s\r\n".formatted(code, reasons.getOrDefault(code, ""));
+            STATUS_LINES[code] = line.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private record DateLine(long epochSecond, String value, byte[] bytes) {
+    }
+
+    private ResponseEncoder() {
+    }
+
+    static byte[] statusLine(int responseCode) {
+        if(responseCode < 100 || responseCode >= STATUS_LINES.length) {
+            throw new IllegalArgumentException("Invalid response code %d".formatted(responseCode));
+        }
+        return STATUS_LINES[responseCode];
+    }
+
+    static int headLength(HttpResponse res) {
+        return headLength(res, null);
+    }
+
+    // connectionHeader is added unless the handler set Connection itself
+    static int headLength(HttpResponse res, byte[] connectionHeader) {
+        var length = statusLine(res.responseCode()).length + CRLF.length;
+        var hasDate = false;
+        var hasConnection = false;
+        var fields = res.headerFields();
+        for(int i = 0; i < fields.size(); i++) {
+            var name = fields.name(i);
+            hasDate |= name.equalsIgnoreCase(DATE_HEADER);
+            hasConnection |= name.equalsIgnoreCase(CONNECTION_HEADER);
+            length += name.length() + NAME_VALUE_SEPARATOR.length + fields.value(i).length() + CRLF.length;
+        }
+        if(isChunked(res)) length += CHUNKED_HEADER.length;
+        if(connectionHeader != null && !hasConnection) length += connectionHeader.length;
+        return hasDate ? length : length + dateLine().length;
+    }
+
+    static void encodeHead(HttpResponse res, ByteBuffer out) {
+        encodeHead(res, out, null);
+    }
+
+    static void encodeHead(HttpResponse res, ByteBuffer out, byte[] connectionHeader) {
+        out.put(statusLine(res.responseCode()));
+        var hasDate = false;
+        var hasConnection = false;
+        var fields = res.headerFields();
+        for(int i = 0; i < fields.size(); i++) {
+            var name = fields.name(i);
+            hasDate |= name.equalsIgnoreCase(DATE_HEADER);
+            hasConnection |= name.equalsIgnoreCase(CONNECTION_HEADER);
+            out.put(headerName(name));
+            putLatin1(fields.value(i), out);
+            out.put(CRLF);
+        }
+        if(!hasDate) out.put(dateLine());
+        if(isChunked(res)) out.put(CHUNKED_HEADER);
+        if(connectionHeader != null && !hasConnection) out.put(connectionHeader);
+        out.put(CRLF);
+    }
+
+    // head and body in one pooled buffer when the body is small, otherwise the body is handed over as is for a
+    // gathering write. The caller releases every buffer once it has been written.
+    static PooledBuffer[] encode(HttpResponse res, BufferPool pool) {
+        return encode(res, pool, null);
+    }
+
+    static PooledBuffer[] encode(HttpResponse res, BufferPool pool, byte[] connectionHeader) {
+        var body = res.body() == null || res.streamingBody() != null ? new byte[0] : res.body();
+        var headLength = headLength(res, connectionHeader);
+        if(body.length <= SMALL_BODY_SIZE) {
+            var out = pool.acquire(headLength + body.length);
+            encodeHead(res, out.buffer(), connectionHeader);
+            out.buffer().put(body).flip();
+            return new PooledBuffer[]{out};
+        }
+        var head = pool.acquire(headLength);
+        encodeHead(res, head.buffer(), connectionHeader);
+        head.buffer().flip();
+        return new PooledBuffer[]{head, PooledBuffer.unpooled(ByteBuffer.wrap(body))};
+    }
+
+    private static boolean isChunked(HttpResponse res) {
+        return res.streamingBody() != null && res.streamingBody().length() < 0;
+    }
+
+    private static byte[] headerName(String name) {
+        var encoded = HEADER_NAMES.get(name);
+        if(encoded != null) return encoded;
+        encoded = new byte[name.length() + NAME_VALUE_SEPARATOR.length];
+        for(int i = 0; i < name.length(); i++) {
+            encoded[i] = (byte) name.charAt(i);
+        }
+        encoded[name.length()] = ':';
+        encoded[name.length() + 1] = ' ';
+        if(HEADER_NAMES.size() < MAX_CACHED_HEADER_NAMES) { // names are usually a small fixed set, don't let odd ones grow this forever
+            HEADER_NAMES.putIfAbsent(name, encoded);
+        }
+        return encoded;
+    }
+
+    // the current Date value on its own, for protocols that encode headers differently
+    static String date() {
+        return currentDateLine().value();
+    }
+
+    private static byte[] dateLine() {
+        return currentDateLine().bytes();
+    }
+
+    private static DateLine currentDateLine() {
+        var now = System.currentTimeMillis() / 1000;
+        var current = dateLine;
+        if(current.epochSecond() != now) {
+            var value = DATE_FORMAT.format(Instant.ofEpochSecond(now));
+            current = new DateLine(now, value, ("Date: " + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            dateLine = current;
+        }
+        return current;
+    }
+
+    private static void putLatin1(String value, ByteBuffer out) {
+        for(int i = 0; i < value.length(); i++) {
+            out.put((byte) value.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.vamshikrishna;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+// per-connection write side of the blocking server. Responses are encoded into one buffer and leave in a single
+// write, bodies that don't fit go out together with the buffered bytes in one gathering write.
+final class ResponseWriter implements Flushable {
+    private static final int BUFFER_SIZE = 16_384;
+    private final GatheringByteChannel channel;
+    private final ServerMetrics metrics;
+    private final PooledBuffer pooledBuffer = BufferPool.DIRECT.acquire(BUFFER_SIZE);
+    private final ByteBuffer buffer = pooledBuffer.buffer(); // direct, the channel would copy a heap buffer into one anyway
+
+    ResponseWriter(GatheringByteChannel channel, ServerMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+    }
+
+    void write(HttpResponse res) throws IOException {
+        write(res, null);
+    }
+
+    // connectionHeader, from HttpCodec.connectionHeader, is added unless the response sets Connection itself
+    void write(HttpResponse res, byte[] connectionHeader) throws IOException {
+        if(res.streamingBody() != null) {
+            writeStreaming(res, connectionHeader);
+            return;
+        }
+        var body = res.body() == null ? new byte[0] : res.body();
+        var headLength = ResponseEncoder.headLength(res, connectionHeader);
+        if(headLength > buffer.remaining()) flush();
+        if(headLength > buffer.capacity()) {
+            var head = ByteBuffer.allocate(headLength);
+            ResponseEncoder.encodeHead(res, head, connectionHeader);
+            writeFully(head.flip(), ByteBuffer.wrap(body));
+            return;
+        }
+        ResponseEncoder.encodeHead(res, buffer, connectionHeader);
+        if(body.length <= buffer.remaining()) {
+            buffer.put(body);
+            return;
+        }
+        writeFully(buffer.flip(), ByteBuffer.wrap(body));
+        buffer.clear();
+    }
+
+    private void writeStreaming(HttpResponse res, byte[] connectionHeader) throws IOException {
+        try (var body = res.streamingBody()) {
+            var head = ByteBuffer.allocate(ResponseEncoder.headLength(res, connectionHeader));
+            ResponseEncoder.encodeHead(res, head, connectionHeader);
+            flush();
+            writeFully(head.flip());
+            // bodies of unknown length are counted as they go, a wrapper around the socket would rule out transferTo
+            var target = body.length() < 0 ? new CountingChannel(channel, metrics) : channel;
+            while(!body.writeTo(target)) {
+                // blocking channel, only returns false on a partial write
+            }
+            if(body.length() > 0) metrics.bytesOut(body.length());
+        }
+    }
+
+    // a response encoded ahead of time
+    void write(byte[] response) throws IOException {
+        if(buffer.remaining() < response.length) flush();
+        buffer.put(response);
+    }
+
+    void writeContinue() throws IOException {
+        if(buffer.remaining() < HttpCodec.CONTINUE_RESPONSE.length) flush();
+        buffer.put(HttpCodec.CONTINUE_RESPONSE);
+        flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(buffer.position() == 0) return;
+        writeFully(buffer.flip());
+        buffer.clear();
+    }
+
+    // once the connection is closed
+    void release() {
+        pooledBuffer.release();
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        var last = buffers[buffers.length - 1];
+        while(last.hasRemaining() || buffers[0].hasRemaining()) {
+            metrics.bytesOut(channel.write(buffers));
+        }
+    }
+
+    private record CountingChannel(WritableByteChannel channel, ServerMetrics metrics) implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            var written = channel.write(src);
+            metrics.bytesOut(written);
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.vamshikrishna;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+// dispatches on method and path through a compressed radix tree, so a lookup walks the path once no matter how
+// many routes there are. Patterns are made of static text, {name} segments that capture up to the next '/' and
+// a trailing * that captures the rest of the path. Static text wins over {name}, which wins over *.
+// Routes are registered before the server starts, lookups never lock.
+// Async routes are answered through handleAsync, plain ones as completed stages.
+public class Router implements AsyncHttpRequestHandler {
+    static final String WILDCARD = "*";
+    private final Node root = new Node("");
+    private HttpRequestHandler fallback = request -> emptyResponse(404, new HttpHeaders(1));
+    private boolean acceptsStreamingBody;
+
+    private static final class Node {
+        private String prefix;
+        private char[] firstChars = new char[0];
+        private Node[] children = new Node[0];
+        private Node param;
+        private String paramName;
+        private Node wildcard;
+        private Map<String, HttpRequestHandler> handlers;
+        private String[] paramNames;
+        private String allow;
+
+        private Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        private Node child(char first) {
+            for(int i = 0; i < firstChars.length; i++) {
+                if(firstChars[i] == first) return children[i];
+            }
+            return null;
+        }
+
+        private void addChild(Node child) {
+            firstChars = Arrays.copyOf(firstChars, firstChars.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            firstChars[firstChars.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        private void replaceChild(Node child) {
+            for(int i = 0; i < firstChars.length; i++) {
+                if(firstChars[i] == child.prefix.charAt(0)) children[i] = child;
+            }
+        }
+    }
+
+    // start and end offsets of every capture along the current match
+    private static final class Captures {
+        private int[] bounds = new int[8];
+        private int size;
+
+        private void add(int start, int end) {
+            if(size + 2 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[size++] = start;
+            bounds[size++] = end;
+        }
+    }
+
+    public Router get(String pattern, HttpRequestHandler handler) {
+        return route("GET", pattern, handler);
+    }
+
+    public Router post(String pattern, HttpRequestHandler handler) {
+        return route("POST", pattern, handler);
+    }
+
+    public Router put(String pattern, HttpRequestHandler handler) {
+        return route("PUT", pattern, handler);
+    }
+
+    public Router delete(String pattern, HttpRequestHandler handler) {
+        return route("DELETE", pattern, handler);
+    }
+
+    public Router route(String method, String pattern, HttpRequestHandler handler) {
+        if(!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route pattern %s must start with /".formatted(pattern));
+        }
+        var node = root;
+        var names = new ArrayList<String>();
+        var staticStart = 0;
+        for(int i = 0; i < pattern.length(); i++) {
+            var c = pattern.charAt(i);
+            if(c == '{') {
+                var close = pattern.indexOf('}', i);
+                if(pattern.charAt(i - 1) != '/' || close < 0 || close == i + 1 || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')) {
+                    throw new IllegalArgumentException("Parameters in %s must be whole path segments like /{id}".formatted(pattern));
+                }
+                var name = pattern.substring(i + 1, close);
+                node = insertStatic(node, pattern.substring(staticStart, i));
+                if(node.param == null) {
+                    node.param = new Node("");
+                    node.paramName = name;
+                }
+                else if(!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Parameter {%s} in %s conflicts with {%s} registered at the same position".formatted(name, pattern, node.paramName));
+                }
+                names.add(name);
+                node = node.param;
+                i = close;
+                staticStart = close + 1;
+            }
+            else if(c == '*') {
+                if(i != pattern.length() - 1 || pattern.charAt(i - 1) != '/') {
+                    throw new IllegalArgumentException("Wildcard in %s must be the last path segment".formatted(pattern));
+                }
+                node = insertStatic(node, pattern.substring(staticStart, i));
+                if(node.wildcard == null) node.wildcard = new Node("");
+                names.add(WILDCARD);
+                node = node.wildcard;
+                staticStart = pattern.length();
+            }
+        }
+        node = insertStatic(node, pattern.substring(staticStart));
+        if(node.handlers == null) {
+            node.handlers = new HashMap<>();
+            node.paramNames = names.toArray(String[]::new);
+        }
+        if(node.handlers.putIfAbsent(method, handler) != null) {
+            throw new IllegalArgumentException("Route %s %s is registered twice".formatted(method, pattern));
+        }
+        node.allow = String.join(", ", new TreeSet<>(node.handlers.keySet()));
+        acceptsStreamingBody |= handler.acceptsStreamingBody();
+        return this;
+    }
+
+    // for requests no route matches, a 404 by default
+    public Router fallback(HttpRequestHandler handler) {
+        fallback = handler;
+        acceptsStreamingBody |= handler.acceptsStreamingBody();
+        return this;
+    }
+
+    // the body decision is made before routing, so this is true as soon as one route streams. Handlers that don't
+    // can still call body(), which reads the stream into memory.
+    @Override
+    public boolean acceptsStreamingBody() {
+        return acceptsStreamingBody;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        return handlerFor(request).handle(request);
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> handleAsync(HttpRequest request) {
+        var handler = handlerFor(request);
+        if(handler instanceof AsyncHttpRequestHandler async) return async.handleAsync(request);
+        return CompletableFuture.completedFuture(handler.handle(request));
+    }
+
+    // the route's handler with its path parameters set on request, the fallback or a 405 when there is none
+    private HttpRequestHandler handlerFor(HttpRequest request) {
+        var path = request.path();
+        var captures = new Captures();
+        var node = find(root, path, 0, captures);
+        if(node == null) return fallback;
+        var handler = node.handlers.get(request.method());
+        if(handler == null) {
+            var allow = node.allow;
+            return ignored -> emptyResponse(405, new HttpHeaders(2).add("Allow", allow));
+        }
+        if(captures.size > 0) {
+            request.setPathParams(new PathParams(path, node.paramNames, Arrays.copyOf(captures.bounds, captures.size)));
+        }
+        return handler;
+    }
+
+    // walks the path once, only stepping back when a static branch dead-ends and a {param} or * could still match
+    private static Node find(Node node, String path, int position, Captures captures) {
+        if(!path.startsWith(node.prefix, position)) return null;
+        position += node.prefix.length();
+        if(position == path.length() && node.handlers != null) return node;
+        if(position < path.length()) {
+            var child = node.child(path.charAt(position));
+            if(child != null) {
+                var found = find(child, path, position, captures);
+                if(found != null) return found;
+            }
+            if(node.param != null) {
+                var end = path.indexOf('/', position);
+                if(end < 0) end = path.length();
+                if(end > position) {
+                    var mark = captures.size;
+                    captures.add(position, end);
+                    var found = find(node.param, path, end, captures);
+                    if(found != null) return found;
+                    captures.size = mark;
+                }
+            }
+        }
+        if(node.wildcard != null && node.wildcard.handlers != null) {
+            captures.add(position, path.length());
+            return node.wildcard;
+        }
+        return null;
+    }
+
+    // returns the node that ends exactly at the end of text, splitting an existing edge where they diverge
+    private static Node insertStatic(Node node, String text) {
+        while(!text.isEmpty()) {
+            var child = node.child(text.charAt(0));
+            if(child == null) {
+                child = new Node(text);
+                node.addChild(child);
+                return child;
+            }
+            var common = commonPrefixLength(child.prefix, text);
+            if(common < child.prefix.length()) {
+                var split = new Node(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                node.replaceChild(split);
+                child = split;
+            }
+            node = child;
+            text = text.substring(common);
+        }
+        return node;
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        var max = Math.min(a.length(), b.length());
+        var i = 0;
+        while(i < max && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    private static HttpResponse emptyResponse(int responseCode, HttpHeaders headers) {
+        return new HttpResponse(responseCode, headers.add("Content-Length", "0"), new byte[0]);
+    }
+}
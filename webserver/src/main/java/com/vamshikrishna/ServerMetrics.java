@@ -0,0 +1,143 @@
+package com.vamshikrishna;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// what a server counts while it runs. LongAdder stripes its cells across threads once they contend, so recording
+// stays cheap enough to leave on for every request and connection. Read by MetricsHandler.
+public class ServerMetrics {
+    private static final int MAX_STATUS = 600;
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsEvicted = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder webSocketsOpened = new LongAdder();
+    private final LongAdder webSocketsClosed = new LongAdder();
+    // the admission limit right now, when the server has one
+    private volatile LongSupplier concurrencyLimit;
+    // one adder per status code actually sent, created on first use
+    private final AtomicReferenceArray<LongAdder> responses = new AtomicReferenceArray<>(MAX_STATUS);
+    // CPU time spent parsing request heads, time spent waiting for their bytes is not included
+    final LatencyHistogram parseLatency = new LatencyHistogram();
+    final LatencyHistogram handlerLatency = new LatencyHistogram();
+    // from the handler returning to the response being handed to the socket
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    void connectionEvicted() {
+        connectionsEvicted.increment();
+    }
+
+    void bytesIn(long bytes) {
+        if(bytes > 0) bytesIn.add(bytes);
+    }
+
+    void bytesOut(long bytes) {
+        if(bytes > 0) bytesOut.add(bytes);
+    }
+
+    void timeout() {
+        timeouts.increment();
+    }
+
+    void shed() {
+        shed.increment();
+    }
+
+    void webSocketOpened() {
+        webSocketsOpened.increment();
+    }
+
+    void webSocketClosed() {
+        webSocketsClosed.increment();
+    }
+
+    void concurrencyLimit(LongSupplier concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    void response(int status) {
+        if(status < 0 || status >= MAX_STATUS) return;
+        var adder = responses.get(status);
+        if(adder == null) {
+            responses.compareAndSet(status, null, new LongAdder());
+            adder = responses.get(status);
+        }
+        adder.increment();
+    }
+
+    public long connectionsActive() {
+        return connectionsAccepted.sum() - connectionsClosed.sum();
+    }
+
+    // Prometheus text exposition format, version 0.0.4
+    public String toPrometheus() {
+        var out = new StringBuilder(8_192);
+        counter(out, "http_server_connections_accepted_total", "Connections accepted", connectionsAccepted.sum());
+        counter(out, "http_server_connections_closed_total", "Connections closed", connectionsClosed.sum());
+        counter(out, "http_server_connections_evicted_total", "Idle connections closed to make room at the connection cap", connectionsEvicted.sum());
+        gauge(out, "http_server_connections_active", "Connections currently open", connectionsActive());
+        out.append("# HELP http_server_requests_total Responses sent, by status code\n");
+        out.append("# TYPE http_server_requests_total counter\n");
+        for(int status = 0; status < MAX_STATUS; status++) {
+            var adder = responses.get(status);
+            if(adder != null) {
+                out.append("http_server_requests_total{status=\"").append(status).append("\"} ").append(adder.sum()).append('\n');
+            }
+        }
+        counter(out, "http_server_received_bytes_total", "Bytes read from clients", bytesIn.sum());
+        counter(out, "http_server_sent_bytes_total", "Bytes written to clients", bytesOut.sum());
+        counter(out, "http_server_timeouts_total", "Connections that went quiet for longer than the idle, header or body timeout", timeouts.sum());
+        counter(out, "http_server_shed_total", "Requests and connections turned away with a 503 by admission control", shed.sum());
+        counter(out, "http_server_websockets_opened_total", "Connections switched over to a WebSocket", webSocketsOpened.sum());
+        gauge(out, "http_server_websockets_open", "WebSocket connections currently open", webSocketsOpened.sum() - webSocketsClosed.sum());
+        var limit = concurrencyLimit;
+        if(limit != null) gauge(out, "http_server_concurrency_limit", "Requests admission control lets into the handler at once", limit.getAsLong());
+        out.append("# HELP http_server_phase_seconds Time spent parsing heads, in handlers and writing responses\n");
+        out.append("# TYPE http_server_phase_seconds histogram\n");
+        parseLatency.writePrometheus(out, "http_server_phase_seconds", "phase=\"parse\"");
+        handlerLatency.writePrometheus(out, "http_server_phase_seconds", "phase=\"handler\"");
+        writeLatency.writePrometheus(out, "http_server_phase_seconds", "phase=\"write\"");
+        out.append("# HELP http_server_buffer_pool_hits_total Buffer acquisitions served from the pool\n");
+        out.append("# TYPE http_server_buffer_pool_hits_total counter\n");
+        bufferPools(out, "http_server_buffer_pool_hits_total", BufferPool.DIRECT.hits(), BufferPool.HEAP.hits());
+        out.append("# HELP http_server_buffer_pool_misses_total Buffer acquisitions that had to allocate\n");
+        out.append("# TYPE http_server_buffer_pool_misses_total counter\n");
+        bufferPools(out, "http_server_buffer_pool_misses_total", BufferPool.DIRECT.misses(), BufferPool.HEAP.misses());
+        out.append("# HELP http_server_buffer_pool_outstanding Buffers acquired and not yet released\n");
+        out.append("# TYPE http_server_buffer_pool_outstanding gauge\n");
+        bufferPools(out, "http_server_buffer_pool_outstanding", BufferPool.DIRECT.outstanding(), BufferPool.HEAP.outstanding());
+        return out.toString();
+    }
+
+    // the pools are shared by every server in the process
+    private static void bufferPools(StringBuilder out, String name, long direct, long heap) {
+        out.append(name).append("{pool=\"direct\"} ").append(direct).append('\n');
+        out.append(name).append("{pool=\"heap\"} ").append(heap).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
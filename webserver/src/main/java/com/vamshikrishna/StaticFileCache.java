@@ -0,0 +1,63 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// hot small files kept in direct buffers, bounded by total bytes with LRU eviction. Entries are checked against
+// the file's size and mtime on every lookup, so an edited file is reloaded on its next hit.
+final class StaticFileCache {
+    private final long maxFileSize;
+    private final long maxTotalBytes;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    record Entry(ByteBuffer content, long size, long lastModified) {
+    }
+
+    StaticFileCache(long maxFileSize, long maxTotalBytes) {
+        this.maxFileSize = maxFileSize;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    boolean isCacheable(long size) {
+        return size <= maxFileSize && size <= maxTotalBytes;
+    }
+
+    // the returned buffer is a read-only view, callers can consume it without affecting other requests
+    ByteBuffer get(Path path, long size, long lastModified) throws IOException {
+        synchronized (this) {
+            var entry = entries.get(path);
+            if(entry != null && entry.size() == size && entry.lastModified() == lastModified) {
+                return entry.content().duplicate();
+            }
+        }
+        var content = load(path, size);
+        synchronized (this) {
+            var previous = entries.put(path, new Entry(content, size, lastModified));
+            if(previous != null) totalBytes -= previous.size();
+            totalBytes += size;
+            var eldest = entries.entrySet().iterator();
+            while(totalBytes > maxTotalBytes && eldest.hasNext()) {
+                var evicted = eldest.next();
+                if(evicted.getKey().equals(path)) continue;
+                totalBytes -= evicted.getValue().size();
+                eldest.remove();
+            }
+        }
+        return content.duplicate();
+    }
+
+    private static ByteBuffer load(Path path, long size) throws IOException {
+        try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+            var content = ByteBuffer.allocateDirect((int) size);
+            while(content.hasRemaining() && file.read(content) >= 0) {
+            }
+            return content.flip().asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+
+// serves files under root. Small files come out of an in-memory cache, large ones go through sendfile, and
+// ETag/Last-Modified validators turn repeat hits into a 304 without touching file contents.
+// Behind a Router route ending in *, such as /static/*, a file is looked up by the part of the path the * captured,
+// so /static/css/site.css is root/css/site.css. Anywhere else the whole request path is looked up under root.
+public class StaticFileHandler implements HttpRequestHandler {
+    private static final long DEFAULT_MAX_CACHED_FILE_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_CACHE_SIZE = 64 * 1024 * 1024;
+    private static final String INDEX_FILE = "index.html";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"), Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"), Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json"), Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("xml", "application/xml"), Map.entry("svg", "image/svg+xml"), Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"), Map.entry("jpeg", "image/jpeg"), Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"), Map.entry("ico", "image/x-icon"), Map.entry("woff2", "font/woff2"),
+            Map.entry("pdf", "application/pdf"), Map.entry("zip", "application/zip"), Map.entry("gz", "application/gzip"),
+            Map.entry("wasm", "application/wasm"), Map.entry("mp4", "video/mp4"));
+    private final Path root;
+    private final StaticFileCache cache;
+
+    public StaticFileHandler(Path root) {
+        this(root, DEFAULT_MAX_CACHED_FILE_SIZE, DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public StaticFileHandler(Path root, long maxCachedFileSize, long maxCacheSize) {
+        this.root = root.toAbsolutePath().normalize();
+        this.cache = new StaticFileCache(maxCachedFileSize, maxCacheSize);
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        var method = request.method();
+        var isHead = method.equals("HEAD");
+        if(!isHead && !method.equals("GET")) {
+            return emptyResponse(405, new HttpHeaders(2).add("Allow", "GET, HEAD"));
+        }
+        try {
+            var file = resolve(request);
+            if(file == null) return emptyResponse(404, new HttpHeaders(1));
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if(attributes.isDirectory()) {
+                file = file.resolve(INDEX_FILE);
+                if(!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) return emptyResponse(404, new HttpHeaders(1));
+                attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
+            if(!attributes.isRegularFile()) return emptyResponse(404, new HttpHeaders(1));
+            return serve(request, file, attributes.size(), attributes.lastModifiedTime().toMillis(), isHead);
+        }
+        catch (java.nio.file.NoSuchFileException e) {
+            return emptyResponse(404, new HttpHeaders(1));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Failed to serve %s".formatted(request.path()), e);
+        }
+    }
+
+    private HttpResponse serve(HttpRequest request, Path file, long size, long lastModified, boolean isHead) throws IOException {
+        var etag = "\"%x-%x\"".formatted(size, lastModified);
+        var lastModifiedSeconds = lastModified / 1000;
+        var headers = new HttpHeaders(6)
+                .add("ETag", etag)
+                .add("Last-Modified", HTTP_DATE.format(Instant.ofEpochSecond(lastModifiedSeconds)))
+                .add("Accept-Ranges", "bytes");
+        if(isNotModified(request, etag, lastModifiedSeconds)) {
+            return emptyResponse(304, headers);
+        }
+        headers.add("Content-Type", contentType(file));
+
+        var start = 0L;
+        var length = size;
+        var responseCode = 200;
+        var range = request.header(HttpHeaderNames.RANGE);
+        if(range != null && rangeStillApplies(request, etag)) {
+            var bounds = parseRange(range, size);
+            if(bounds == null) {
+                headers.add("Content-Range", "bytes */%d".formatted(size));
+                return emptyResponse(416, headers);
+            }
+            if(bounds.length == 2) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                responseCode = 206;
+                headers.add("Content-Range", "bytes %d-%d/%d".formatted(bounds[0], bounds[1], size));
+            }
+        }
+        headers.add("Content-Length", String.valueOf(length));
+        if(isHead || length == 0) {
+            return new HttpResponse(responseCode, headers, new byte[0]);
+        }
+        if(cache.isCacheable(size)) {
+            var content = cache.get(file, size, lastModified);
+            if(content.remaining() == size) {
+                content.position((int) start).limit((int) (start + length));
+                return new HttpResponse(responseCode, headers, new BufferBody(content));
+            }
+        }
+        return new HttpResponse(responseCode, headers, new FileBody(file, start, length));
+    }
+
+    // If-None-Match wins over If-Modified-Since, as RFC 9110 asks
+    private static boolean isNotModified(HttpRequest request, String etag, long lastModifiedSeconds) {
+        var ifNoneMatch = request.header(HttpHeaderNames.IF_NONE_MATCH);
+        if(ifNoneMatch != null) {
+            for(var candidate : ifNoneMatch.split(",")) {
+                var tag = candidate.strip();
+                if(tag.startsWith("W/")) tag = tag.substring(2);
+                if(tag.equals("*") || tag.equals(etag)) return true;
+            }
+            return false;
+        }
+        var ifModifiedSince = request.header(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if(ifModifiedSince == null) return false;
+        try {
+            return ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toEpochSecond() >= lastModifiedSeconds;
+        }
+        catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean rangeStillApplies(HttpRequest request, String etag) {
+        var ifRange = request.header(HttpHeaderNames.IF_RANGE);
+        return ifRange == null || ifRange.strip().equals(etag);
+    }
+
+    // {start, end} for a single satisfiable range, {} to ignore the header and send everything, null for 416.
+    // Multi-range requests are answered with the full file, which the spec allows.
+    private static long[] parseRange(String range, long size) {
+        if(!range.startsWith("bytes=") || range.indexOf(',') >= 0) return new long[0];
+        var spec = range.substring("bytes=".length()).strip();
+        var dash = spec.indexOf('-');
+        if(dash < 0) return new long[0];
+        try {
+            long start;
+            long end;
+            if(dash == 0) {
+                var suffix = Long.parseLong(spec.substring(1));
+                if(suffix == 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            }
+            else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+                if(end < start) return start >= size ? null : new long[0];
+            }
+            return start >= size ? null : new long[]{start, end};
+        }
+        catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private Path resolve(HttpRequest request) {
+        var captured = request.pathParam(Router.WILDCARD); // decoded already
+        if(captured != null) return resolve(captured);
+        try {
+            return resolve(URI.create("http://localhost" + request.path()).getPath());
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Path resolve(String path) {
+        if(path == null || path.indexOf('\0') >= 0) return null;
+        var file = root.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+        return file.startsWith(root) ? file : null; // no escaping the root with ../
+    }
+
+    private static String contentType(Path file) {
+        var name = file.getFileName().toString();
+        var dot = name.lastIndexOf('.');
+        var extension = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+    }
+
+    private static HttpResponse emptyResponse(int responseCode, HttpHeaders headers) {
+        if(responseCode != 304) headers.add("Content-Length", "0");
+        return new HttpResponse(responseCode, headers, new byte[0]);
+    }
+}
@@ -0,0 +1,208 @@
+package com.vamshikrishna;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// an open WebSocket connection as handlers see it. Sending never blocks: frames queue up and a virtual thread of the
+// connection's own writes them out, as many as are waiting in one gathering write, so a slow client holds up nobody
+// but itself. One that falls more than maxQueuedBytes behind is disconnected.
+public class WebSocket {
+    private static final int MAX_BATCH = 64;
+    private final Socket socket;
+    private final GatheringByteChannel channel;
+    private final long maxQueuedBytes;
+    private final ServerMetrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final ArrayDeque<PooledBuffer> outbound = new ArrayDeque<>();
+    private final Thread writer;
+    private long queuedBytes;
+    // nothing is taken after the close frame, and nothing at all once the connection is finishing
+    private boolean closeSent;
+    private boolean finishing;
+    private volatile boolean open = true;
+
+    WebSocket(Socket socket, WebSocketPolicy policy, ServerMetrics metrics) {
+        this.socket = socket;
+        this.channel = socket.getChannel();
+        this.maxQueuedBytes = policy.maxQueuedBytes();
+        this.metrics = metrics;
+        this.writer = Thread.ofVirtual().name("websocket-writer").unstarted(this::writeFrames);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    public boolean sendText(String message) {
+        return send(WebSocketCodec.encodeText(message));
+    }
+
+    // message is copied into the frame, the caller may reuse it as soon as this returns
+    public boolean sendBinary(ByteBuffer message) {
+        return send(WebSocketCodec.encode(WebSocketCodec.BINARY, message));
+    }
+
+    public void close() {
+        close(WebSocketCodec.NORMAL_CLOSURE, "");
+    }
+
+    // starts the closing handshake, the connection ends once the client answers with a close frame of its own
+    public void close(int code, String reason) {
+        var frame = WebSocketCodec.encodeClose(code, reason);
+        lock.lock();
+        try {
+            if(!closeSent && !finishing && open) {
+                closeSent = true;
+                enqueue(frame);
+                return;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        frame.release();
+    }
+
+    // whether what is sent now still goes out, false once either side started closing
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return open && !closeSent && !finishing;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // takes over one reference to frame, released once it has been written or right away when it isn't taken:
+    // false when the connection is closing, or when the client fell too far behind and has just been dropped for it
+    boolean send(PooledBuffer frame) {
+        lock.lock();
+        try {
+            if(!closeSent && !finishing && open) {
+                if(queuedBytes + frame.buffer().remaining() <= maxQueuedBytes) {
+                    enqueue(frame);
+                    return true;
+                }
+                abort();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        frame.release();
+        return false;
+    }
+
+    boolean isCloseSent() {
+        lock.lock();
+        try {
+            return closeSent;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // nothing more after what is queued, which gets up to timeout to go out. The caller closes the socket after.
+    void finish(Duration timeout) {
+        lock.lock();
+        try {
+            finishing = true;
+            queued.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(timeout);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        open = false;
+    }
+
+    // drops the connection without a closing handshake, reading and writing both fail out of it
+    void abort() {
+        open = false;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private void enqueue(PooledBuffer frame) {
+        outbound.add(frame);
+        queuedBytes += frame.buffer().remaining();
+        queued.signal();
+    }
+
+    private void writeFrames() {
+        var frames = new PooledBuffer[MAX_BATCH];
+        var buffers = new ByteBuffer[MAX_BATCH];
+        var count = 0;
+        try {
+            while(true) {
+                var bytes = 0L;
+                lock.lock();
+                try {
+                    while(outbound.isEmpty() && !finishing) {
+                        queued.await();
+                    }
+                    if(outbound.isEmpty()) return;
+                    while(count < MAX_BATCH && !outbound.isEmpty()) {
+                        frames[count] = outbound.poll();
+                        buffers[count] = frames[count].buffer().duplicate(); // the bytes may be shared with other connections, the position is ours
+                        bytes += buffers[count].remaining();
+                        count++;
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+                while(buffers[count - 1].hasRemaining()) {
+                    metrics.bytesOut(channel.write(buffers, 0, count));
+                }
+                for(int i = 0; i < count; i++) {
+                    frames[i].release();
+                    frames[i] = null;
+                    buffers[i] = null;
+                }
+                count = 0;
+                lock.lock();
+                try {
+                    queuedBytes -= bytes;
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+        catch (IOException | InterruptedException e) {
+            abort();
+        }
+        finally {
+            for(int i = 0; i < count; i++) {
+                frames[i].release();
+            }
+            lock.lock();
+            try {
+                outbound.forEach(PooledBuffer::release);
+                outbound.clear();
+                queuedBytes = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+}
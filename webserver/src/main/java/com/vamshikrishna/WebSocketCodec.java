@@ -0,0 +1,209 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+// WebSocket wire constants (RFC 6455), the opening handshake and frame encoding. Frames from the server go out
+// unmasked, each in one buffer of its own so the same bytes can be written to any number of connections. Masking
+// works in place on absolute positions, a long at a time.
+final class WebSocketCodec {
+    static final int CONTINUATION = 0x0;
+    static final int TEXT = 0x1;
+    static final int BINARY = 0x2;
+    static final int CLOSE = 0x8;
+    static final int PING = 0x9;
+    static final int PONG = 0xA;
+
+    static final int FLAG_FIN = 0x80;
+    static final int FLAG_MASK = 0x80;
+    static final int RESERVED_BITS = 0x70;
+    static final int OPCODE_BITS = 0x0F;
+    static final int MAX_HEADER_SIZE = 14;
+    static final int MAX_CONTROL_PAYLOAD = 125;
+
+    static final int NORMAL_CLOSURE = 1000;
+    static final int GOING_AWAY = 1001;
+    static final int PROTOCOL_ERROR = 1002;
+    static final int NO_STATUS = 1005;
+    static final int ABNORMAL_CLOSURE = 1006;
+    static final int INVALID_PAYLOAD = 1007;
+    static final int POLICY_VIOLATION = 1008;
+    static final int MESSAGE_TOO_BIG = 1009;
+    static final int INTERNAL_ERROR = 1011;
+
+    static final String VERSION = "13";
+    static final String KEY_HEADER = "sec-websocket-key";
+    static final String VERSION_HEADER = "sec-websocket-version";
+    private static final String UPGRADE_TOKEN = "websocket";
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int KEY_SIZE = 16;
+
+    private WebSocketCodec() {
+    }
+
+    // section 4.2.1: an HTTP/1.1 GET naming websocket in Upgrade and upgrade in Connection. The key and version
+    // are checked separately, they get answers of their own.
+    static boolean isUpgradeRequest(HttpRequest request) {
+        var head = request.head();
+        if(head == null || !head.isHttp11() || !request.method().equals("GET")) return false;
+        var upgradeListed = false;
+        var websocketListed = false;
+        for(var i = head.indexOf(HttpHeaderNames.UPGRADE, 0); i >= 0; i = head.indexOf(HttpHeaderNames.UPGRADE, i + 1)) {
+            websocketListed |= head.hasToken(i, UPGRADE_TOKEN);
+        }
+        for(var i = head.indexOf(HttpHeaderNames.CONNECTION, 0); i >= 0; i = head.indexOf(HttpHeaderNames.CONNECTION, i + 1)) {
+            upgradeListed |= head.hasToken(i, HttpHeaderNames.UPGRADE);
+        }
+        return upgradeListed && websocketListed;
+    }
+
+    // the key has to be 16 random bytes in base64, anything else is not a WebSocket client
+    static boolean isValidKey(String key) {
+        if(key == null) return false;
+        try {
+            return Base64.getDecoder().decode(key.strip()).length == KEY_SIZE;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static String acceptKey(String key) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest((key.strip() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required of every JVM", e);
+        }
+    }
+
+    static boolean isControl(int opcode) {
+        return (opcode & 0x8) != 0;
+    }
+
+    // codes a close frame may carry, section 7.4: the defined ones that aren't reserved for local use, and the
+    // ranges for libraries and applications
+    static boolean isValidCloseCode(int code) {
+        return code >= 1000 && code <= 1003 || code >= 1007 && code <= 1014 || code >= 3000 && code <= 4999;
+    }
+
+    static int headerLength(int payloadLength) {
+        return payloadLength < 126 ? 2 : payloadLength < 65_536 ? 4 : 10;
+    }
+
+    static void putHeader(ByteBuffer out, boolean fin, int opcode, int payloadLength) {
+        out.put((byte) ((fin ? FLAG_FIN : 0) | opcode));
+        if(payloadLength < 126) {
+            out.put((byte) payloadLength);
+        }
+        else if(payloadLength < 65_536) {
+            out.put((byte) 126).putShort((short) payloadLength);
+        }
+        else {
+            out.put((byte) 127).putLong(payloadLength);
+        }
+    }
+
+    // a whole message or control frame, flipped and ready to write. payload is left as it was.
+    static PooledBuffer encode(int opcode, ByteBuffer payload) {
+        var length = payload.remaining();
+        var frame = BufferPool.DIRECT.acquire(headerLength(length) + length);
+        var out = frame.buffer();
+        putHeader(out, true, opcode, length);
+        out.put(out.position(), payload, payload.position(), length);
+        out.position(out.position() + length).flip();
+        return frame;
+    }
+
+    // the text goes straight into the frame as UTF-8, no byte[] in between
+    static PooledBuffer encodeText(String text) {
+        var length = utf8Length(text);
+        var frame = BufferPool.DIRECT.acquire(headerLength(length) + length);
+        putHeader(frame.buffer(), true, TEXT, length);
+        putUtf8(text, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+
+    static PooledBuffer encodeClose(int code, String reason) {
+        var reasonLength = utf8Length(reason);
+        if(reasonLength > MAX_CONTROL_PAYLOAD - 2) {
+            throw new IllegalArgumentException("Close reason must fit in %d bytes, got %d".formatted(MAX_CONTROL_PAYLOAD - 2, reasonLength));
+        }
+        var frame = BufferPool.DIRECT.acquire(2 + 2 + reasonLength);
+        putHeader(frame.buffer(), true, CLOSE, 2 + reasonLength);
+        frame.buffer().putShort((short) code);
+        putUtf8(reason, frame.buffer());
+        frame.buffer().flip();
+        return frame;
+    }
+
+    // XORs the bytes between from and to with a masking key that starts at from, which masks and unmasks alike.
+    // The buffer has to be big-endian, as buffers are unless told otherwise, its position and limit are left alone.
+    static void applyMask(ByteBuffer buffer, int from, int to, int mask) {
+        var wide = (mask & 0xFFFF_FFFFL) << 32 | (mask & 0xFFFF_FFFFL);
+        var i = from;
+        for(; i + Long.BYTES <= to; i += Long.BYTES) {
+            buffer.putLong(i, buffer.getLong(i) ^ wide);
+        }
+        for(; i < to; i++) {
+            buffer.put(i, (byte) (buffer.get(i) ^ mask >>> 24 - 8 * ((i - from) & 3)));
+        }
+    }
+
+    // what String.getBytes(UTF_8) would produce, lone surrogates included as '?'
+    static int utf8Length(String text) {
+        var length = 0;
+        for(int i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if(c < 0x80) {
+                length++;
+            }
+            else if(c < 0x800) {
+                length += 2;
+            }
+            else if(!Character.isSurrogate(c)) {
+                length += 3;
+            }
+            else if(isSurrogatePair(text, i)) {
+                length += 4;
+                i++;
+            }
+            else {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    static void putUtf8(String text, ByteBuffer out) {
+        for(int i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if(c < 0x80) {
+                out.put((byte) c);
+            }
+            else if(c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            }
+            else if(!Character.isSurrogate(c)) {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+            else if(isSurrogatePair(text, i)) {
+                var codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            }
+            else {
+                out.put((byte) '?');
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(String text, int index) {
+        return Character.isHighSurrogate(text.charAt(index)) && index + 1 < text.length() && Character.isLowSurrogate(text.charAt(index + 1));
+    }
+}
@@ -0,0 +1,300 @@
+package com.vamshikrishna;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+// the read side of a connection HttpServerImpl switched over to a WebSocket, on the thread that served its
+// handshake. Frames are parsed and unmasked in place in the read buffer, and a message that comes in one frame goes to
+// the handler straight from there; fragmented ones are put together in a second buffer first. Control frames are
+// answered here: pings get a pong and a close gets a close back. A connection that has been quiet for pingInterval
+// is pinged, one that stays quiet for another interval is taken for dead.
+final class WebSocketConnection {
+    private static final int INITIAL_BUFFER_SIZE = 8_192;
+    // how long a close frame waits for the client's before the connection is dropped anyway
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    private static final int NO_MESSAGE = -1;
+    private final Socket socket;
+    private final InputStream stream;
+    private final WebSocket webSocket;
+    private final WebSocketHandler handler;
+    private final WebSocketPolicy policy;
+    private final ServerMetrics metrics;
+    private final CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    // frames start at frameStart, bytes up to the buffer's position have been read. Heap, so the stream reads
+    // straight into its array.
+    private PooledBuffer pooledBuffer;
+    private ByteBuffer buffer;
+    private int frameStart;
+    // the fragments of the message being put together, and its opcode
+    private PooledBuffer pooledMessage;
+    private int messageOpcode = NO_MESSAGE;
+    private boolean pingSent;
+    private boolean closeReceived;
+    private boolean failed;
+    private int soTimeout = -1;
+    private int closeCode = WebSocketCodec.ABNORMAL_CLOSURE;
+    private String closeReason = "";
+
+    private static final class WebSocketFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int closeCode;
+
+        private WebSocketFailure(int closeCode, String message) {
+            super(message);
+            this.closeCode = closeCode;
+        }
+    }
+
+    // buffered holds whatever was read past the handshake and is ours to release from here on
+    WebSocketConnection(Socket socket, PooledBuffer buffered, WebSocket webSocket, WebSocketUpgrade upgrade, ServerMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.stream = socket.getInputStream();
+        this.webSocket = webSocket;
+        this.handler = upgrade.handler();
+        this.policy = upgrade.policy();
+        this.metrics = metrics;
+        this.pooledBuffer = buffered;
+        this.buffer = buffered.buffer();
+    }
+
+    // returns once the connection is done with, the caller closes the socket
+    void serve() {
+        webSocket.start();
+        try {
+            handler.onOpen(webSocket);
+            while(!closeReceived) {
+                if(!nextFrame()) read();
+            }
+        }
+        catch (WebSocketFailure e) {
+            closeCode = e.closeCode;
+            closeReason = e.getMessage();
+            webSocket.close(e.closeCode, e.getMessage());
+            failed = true;
+        }
+        catch (IOException e) {
+            // reset, gone quiet or closed under us, by abort() or the server stopping, there's no one left to tell
+        }
+        catch (RuntimeException e) {
+            System.out.println("Problem while handling WebSocket message");
+            e.printStackTrace();
+            closeCode = WebSocketCodec.INTERNAL_ERROR;
+            webSocket.close(WebSocketCodec.INTERNAL_ERROR, "");
+            failed = true;
+        }
+        finally {
+            webSocket.finish(CLOSE_TIMEOUT);
+            if(failed) discardUntilClosed();
+            try {
+                handler.onClose(webSocket, closeCode, closeReason);
+            }
+            catch (RuntimeException e) {
+                System.out.println("Problem while closing WebSocket");
+                e.printStackTrace();
+            }
+            pooledBuffer.release();
+            if(pooledMessage != null) pooledMessage.release();
+        }
+    }
+
+    // handles the frame at frameStart, false when it isn't all there yet
+    private boolean nextFrame() {
+        var available = buffer.position() - frameStart;
+        if(available < 2) return false;
+        var first = buffer.get(frameStart) & 0xFF;
+        var second = buffer.get(frameStart + 1) & 0xFF;
+        if((first & WebSocketCodec.RESERVED_BITS) != 0) throw failure(WebSocketCodec.PROTOCOL_ERROR, "Reserved bits set");
+        if((second & WebSocketCodec.FLAG_MASK) == 0) throw failure(WebSocketCodec.PROTOCOL_ERROR, "Client frames must be masked");
+        var fin = (first & WebSocketCodec.FLAG_FIN) != 0;
+        var opcode = first & WebSocketCodec.OPCODE_BITS;
+        long length = second & 0x7F;
+        var headerLength = 2 + 4;
+        if(length == 126) {
+            if(available < 4) return false;
+            length = buffer.getShort(frameStart + 2) & 0xFFFF;
+            headerLength += 2;
+        }
+        else if(length == 127) {
+            if(available < 10) return false;
+            length = buffer.getLong(frameStart + 2);
+            headerLength += 8;
+        }
+        if(WebSocketCodec.isControl(opcode) && (!fin || length > WebSocketCodec.MAX_CONTROL_PAYLOAD)) {
+            throw failure(WebSocketCodec.PROTOCOL_ERROR, "Control frames must be whole and short");
+        }
+        if(length < 0 || length > policy.maxMessageSize()) {
+            throw failure(WebSocketCodec.MESSAGE_TOO_BIG, "Message larger than %d bytes".formatted(policy.maxMessageSize()));
+        }
+        var frameLength = headerLength + (int) length;
+        if(available < frameLength) {
+            if(frameStart + frameLength > buffer.capacity()) makeRoom(frameLength);
+            return false;
+        }
+        var payloadStart = frameStart + headerLength;
+        var payloadEnd = frameStart + frameLength;
+        WebSocketCodec.applyMask(buffer, payloadStart, payloadEnd, buffer.getInt(payloadStart - 4));
+        onFrame(fin, opcode, payloadStart, payloadEnd);
+        frameStart += frameLength;
+        if(frameStart == buffer.position()) {
+            buffer.clear();
+            frameStart = 0;
+        }
+        return true;
+    }
+
+    private void onFrame(boolean fin, int opcode, int start, int end) {
+        switch (opcode) {
+            case WebSocketCodec.TEXT, WebSocketCodec.BINARY -> {
+                if(messageOpcode != NO_MESSAGE) throw failure(WebSocketCodec.PROTOCOL_ERROR, "New message before the last one was finished");
+                if(fin) {
+                    deliver(opcode, buffer.slice(start, end - start));
+                    return;
+                }
+                messageOpcode = opcode;
+                appendFragment(start, end);
+            }
+            case WebSocketCodec.CONTINUATION -> {
+                if(messageOpcode == NO_MESSAGE) throw failure(WebSocketCodec.PROTOCOL_ERROR, "Continuation without a message to continue");
+                appendFragment(start, end);
+                if(!fin) return;
+                var message = pooledMessage.buffer();
+                var opcodeOfMessage = messageOpcode;
+                messageOpcode = NO_MESSAGE;
+                deliver(opcodeOfMessage, message.slice(0, message.position()));
+                message.clear();
+            }
+            case WebSocketCodec.PING -> webSocket.send(WebSocketCodec.encode(WebSocketCodec.PONG, buffer.slice(start, end - start)));
+            case WebSocketCodec.PONG -> pingSent = false;
+            case WebSocketCodec.CLOSE -> closeReceived(start, end);
+            default -> throw failure(WebSocketCodec.PROTOCOL_ERROR, "Unknown opcode %d".formatted(opcode));
+        }
+    }
+
+    private void deliver(int opcode, ByteBuffer payload) {
+        if(opcode == WebSocketCodec.BINARY) {
+            handler.onBinary(webSocket, payload);
+            return;
+        }
+        handler.onText(webSocket, decodeText(payload));
+    }
+
+    // answers with a close frame of our own unless we sent the first one, the connection ends after that
+    private void closeReceived(int start, int end) {
+        if(end - start == 1) throw failure(WebSocketCodec.PROTOCOL_ERROR, "Close frame with a one byte payload");
+        closeReceived = true;
+        if(end == start) {
+            closeCode = WebSocketCodec.NO_STATUS;
+            webSocket.close(WebSocketCodec.NORMAL_CLOSURE, "");
+            return;
+        }
+        var code = buffer.getShort(start) & 0xFFFF;
+        if(!WebSocketCodec.isValidCloseCode(code)) throw failure(WebSocketCodec.PROTOCOL_ERROR, "Invalid close code %d".formatted(code));
+        closeCode = code;
+        closeReason = decodeText(buffer.slice(start + 2, end - start - 2));
+        webSocket.close(code, "");
+    }
+
+    private String decodeText(ByteBuffer payload) {
+        try {
+            return utf8.decode(payload).toString();
+        }
+        catch (CharacterCodingException e) {
+            throw failure(WebSocketCodec.INVALID_PAYLOAD, "Text is not valid UTF-8");
+        }
+    }
+
+    private void appendFragment(int start, int end) {
+        var length = end - start;
+        if(pooledMessage == null) pooledMessage = BufferPool.HEAP.acquire(Math.max(INITIAL_BUFFER_SIZE, length));
+        var message = pooledMessage.buffer();
+        if(message.position() + length > policy.maxMessageSize()) {
+            throw failure(WebSocketCodec.MESSAGE_TOO_BIG, "Message larger than %d bytes".formatted(policy.maxMessageSize()));
+        }
+        if(message.remaining() < length) {
+            var grown = BufferPool.HEAP.acquire(Math.min(Math.max(message.capacity() * 2, message.position() + length), policy.maxMessageSize()));
+            grown.buffer().put(message.flip());
+            pooledMessage.release();
+            pooledMessage = grown;
+            message = grown.buffer();
+        }
+        message.put(message.position(), buffer, start, length);
+        message.position(message.position() + length);
+    }
+
+    // moves the partial frame to the front of the buffer, into a bigger one when it doesn't fit even there
+    private void makeRoom(int frameLength) {
+        var partial = buffer.position() - frameStart;
+        if(frameLength > buffer.capacity()) {
+            var grown = BufferPool.HEAP.acquire(frameLength);
+            grown.buffer().put(grown.buffer().position(), buffer, frameStart, partial).position(partial);
+            pooledBuffer.release();
+            pooledBuffer = grown;
+            buffer = grown.buffer();
+        }
+        else {
+            buffer.put(0, buffer, frameStart, partial).position(partial);
+        }
+        frameStart = 0;
+    }
+
+    // blocks for the next bytes, pinging a client that has gone quiet and giving up on one that stays that way
+    private void read() throws IOException {
+        if(!buffer.hasRemaining()) makeRoom(buffer.position() - frameStart + 1);
+        while(true) {
+            soTimeout(webSocket.isCloseSent() ? (int) CLOSE_TIMEOUT.toMillis() : ConnectionPolicy.millis(policy.pingInterval()));
+            try {
+                var read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+                if(read < 0) throw new EOFException("Client closed the connection without a close frame");
+                metrics.bytesIn(read);
+                buffer.position(buffer.position() + read);
+                pingSent = false; // anything from the client shows it's still there
+                return;
+            }
+            catch (SocketTimeoutException e) {
+                if(pingSent || webSocket.isCloseSent()) {
+                    metrics.timeout();
+                    throw e;
+                }
+                pingSent = webSocket.send(WebSocketCodec.encode(WebSocketCodec.PING, ByteBuffer.allocate(0)));
+                if(!pingSent) throw e;
+            }
+        }
+    }
+
+    // after closing on an error the rest of the input can't be parsed, but closing with it unread resets the
+    // connection and the client may lose the close frame. Half-close and skip it until the client closes too.
+    private void discardUntilClosed() {
+        try {
+            socket.shutdownOutput();
+            soTimeout((int) CLOSE_TIMEOUT.toMillis());
+            var deadline = System.nanoTime() + CLOSE_TIMEOUT.toNanos();
+            while(System.nanoTime() < deadline && stream.read(buffer.array(), 0, buffer.capacity()) >= 0) {
+                // dropped
+            }
+        }
+        catch (IOException ignored) {
+
+        }
+    }
+
+    private void soTimeout(int millis) throws IOException {
+        if(millis == soTimeout) return;
+        socket.setSoTimeout(millis);
+        soTimeout = millis;
+    }
+
+    private static WebSocketFailure failure(int closeCode, String message) {
+        return new WebSocketFailure(closeCode, message);
+    }
+}
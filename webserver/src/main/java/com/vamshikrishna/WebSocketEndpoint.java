@@ -0,0 +1,45 @@
+package com.vamshikrishna;
+
+// accepts WebSocket connections on a route and hands them to handler:
+//   new Router().get("/live", new WebSocketEndpoint(handler))
+// Requests that don't ask for a WebSocket get a 426. Only HttpServerImpl switches protocols, NioHttpServer answers
+// the upgrade with a 501 and HTTP/2 clients can't ask for one.
+public class WebSocketEndpoint implements HttpRequestHandler {
+    private final WebSocketHandler handler;
+    private final WebSocketPolicy policy;
+
+    public WebSocketEndpoint(WebSocketHandler handler) {
+        this(handler, WebSocketPolicy.defaults());
+    }
+
+    public WebSocketEndpoint(WebSocketHandler handler, WebSocketPolicy policy) {
+        if(handler == null || policy == null) {
+            throw new IllegalArgumentException("handler and policy are required");
+        }
+        this.handler = handler;
+        this.policy = policy;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request) {
+        if(!WebSocketCodec.isUpgradeRequest(request)) {
+            return emptyResponse(426, new HttpHeaders(3).add("Upgrade", "websocket").add("Connection", "Upgrade"));
+        }
+        if(!WebSocketCodec.VERSION.equals(request.header(WebSocketCodec.VERSION_HEADER))) {
+            return emptyResponse(426, new HttpHeaders(2).add("Sec-WebSocket-Version", WebSocketCodec.VERSION));
+        }
+        var key = request.header(WebSocketCodec.KEY_HEADER);
+        if(!WebSocketCodec.isValidKey(key)) {
+            return emptyResponse(400, new HttpHeaders(1));
+        }
+        var headers = new HttpHeaders(3)
+                .add("Upgrade", "websocket")
+                .add("Connection", "Upgrade")
+                .add("Sec-WebSocket-Accept", WebSocketCodec.acceptKey(key));
+        return new HttpResponse(101, headers, new WebSocketUpgrade(handler, policy));
+    }
+
+    private static HttpResponse emptyResponse(int responseCode, HttpHeaders headers) {
+        return new HttpResponse(responseCode, headers.add("Content-Length", "0"), new byte[0]);
+    }
+}
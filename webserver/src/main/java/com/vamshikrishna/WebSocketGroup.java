@@ -0,0 +1,52 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// connections that get the same messages, a dashboard's viewers say. A broadcast is encoded into one frame whose
+// bytes every member's writer sends on its own, so ten thousand members cost ten thousand references to one buffer
+// rather than ten thousand copies. Members that closed or fell too far behind are dropped as they are found.
+public class WebSocketGroup {
+    private final Set<WebSocket> members = ConcurrentHashMap.newKeySet();
+
+    public void join(WebSocket webSocket) {
+        members.add(webSocket);
+    }
+
+    public void leave(WebSocket webSocket) {
+        members.remove(webSocket);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    // how many members the message was queued for
+    public int broadcastText(String message) {
+        return broadcast(WebSocketCodec.encodeText(message));
+    }
+
+    // message is copied into the frame, the caller may reuse it as soon as this returns
+    public int broadcastBinary(ByteBuffer message) {
+        return broadcast(WebSocketCodec.encode(WebSocketCodec.BINARY, message));
+    }
+
+    private int broadcast(PooledBuffer frame) {
+        var reached = 0;
+        try {
+            for(var member : members) {
+                if(member.send(frame.retain())) {
+                    reached++;
+                }
+                else {
+                    members.remove(member);
+                }
+            }
+        }
+        finally {
+            frame.release();
+        }
+        return reached;
+    }
+}
@@ -0,0 +1,23 @@
+package com.vamshikrishna;
+
+import java.nio.ByteBuffer;
+
+// what a WebSocketEndpoint does with its connections. Calls for one connection come one at a time on its own thread
+// and in the order its frames arrived, sending from them or from any other thread never blocks.
+public interface WebSocketHandler {
+    default void onOpen(WebSocket socket) {
+    }
+
+    // whole messages, fragmented ones are put together first
+    default void onText(WebSocket socket, String message) {
+    }
+
+    // the message sits in the connection's read buffer and is only valid until this returns, copy what you keep
+    default void onBinary(WebSocket socket, ByteBuffer message) {
+    }
+
+    // once for every connection that was opened. code is the one from the client's close frame, 1005 when it sent
+    // none and 1006 when the connection ended without one
+    default void onClose(WebSocket socket, int code, String reason) {
+    }
+}
@@ -0,0 +1,44 @@
+package com.vamshikrishna;
+
+import java.time.Duration;
+
+// limits of the WebSocket connections a WebSocketEndpoint accepts:
+//   maxMessageSize  bytes a message may have once its fragments are put together, a larger one closes the
+//                   connection with 1009
+//   pingInterval    a connection that has been quiet this long is pinged, one that stays quiet for another interval
+//                   is taken for dead and closed. Duration.ZERO never pings and waits for the client indefinitely
+//   maxQueuedBytes  frames waiting to go out to one client. A client that falls further behind is disconnected
+//                   instead of being buffered for, so it can't hold up a broadcast or run the heap out
+public record WebSocketPolicy(int maxMessageSize, Duration pingInterval, long maxQueuedBytes) {
+    private static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+    private static final Duration DEFAULT_PING_INTERVAL = Duration.ofSeconds(30);
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+
+    public WebSocketPolicy {
+        if(maxMessageSize < 1) {
+            throw new IllegalArgumentException("maxMessageSize must be positive, got %d".formatted(maxMessageSize));
+        }
+        if(pingInterval == null || pingInterval.isNegative()) {
+            throw new IllegalArgumentException("pingInterval must not be negative, got %s".formatted(pingInterval));
+        }
+        if(maxQueuedBytes < 1) {
+            throw new IllegalArgumentException("maxQueuedBytes must be positive, got %d".formatted(maxQueuedBytes));
+        }
+    }
+
+    public static WebSocketPolicy defaults() {
+        return new WebSocketPolicy(DEFAULT_MAX_MESSAGE_SIZE, DEFAULT_PING_INTERVAL, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public WebSocketPolicy withMaxMessageSize(int maxMessageSize) {
+        return new WebSocketPolicy(maxMessageSize, pingInterval, maxQueuedBytes);
+    }
+
+    public WebSocketPolicy withPingInterval(Duration pingInterval) {
+        return new WebSocketPolicy(maxMessageSize, pingInterval, maxQueuedBytes);
+    }
+
+    public WebSocketPolicy withMaxQueuedBytes(long maxQueuedBytes) {
+        return new WebSocketPolicy(maxMessageSize, pingInterval, maxQueuedBytes);
+    }
+}
@@ -0,0 +1,22 @@
+package com.vamshikrishna;
+
+import java.nio.channels.WritableByteChannel;
+
+// the body of a 101 from a WebSocketEndpoint: nothing to write, the server serves the rest of the connection as a
+// WebSocket with handler once the head is out
+record WebSocketUpgrade(WebSocketHandler handler, WebSocketPolicy policy) implements ResponseBody {
+    // null unless res switches the connection to a WebSocket
+    static WebSocketUpgrade of(HttpResponse res) {
+        return res.responseCode() == 101 && res.streamingBody() instanceof WebSocketUpgrade upgrade ? upgrade : null;
+    }
+
+    @Override
+    public long length() {
+        return 0;
+    }
+
+    @Override
+    public boolean writeTo(WritableByteChannel channel) {
+        return true;
+    }
+}
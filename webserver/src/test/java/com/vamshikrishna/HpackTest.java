@@ -0,0 +1,87 @@
+package com.vamshikrishna;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// RFC 7541 appendix C.4, three requests with Huffman coding sharing one dynamic table
+class HpackTest {
+    private static final List<List<String>> REQUESTS = List.of(
+            List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+            List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"),
+            List.of(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"));
+    private static final List<String> BLOCKS = List.of(
+            "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+            "828684be5886a8eb10649cbf",
+            "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+
+    @Test
+    void decodesRequestsOfAppendixC4() {
+        var decoder = new HpackDecoder(Http2Codec.DEFAULT_HEADER_TABLE_SIZE);
+        for(int i = 0; i < BLOCKS.size(); i++) {
+            assertEquals(REQUESTS.get(i), decode(decoder, HexFormat.of().parseHex(BLOCKS.get(i))), "request " + (i + 1));
+        }
+    }
+
+    @Test
+    void encodesRequestsOfAppendixC4() {
+        var encoder = new HpackEncoder();
+        for(int i = 0; i < REQUESTS.size(); i++) {
+            assertEquals(BLOCKS.get(i), HexFormat.of().formatHex(encode(encoder, REQUESTS.get(i))), "request " + (i + 1));
+        }
+    }
+
+    @Test
+    void roundTripsThroughBothTables() {
+        var encoder = new HpackEncoder();
+        var decoder = new HpackDecoder(Http2Codec.DEFAULT_HEADER_TABLE_SIZE);
+        var fields = List.of(":status", "200", "content-type", "text/plain", "content-length", "5", "set-cookie", "id=1",
+                "x-request-id", "a".repeat(300));
+        for(int i = 0; i < 3; i++) {
+            assertEquals(fields, decode(decoder, encode(encoder, fields)));
+        }
+    }
+
+    @Test
+    void sendsSmallestTableSizeBeforeTheNewOne() {
+        var encoder = new HpackEncoder();
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(1_024);
+        var out = new ByteArrayOutputStream();
+        encoder.beginBlock(out);
+        assertArrayEquals(HexFormat.of().parseHex("203fe107"), out.toByteArray());
+    }
+
+    @Test
+    void rejectsTableSizeAboveTheAdvertisedOne() {
+        var decoder = new HpackDecoder(Http2Codec.DEFAULT_HEADER_TABLE_SIZE);
+        var block = HexFormat.of().parseHex("3fe21f"); // 4097
+        var e = assertThrows(Http2Exception.class, () -> decode(decoder, block));
+        assertEquals(Http2Codec.COMPRESSION_ERROR, e.errorCode());
+    }
+
+    private static byte[] encode(HpackEncoder encoder, List<String> fields) {
+        var out = new ByteArrayOutputStream();
+        encoder.beginBlock(out);
+        for(int i = 0; i < fields.size(); i += 2) {
+            encoder.encode(fields.get(i), fields.get(i + 1), out);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> decode(HpackDecoder decoder, byte[] block) {
+        var fields = new ArrayList<String>();
+        decoder.decode(block, 0, block.length, (name, value) -> {
+            fields.add(name);
+            fields.add(value);
+        });
+        return fields;
+    }
+}
@@ -0,0 +1,115 @@
+package com.vamshikrishna;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.RepeatedTest;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// many streams on one h2c connection of HttpServerImpl, answered out of order while the client keeps opening the
+// connection window as their DATA arrives
+class Http2ConnectionTest {
+    private static final int STREAMS = 100;
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private HttpServerImpl server;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = HttpServerImpl.withVirtualThreads(HttpServerConfig.builder(port).h2c(true).build());
+        server.start(request -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextInt(5)));
+            var body = body(request.path());
+            return new HttpResponse(200, Map.of("Content-Type", List.of("text/plain"),
+                    "Content-Length", List.of(String.valueOf(body.length))), body);
+        });
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @RepeatedTest(5)
+    void answersEveryConcurrentStream() throws IOException {
+        try (var socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            var out = new BufferedOutputStream(socket.getOutputStream());
+            var in = new DataInputStream(socket.getInputStream());
+            out.write(Http2Codec.PREFACE);
+            Http2Frames.write(out, Http2Codec.SETTINGS, 0, 0, new byte[0]);
+            var encoder = new HpackEncoder();
+            for(int i = 0; i < STREAMS; i++) {
+                var block = new ByteArrayOutputStream();
+                encoder.encode(":method", "GET", block);
+                encoder.encode(":scheme", "http", block);
+                encoder.encode(":path", "/streams/" + streamId(i), block);
+                encoder.encode(":authority", "localhost", block);
+                Http2Frames.write(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS | Http2Codec.FLAG_END_STREAM, streamId(i), block.toByteArray());
+            }
+            out.flush();
+
+            var decoder = new HpackDecoder(Http2Codec.DEFAULT_HEADER_TABLE_SIZE);
+            var statuses = new HashMap<Integer, String>();
+            var bodies = new HashMap<Integer, ByteArrayOutputStream>();
+            var finished = 0;
+            while(finished < STREAMS) {
+                var frame = Http2Frames.read(in);
+                switch (frame.type()) {
+                    case Http2Codec.SETTINGS -> {
+                        if(!frame.has(Http2Codec.FLAG_ACK)) Http2Frames.write(out, Http2Codec.SETTINGS, Http2Codec.FLAG_ACK, 0, new byte[0]);
+                    }
+                    case Http2Codec.HEADERS -> decoder.decode(frame.payload(), 0, frame.payload().length, (name, value) -> {
+                        if(name.equals(":status")) statuses.put(frame.streamId(), value);
+                    });
+                    case Http2Codec.DATA -> {
+                        bodies.computeIfAbsent(frame.streamId(), id -> new ByteArrayOutputStream()).writeBytes(frame.payload());
+                        if(frame.payload().length > 0) {
+                            var increment = new byte[4];
+                            Http2Codec.writeInt(increment, 0, frame.payload().length);
+                            Http2Frames.write(out, Http2Codec.WINDOW_UPDATE, 0, 0, increment);
+                        }
+                    }
+                    case Http2Codec.WINDOW_UPDATE, Http2Codec.PING -> {
+                    }
+                    default -> fail("Unexpected frame of type %d on stream %d".formatted(frame.type(), frame.streamId()));
+                }
+                if(frame.streamId() != 0 && frame.has(Http2Codec.FLAG_END_STREAM)) finished++;
+                out.flush();
+            }
+
+            for(int i = 0; i < STREAMS; i++) {
+                var path = "/streams/" + streamId(i);
+                assertEquals("200", statuses.get(streamId(i)), path);
+                assertEquals(new String(body(path), StandardCharsets.UTF_8), bodies.get(streamId(i)).toString(StandardCharsets.UTF_8), path);
+            }
+        }
+    }
+
+    private static int streamId(int i) {
+        return 2 * i + 1;
+    }
+
+    // large enough that the responses together need more than the client's initial connection window
+    private static byte[] body(String path) {
+        return (path + "\n").repeat(200).getBytes(StandardCharsets.UTF_8);
+    }
+}
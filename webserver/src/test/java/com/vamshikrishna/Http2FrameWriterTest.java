@@ -0,0 +1,155 @@
+package com.vamshikrishna;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Http2FrameWriterTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private final ByteArrayOutputStream socket = new ByteArrayOutputStream();
+    private final Http2FrameWriter writer = new Http2FrameWriter(socket, new ServerMetrics());
+
+    @Test
+    void dataWaitsForBothWindowsAndResumesOnWindowUpdate() throws Exception {
+        writer.openStream(1);
+        var body = new byte[100_000];
+        var sending = CompletableFuture.runAsync(() -> write(() -> writer.writeData(1, body, 0, body.length, true)));
+
+        awaitTrue(() -> dataWritten(1) == Http2Codec.DEFAULT_WINDOW_SIZE);
+        writer.windowUpdate(1, 40_000); // the connection window is still empty
+        Thread.sleep(100);
+        assertEquals(Http2Codec.DEFAULT_WINDOW_SIZE, dataWritten(1));
+
+        writer.windowUpdate(0, 40_000);
+        assertTimeoutPreemptively(TIMEOUT, () -> sending.get());
+        var frames = Http2Frames.readAll(socket.toByteArray());
+        assertEquals(body.length, dataWritten(1));
+        assertTrue(frames.stream().allMatch(frame -> frame.payload().length <= Http2Codec.DEFAULT_MAX_FRAME_SIZE));
+        assertTrue(frames.getLast().has(Http2Codec.FLAG_END_STREAM));
+    }
+
+    @Test
+    void smallerInitialWindowHoldsBackOpenStreams() throws Exception {
+        writer.openStream(1);
+        writer.applySetting(Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE, 10);
+        var sending = CompletableFuture.runAsync(() -> write(() -> writer.writeData(1, new byte[30], 0, 30, true)));
+
+        awaitTrue(() -> dataWritten(1) == 10);
+        writer.applySetting(Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE, 30);
+        assertTimeoutPreemptively(TIMEOUT, () -> sending.get());
+        assertEquals(30, dataWritten(1));
+    }
+
+    @Test
+    void resetReleasesAWriterWaitingForItsWindow() throws Exception {
+        writer.openStream(1);
+        writer.applySetting(Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE, 0);
+        var failure = new CompletableFuture<Throwable>();
+        var sending = Thread.ofPlatform().start(() -> {
+            try {
+                writer.writeData(1, new byte[10], 0, 10, true);
+                failure.complete(null);
+            }
+            catch (Exception e) {
+                failure.complete(e);
+            }
+        });
+
+        awaitTrue(() -> sending.getState() == Thread.State.WAITING);
+        writer.closeStream(1);
+        var e = assertInstanceOf(Http2Exception.class, failure.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertEquals(Http2Codec.STREAM_CLOSED, e.errorCode());
+        assertEquals(0, dataWritten(1));
+    }
+
+    @Test
+    void windowOverflowIsAFlowControlError() {
+        var e = assertThrows(Http2Exception.class, () -> writer.windowUpdate(0, Integer.MAX_VALUE));
+        assertEquals(Http2Codec.FLOW_CONTROL_ERROR, e.errorCode());
+        assertEquals(0, e.streamId());
+    }
+
+    // the reader taking the lock for streams and windows while others finish must not strand their frames in the buffer
+    @RepeatedTest(10)
+    void framesOfConcurrentStreamsAllReachTheSocket() throws Exception {
+        var streams = 200;
+        for(int i = 0; i < streams; i++) {
+            writer.openStream(2 * i + 1);
+        }
+        var answered = new AtomicBoolean();
+        var readers = new ArrayList<CompletableFuture<Void>>();
+        for(int i = 0; i < 4; i++) {
+            var streamId = 2 * (streams + i) + 1;
+            readers.add(CompletableFuture.runAsync(() -> {
+                while(!answered.get()) {
+                    writer.openStream(streamId);
+                    writer.windowUpdate(streamId, 1);
+                    writer.closeStream(streamId);
+                    writer.maxFrameSize();
+                }
+            }, task -> Thread.ofPlatform().start(task)));
+        }
+        var writers = new ArrayList<CompletableFuture<Void>>();
+        for(int i = 0; i < streams; i++) {
+            var streamId = 2 * i + 1;
+            writers.add(CompletableFuture.runAsync(() -> write(() -> {
+                writer.writeHeaders(streamId, new HttpResponse(200, Map.of(), new byte[0]), false);
+                writer.writeData(streamId, new byte[100], 0, 100, true);
+            }), Thread::startVirtualThread));
+        }
+        assertTimeoutPreemptively(TIMEOUT, () -> CompletableFuture.allOf(writers.toArray(CompletableFuture[]::new)).get());
+        answered.set(true);
+        assertTimeoutPreemptively(TIMEOUT, () -> CompletableFuture.allOf(readers.toArray(CompletableFuture[]::new)).get());
+
+        var finished = new HashSet<Integer>();
+        for(var frame : Http2Frames.readAll(socket.toByteArray())) {
+            if(frame.has(Http2Codec.FLAG_END_STREAM)) finished.add(frame.streamId());
+        }
+        assertEquals(streams, finished.size());
+    }
+
+    private int dataWritten(int streamId) {
+        var written = 0;
+        for(var frame : Http2Frames.readAll(socket.toByteArray())) {
+            if(frame.type() == Http2Codec.DATA && frame.streamId() == streamId) written += frame.payload().length;
+        }
+        return written;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while(!condition.getAsBoolean()) Thread.sleep(10);
+        });
+    }
+
+    private static void write(IoAction action) {
+        try {
+            action.run();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,48 @@
+package com.vamshikrishna;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// the client side of the frame layer for tests, reads what the server wrote and writes what a client would
+final class Http2Frames {
+    record Frame(int type, int flags, int streamId, byte[] payload) {
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    private Http2Frames() {
+    }
+
+    static Frame read(DataInputStream in) throws IOException {
+        var header = new byte[Http2Codec.FRAME_HEADER_SIZE];
+        in.readFully(header);
+        var length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | (header[2] & 0xff);
+        var payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(header[3], header[4] & 0xff, Http2Codec.readInt(header, 5) & 0x7fff_ffff, payload);
+    }
+
+    // every whole frame in what was written so far, a frame cut off at the end is left out
+    static List<Frame> readAll(byte[] written) {
+        var in = new DataInputStream(new ByteArrayInputStream(written));
+        var frames = new ArrayList<Frame>();
+        try {
+            while(true) frames.add(read(in));
+        }
+        catch (IOException e) {
+            return frames;
+        }
+    }
+
+    static void write(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        var header = new byte[Http2Codec.FRAME_HEADER_SIZE];
+        Http2Codec.writeFrameHeader(header, payload.length, type, flags, streamId);
+        out.write(header);
+        out.write(payload);
+    }
+}
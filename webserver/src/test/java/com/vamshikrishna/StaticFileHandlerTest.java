@@ -0,0 +1,67 @@
+package com.vamshikrishna;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StaticFileHandlerTest {
+    @TempDir
+    Path directory;
+    private StaticFileHandler handler;
+
+    @BeforeEach
+    void createFiles() throws IOException {
+        var root = Files.createDirectories(directory.resolve("public"));
+        Files.createDirectories(root.resolve("css"));
+        Files.writeString(root.resolve("css/site.css"), "body {}");
+        Files.writeString(directory.resolve("secret.txt"), "secret");
+        handler = new StaticFileHandler(root);
+    }
+
+    @Test
+    void servesTheWholePathWhenMountedDirectly() throws IOException {
+        var response = handler.handle(get("/css/site.css"));
+        assertEquals(200, response.responseCode());
+        assertEquals("body {}", body(response));
+    }
+
+    @Test
+    void servesWhatTheWildcardCapturedBehindARouter() throws IOException {
+        var router = new Router().get("/static/*", handler);
+        var response = router.handle(get("/static/css/site.css"));
+        assertEquals(200, response.responseCode());
+        assertEquals("body {}", body(response));
+        assertEquals(404, router.handle(get("/static/static/css/site.css")).responseCode());
+    }
+
+    @Test
+    void staysUnderRoot() {
+        var router = new Router().get("/static/*", handler);
+        assertEquals(404, router.handle(get("/static/..%2Fsecret.txt")).responseCode());
+        assertEquals(404, handler.handle(get("/../secret.txt")).responseCode());
+    }
+
+    private static String body(HttpResponse response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var body = response.streamingBody()) {
+            var channel = Channels.newChannel(out);
+            while(!body.writeTo(channel)) {
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest get(String url) {
+        return new HttpRequest("GET", url, Map.of(), new byte[0]);
+    }
+}